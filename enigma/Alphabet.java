@@ -1,32 +1,51 @@
 package enigma;
 import static enigma.EnigmaException.*;
-import java.util.Map;
-import java.util.HashMap;
+import static enigma.EnigmaException.Kind.*;
+import java.util.Arrays;
 
 /** An alphabet of encodable characters.  Provides a mapping from characters
- *  to and from indices into the alphabet.
+ *  to and from indices into the alphabet.  Characters are Unicode code
+ *  points, so alphabets may include supplementary characters.  The
+ *  mapping from code points to indices is a directly indexed table when
+ *  the alphabet's code points are dense enough, and an open-addressed
+ *  hash table otherwise; either way, lookup takes constant time.
  *  @author Truong Le
  */
 class Alphabet {
 
     /** A new alphabet containing CHARS.  Character number #k has index
-     *  K (numbering from 0). No character may be duplicated.
-     *  Can also use Set/HashSet here. */
+     *  K (numbering from 0). No character may be duplicated. */
     Alphabet(String chars) {
-        this.chAr = chars.toCharArray();
-
-        Map<Character, Integer> map = new HashMap<>();
-        for (char c: chAr) {
-            if (map.containsKey(c)) {
-                int count = map.get(c);
-                map.put(c, ++count);
-            } else {
-                map.put(c, 1);
-            }
+        this(chars.codePoints().toArray());
+    }
+
+    /** A new alphabet containing the code points CODEPOINTS, in order.
+     *  No code point may be duplicated. */
+    Alphabet(int[] codePoints) {
+        _codePoints = codePoints.clone();
+        int min = Integer.MAX_VALUE, max = -1;
+        for (int c : _codePoints) {
+            min = Math.min(min, c);
+            max = Math.max(max, c);
+        }
+        if (_codePoints.length == 0) {
+            min = max = 0;
+        }
+        _base = min;
+        if ((long) max - min < DENSE_SLACK + DENSE_FACTOR * size()) {
+            _dense = new int[max - min + 1];
+            Arrays.fill(_dense, -1);
+        } else {
+            int capacity = Integer.highestOneBit(2 * size() - 1) << 1;
+            _keys = new int[capacity];
+            _values = new int[capacity];
+            Arrays.fill(_keys, -1);
         }
-        for (char c: map.keySet()) {
-            if (map.get(c) > 1) {
-                throw error(c + " Alphabet contains duplicates");
+        for (int i = 0; i < _codePoints.length; i += 1) {
+            if (!insert(_codePoints[i], i)) {
+                throw error(CONFIG,
+                            new String(Character.toChars(_codePoints[i]))
+                            + " Alphabet contains duplicates");
             }
         }
     }
@@ -38,39 +57,141 @@ class Alphabet {
 
     /** Returns the size of the alphabet. */
     int size() {
-        return this.chAr.length;
+        return _codePoints.length;
     }
 
     /** Returns true if CH is in this alphabet. */
     boolean contains(char ch) {
-        for (char c: this.chAr) {
-            if (c == ch) {
-                return true;
-            }
-        }
-        return false;
+        return indexOf(ch) >= 0;
+    }
+
+    /** Returns true if code point C is in this alphabet. */
+    boolean containsCodePoint(int c) {
+        return indexOf(c) >= 0;
     }
 
     /** Returns character number INDEX in the alphabet, where
      *  0 <= INDEX < size(). */
     char toChar(int index) {
+        int c = codePoint(index);
+        if (Character.isSupplementaryCodePoint(c)) {
+            throw error("Character is not a single char");
+        }
+        return (char) c;
+    }
+
+    /** Returns the code point of character number INDEX in the
+     *  alphabet, where 0 <= INDEX < size(). */
+    int codePoint(int index) {
         if (index < 0 || index > this.size() - 1) {
-            throw error("Character index out of range");
+            throw error(INTERNAL, "Character index out of range");
         }
-        return chAr[index];
+        return _codePoints[index];
     }
 
     /** Returns the index of character CH which must be in
      *  the alphabet. This is the inverse of toChar(). */
     int toInt(char ch) {
-        for (int i = 0; i < this.size(); i++) {
-            if (ch == chAr[i]) {
-                return i;
+        return toIndex(ch);
+    }
+
+    /** Returns the index of code point C, which must be in the
+     *  alphabet.  This is the inverse of codePoint(). */
+    int toIndex(int c) {
+        int i = indexOf(c);
+        if (i < 0) {
+            throw error("Character not in Alphabet");
+        }
+        return i;
+    }
+
+    /** Returns the indices of the characters of TEXT, checking them all
+     *  in one pass before any is used.  Throws the error toIndex would
+     *  for the first character not in the alphabet. */
+    int[] toIndices(String text) {
+        int[] result = new int[text.length()];
+        int n = 0;
+        for (int i = 0; i < text.length(); n += 1) {
+            int cp = text.codePointAt(i);
+            i += Character.charCount(cp);
+            int c = indexOf(cp);
+            if (c < 0) {
+                throw error("Character not in Alphabet");
             }
+            result[n] = c;
         }
-        throw error("Character not in Alphabet");
+        return n == result.length ? result : Arrays.copyOf(result, n);
     }
 
-    /** chAr is instance variable of Alphabet that has all of its characters.*/
-    private char[] chAr;
+    /** Returns the string of the characters whose indices are the first
+     *  N entries of INDICES, which must all be valid indices. */
+    String fromIndices(int[] indices, int n) {
+        StringBuilder result = new StringBuilder(n);
+        for (int i = 0; i < n; i += 1) {
+            result.appendCodePoint(_codePoints[indices[i]]);
+        }
+        return result.toString();
+    }
+
+    /** Returns the index of code point C, or -1 if C is not in the
+     *  alphabet. */
+    int indexOf(int c) {
+        if (_dense != null) {
+            int i = c - _base;
+            return i >= 0 && i < _dense.length ? _dense[i] : -1;
+        }
+        int mask = _keys.length - 1;
+        for (int h = hash(c) & mask; _keys[h] != -1; h = (h + 1) & mask) {
+            if (_keys[h] == c) {
+                return _values[h];
+            }
+        }
+        return -1;
+    }
+
+    /** Record that code point C has index I.  Returns false if C was
+     *  already recorded. */
+    private boolean insert(int c, int i) {
+        if (_dense != null) {
+            if (_dense[c - _base] != -1) {
+                return false;
+            }
+            _dense[c - _base] = i;
+            return true;
+        }
+        int mask = _keys.length - 1;
+        int h;
+        for (h = hash(c) & mask; _keys[h] != -1; h = (h + 1) & mask) {
+            if (_keys[h] == c) {
+                return false;
+            }
+        }
+        _keys[h] = c;
+        _values[h] = i;
+        return true;
+    }
+
+    /** Returns a well-mixed hash of code point C. */
+    private static int hash(int c) {
+        int h = c * HASH_MULTIPLIER;
+        return h ^ (h >>> HASH_SHIFT);
+    }
+
+    /** Direct tables are used when the code points span fewer than
+     *  DENSE_SLACK + DENSE_FACTOR * size() values. */
+    private static final int DENSE_SLACK = 1024, DENSE_FACTOR = 4;
+    /** Multiplier and shift used to hash code points. */
+    private static final int HASH_MULTIPLIER = 0x9e3779b9, HASH_SHIFT = 16;
+
+    /** The code points of this alphabet, by index. */
+    private final int[] _codePoints;
+    /** Smallest code point, the origin of _dense. */
+    private final int _base;
+    /** Index of code point _base + k at entry K (-1 if absent), or null if
+     *  the hash table is used. */
+    private int[] _dense;
+    /** Hash table keys (code points, -1 if empty), or null. */
+    private int[] _keys;
+    /** Hash table values (indices). */
+    private int[] _values;
 }
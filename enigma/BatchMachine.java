@@ -0,0 +1,245 @@
+package enigma;
+
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+import static enigma.EnigmaException.Kind.*;
+
+/** A batch of independent Enigma machine states ("lanes") that share one
+ *  rotor order and are advanced and converted together.  State is kept as
+ *  a structure of arrays: for each slot there is one array of settings
+ *  and one of offsets, indexed by lane, so that every stage of a
+ *  conversion is a single pass over contiguous primitive arrays with
+ *  table lookups (gathers) into the compiled rotor tables.
+ *  @author Truong Le
+ */
+class BatchMachine {
+
+    /** A batch of LANES machine states driven by TABLES.  Each lane
+     *  starts with all settings and ring settings 0 and no plugboard. */
+    BatchMachine(MachineTables tables, int lanes) {
+        if (lanes <= 0) {
+            throw error(INTERNAL, "Batch must have at least one lane");
+        }
+        _tables = tables;
+        _lanes = lanes;
+        _size = tables.size();
+        _posns = new int[tables.numRotors()][lanes];
+        _offsets = new int[tables.numRotors()][lanes];
+        _plugs = new int[lanes * _size];
+        _here = new boolean[lanes];
+        for (int lane = 0; lane < lanes; lane += 1) {
+            clearPlugboard(lane);
+        }
+    }
+
+    /** Return my number of lanes. */
+    int lanes() {
+        return _lanes;
+    }
+
+    /** Return the tables driving my lanes. */
+    MachineTables tables() {
+        return _tables;
+    }
+
+    /** Set LANE to the current settings, ring settings and plugboard of
+     *  M, which must have the same rotors inserted as my tables. */
+    void setLane(int lane, Machine M) {
+        int[] posns = new int[_posns.length];
+        int[] rings = new int[_posns.length];
+        for (int k = 0; k < posns.length; k += 1) {
+            if (!M.rotor(k).name().equals(_tables.name(k))) {
+                throw error(INTERNAL, "Machine has a different rotor order");
+            }
+            posns[k] = M.rotor(k).setting();
+            rings[k] = M.rotor(k).ring();
+        }
+        Permutation plugboard = M.plugboard();
+        setLane(lane, posns, rings,
+                plugboard == null ? null : plugboard.forwardTable());
+    }
+
+    /** Set LANE to rotor settings POSNS and ring settings RINGS (indexed
+     *  by slot) and to plugboard table PLUGBOARD, or to no plugboard if
+     *  PLUGBOARD is null. */
+    void setLane(int lane, int[] posns, int[] rings, int[] plugboard) {
+        if (posns.length != _posns.length || rings.length != _posns.length) {
+            throw error(INTERNAL,
+                        "Lane settings must have one entry per slot");
+        }
+        for (int k = 0; k < posns.length; k += 1) {
+            _posns[k][lane] = posns[k];
+            _offsets[k][lane] = _tables.shift(posns[k], _size - rings[k]);
+        }
+        if (plugboard == null) {
+            clearPlugboard(lane);
+        } else {
+            System.arraycopy(plugboard, 0, _plugs, lane * _size, _size);
+        }
+    }
+
+    /** Return the current rotor settings of LANE, indexed by slot. */
+    int[] settings(int lane) {
+        int[] result = new int[_posns.length];
+        for (int k = 0; k < result.length; k += 1) {
+            result[k] = _posns[k][lane];
+        }
+        return result;
+    }
+
+    /** Advance every lane once and convert CHARS[lane] (an index in the
+     *  alphabet) in place for each lane. */
+    void convert(int[] chars) {
+        advance();
+        substitute(chars);
+    }
+
+    /** Return the conversions of MSGS, where MSGS[lane] is the message
+     *  for LANE as alphabet indices.  Messages may differ in length; each
+     *  lane is left in the state reached at the end of its own message. */
+    int[][] convert(int[][] msgs) {
+        if (msgs.length != _lanes) {
+            throw error(INTERNAL, "Need exactly one message per lane");
+        }
+        int[][] result = new int[_lanes][];
+        int longest = 0;
+        for (int lane = 0; lane < _lanes; lane += 1) {
+            result[lane] = new int[msgs[lane].length];
+            longest = Math.max(longest, msgs[lane].length);
+        }
+        int[][] finalPosns = new int[_lanes][];
+        int[] column = new int[_lanes];
+        for (int i = 0; i <= longest; i += 1) {
+            for (int lane = 0; lane < _lanes; lane += 1) {
+                if (msgs[lane].length == i) {
+                    finalPosns[lane] = settings(lane);
+                }
+                column[lane] = i < msgs[lane].length ? msgs[lane][i] : 0;
+            }
+            if (i == longest) {
+                break;
+            }
+            convert(column);
+            for (int lane = 0; lane < _lanes; lane += 1) {
+                if (i < msgs[lane].length) {
+                    result[lane][i] = column[lane];
+                }
+            }
+        }
+        for (int lane = 0; lane < _lanes; lane += 1) {
+            for (int k = 0; k < _posns.length; k += 1) {
+                int delta = finalPosns[lane][k] - _posns[k][lane];
+                _posns[k][lane] = finalPosns[lane][k];
+                _offsets[k][lane] =
+                    _tables.shift(_offsets[k][lane], wrap(delta));
+            }
+        }
+        return result;
+    }
+
+    /** Return the conversions of MSGS, one message per lane, as for
+     *  convert(int[][]).  Every character must be in ALPHABET. */
+    String[] convert(String[] msgs, Alphabet alphabet) {
+        int[][] codes = new int[msgs.length][];
+        for (int lane = 0; lane < msgs.length; lane += 1) {
+            codes[lane] = new int[msgs[lane].length()];
+            for (int i = 0; i < codes[lane].length; i += 1) {
+                codes[lane][i] = alphabet.toInt(msgs[lane].charAt(i));
+            }
+        }
+        int[][] converted = convert(codes);
+        String[] result = new String[msgs.length];
+        for (int lane = 0; lane < msgs.length; lane += 1) {
+            char[] out = new char[converted[lane].length];
+            for (int i = 0; i < out.length; i += 1) {
+                out[i] = alphabet.toChar(converted[lane][i]);
+            }
+            result[lane] = new String(out);
+        }
+        return result;
+    }
+
+    /** Advance every lane once, following the stepping rule of
+     *  MachineTables.advance, one slot at a time across all lanes. */
+    private void advance() {
+        int pawls = _tables.numPawls(), numRotors = _posns.length;
+        if (pawls == 0) {
+            return;
+        }
+        int first = numRotors - pawls, last = numRotors - 1;
+        Arrays.fill(_here, false);
+        for (int k = first - 1; k <= last; k += 1) {
+            boolean rotates = _tables.rotates(k);
+            int[] posns = _posns[k], offsets = _offsets[k];
+            boolean[] notches = k < last ? _tables.notches(k + 1) : null;
+            int[] nextPosns = k < last ? _posns[k + 1] : null;
+            for (int lane = 0; lane < _lanes; lane += 1) {
+                boolean next = notches != null && notches[nextPosns[lane]];
+                if (rotates && _tables.advances(k, _here[lane], next)) {
+                    posns[lane] = posns[lane] + 1 == _size
+                        ? 0 : posns[lane] + 1;
+                    offsets[lane] = offsets[lane] + 1 == _size
+                        ? 0 : offsets[lane] + 1;
+                }
+                _here[lane] = next;
+            }
+        }
+    }
+
+    /** Convert CHARS[lane] in place through each lane's
+     *  plugboard and rotors, one stage at a time across all lanes. */
+    private void substitute(int[] chars) {
+        int n = _size, numRotors = _posns.length;
+        for (int lane = 0; lane < _lanes; lane += 1) {
+            chars[lane] = _plugs[lane * n + chars[lane]];
+        }
+        for (int k = numRotors - 1; k >= 0; k -= 1) {
+            stage(chars, _tables.forward(k), _offsets[k]);
+        }
+        for (int k = 1; k < numRotors; k += 1) {
+            stage(chars, _tables.backward(k), _offsets[k]);
+        }
+        for (int lane = 0; lane < _lanes; lane += 1) {
+            chars[lane] = _plugs[lane * n + chars[lane]];
+        }
+    }
+
+    /** Apply one rotor stage with lookup TABLE and per-lane OFFSETS to
+     *  every entry of CHARS. */
+    private void stage(int[] chars, int[] table, int[] offsets) {
+        int n = _size;
+        for (int lane = 0; lane < _lanes; lane += 1) {
+            int x = chars[lane] + offsets[lane];
+            x = table[x >= n ? x - n : x] - offsets[lane];
+            chars[lane] = x < 0 ? x + n : x;
+        }
+    }
+
+    /** Return P modulo the alphabet size, where -size <= P < size. */
+    private int wrap(int p) {
+        return p < 0 ? p + _size : p;
+    }
+
+    /** Reset the plugboard of LANE to the identity. */
+    private void clearPlugboard(int lane) {
+        for (int c = 0; c < _size; c += 1) {
+            _plugs[lane * _size + c] = c;
+        }
+    }
+
+    /** Compiled rotor tables shared by all lanes. */
+    private final MachineTables _tables;
+    /** Number of lanes. */
+    private final int _lanes;
+    /** Alphabet size. */
+    private final int _size;
+    /** _posns[k][lane] is the setting of slot K in LANE. */
+    private final int[][] _posns;
+    /** _offsets[k][lane] is setting less ring setting of slot K in LANE. */
+    private final int[][] _offsets;
+    /** Plugboard tables of all lanes, lane-major. */
+    private final int[] _plugs;
+    /** Scratch notch flags used while advancing. */
+    private final boolean[] _here;
+}
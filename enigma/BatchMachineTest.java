@@ -0,0 +1,86 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the BatchMachine class.
+ *  @author Truong Le
+ */
+public class BatchMachineTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return a naval machine with rotors B Beta III IV I inserted, set
+     *  to SETTING and RINGS, with plugboard PLUGBOARD. */
+    private Machine navalMachine(String setting, String rings,
+                                 String plugboard) {
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("B", new Permutation(NAVALA.get("B"),
+                                                      UPPER)));
+        rotors.add(new FixedRotor("Beta",
+                                  new Permutation(NAVALA.get("Beta"), UPPER)));
+        rotors.add(new MovingRotor("III",
+                                   new Permutation(NAVALA.get("III"), UPPER),
+                                   "V"));
+        rotors.add(new MovingRotor("IV",
+                                   new Permutation(NAVALA.get("IV"), UPPER),
+                                   "J"));
+        rotors.add(new MovingRotor("I",
+                                   new Permutation(NAVALA.get("I"), UPPER),
+                                   "Q"));
+        Machine M = new Machine(UPPER, 5, 3, rotors);
+        M.insertRotors(new String[] {"B", "Beta", "III", "IV", "I"});
+        M.setRotors(setting);
+        M.setRingRotors(rings);
+        M.setPlugboard(new Permutation(plugboard, UPPER));
+        return M;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testLanesMatchMachine() {
+        String[][] keys = {
+            {"AXLE", "AAAA", "(HQ) (EX) (IP) (TR) (BY)"},
+            {"AAAA", "BCDE", "(AB)"},
+            {"ZZUI", "QQQQ", "(MN) (OP)"},
+        };
+        String[] msgs = {
+            "FROMHISSHOULDERHIAWATHA",
+            "TOOKTHECAMERAOFROSEWOODMADEOFSLIDINGFOLDINGROSEWOOD",
+            "",
+        };
+        BatchMachine batch = null;
+        Machine[] machines = new Machine[keys.length];
+        String[] expected = new String[keys.length];
+        for (int lane = 0; lane < keys.length; lane += 1) {
+            machines[lane] = navalMachine(keys[lane][0], keys[lane][1],
+                                          keys[lane][2]);
+            if (batch == null) {
+                batch = new BatchMachine(new MachineTables(machines[lane]),
+                                         keys.length);
+            }
+            batch.setLane(lane, machines[lane]);
+            expected[lane] = machines[lane].convert(msgs[lane]);
+        }
+        assertArrayEquals(expected, batch.convert(msgs, UPPER));
+        for (int lane = 0; lane < keys.length; lane += 1) {
+            int[] settings = batch.settings(lane);
+            for (int k = 1; k < settings.length; k += 1) {
+                assertEquals(msg("lane " + lane, "slot %d", k),
+                             machines[lane].rotor(k).setting(), settings[k]);
+            }
+        }
+    }
+
+}
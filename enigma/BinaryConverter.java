@@ -0,0 +1,239 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.function.LongConsumer;
+
+import static enigma.EnigmaException.*;
+import static enigma.EnigmaException.Kind.*;
+
+/** Encryption of arbitrary binary data by a machine whose alphabet is the
+ *  256 byte values.  Data moves from one channel to another in large
+ *  direct buffers and is converted byte by byte through the compiled
+ *  rotor tables, never passing through chars or Strings.
+ *
+ *  In a byte configuration, the alphabet line is the word BYTES, and
+ *  every character in rotor notches, rotor cycles and settings lines is
+ *  written as two hexadecimal digits, so that a cycle is written
+ *  "(004fa2)" and a setting of four rotors "0a0b0c0d".
+ *  @author Truong Le
+ */
+class BinaryConverter {
+
+    /** The alphabet line of a byte configuration. */
+    static final String BYTES = "BYTES";
+
+    /** Return the alphabet of all 256 byte values, byte B having
+     *  index B. */
+    static Alphabet byteAlphabet() {
+        int[] codes = new int[BYTE_VALUES];
+        for (int b = 0; b < codes.length; b += 1) {
+            codes[b] = b;
+        }
+        return new Alphabet(codes);
+    }
+
+    /** Return the string whose characters are the bytes written in
+     *  hexadecimal in HEX. */
+    static String decode(String hex) {
+        if (hex.length() % 2 != 0) {
+            throw error("odd number of hex digits in %s", hex);
+        }
+        char[] result = new char[hex.length() / 2];
+        for (int i = 0; i < result.length; i += 1) {
+            int hi = Character.digit(hex.charAt(2 * i), HEX);
+            int lo = Character.digit(hex.charAt(2 * i + 1), HEX);
+            if (hi < 0 || lo < 0) {
+                throw error("bad hex digits in %s", hex);
+            }
+            result[i] = (char) (hi * HEX + lo);
+        }
+        return new String(result);
+    }
+
+    /** Return the permutation of the byte alphabet ALPHABET given by
+     *  CYCLES, a sequence of cycles of hexadecimal bytes such as
+     *  "(004fa2) (0102)".  The result is interned, as by
+     *  Permutation.intern. */
+    static Permutation permutation(String cycles, Alphabet alphabet) {
+        ArrayList<int[]> result = new ArrayList<>();
+        for (String cycle : cycles.trim().split("\\s+")) {
+            if (cycle.isEmpty()) {
+                continue;
+            }
+            if (cycle.length() < 2 || cycle.charAt(0) != '('
+                || cycle.charAt(cycle.length() - 1) != ')') {
+                throw error(CONFIG,
+                            "Cycle cannot be empty. Or invalid syntax");
+            }
+            String members = decode(cycle.substring(1, cycle.length() - 1));
+            result.add(members.chars().toArray());
+        }
+        return PermutationInterner.global()
+            .intern(new Permutation(result.toArray(new int[0][]), alphabet));
+    }
+
+    /** Set M according to SETTINGS, a settings line of a byte
+     *  configuration: "*", the rotor names, the rotor settings in hex, an
+     *  optional ring setting in hex, and optional plugboard cycles. */
+    static void setUp(Machine M, String settings) {
+        String[] tokens = settings.trim().split("\\s+");
+        int n = M.numRotors();
+        if (tokens.length < n + 2 || !tokens[0].equals("*")) {
+            throw error(SETTINGS, "Wrong format for settings");
+        }
+        String[] rotors = Arrays.copyOfRange(tokens, 1, n + 1);
+        if (new HashSet<>(Arrays.asList(rotors)).size() != n) {
+            throw error(SETTINGS, "Settings contains repeated rotors");
+        }
+        M.insertRotors(rotors);
+        M.setRotors(decode(tokens[n + 1]));
+        int next = n + 2;
+        if (next < tokens.length && !tokens[next].startsWith("(")) {
+            M.setRingRotors(decode(tokens[next]));
+            next += 1;
+        }
+        if (next < tokens.length) {
+            String plugboard = String.join(" ", Arrays.copyOfRange(
+                tokens, next, tokens.length));
+            M.setPlugboard(permutation(plugboard, byteAlphabet()));
+        }
+    }
+
+    /** A converter that continues from the current state of M, whose
+     *  alphabet must be the byte alphabet. */
+    BinaryConverter(Machine M) {
+        _machine = M;
+        _tables = new MachineTables(M);
+        if (_tables.size() != BYTE_VALUES) {
+            throw error(CONFIG, "binary mode requires the BYTES alphabet");
+        }
+        int numRotors = _tables.numRotors();
+        _posns = new int[numRotors];
+        _rings = new int[numRotors];
+        _offsets = new int[numRotors];
+        for (int k = 0; k < numRotors; k += 1) {
+            _posns[k] = M.rotor(k).setting();
+            _rings[k] = M.rotor(k).ring();
+        }
+        _plugboard = M.plugboard() == null ? null
+            : M.plugboard().forwardTable();
+    }
+
+    /** Convert everything remaining in IN, writing it to OUT, and
+     *  leave my machine in the resulting state.  Returns the number of
+     *  bytes converted. */
+    long transfer(ReadableByteChannel in, WritableByteChannel out)
+        throws IOException {
+        return transfer(in, out, Long.MAX_VALUE, null);
+    }
+
+    /** Convert everything remaining in IN, writing it to OUT, and leave
+     *  my machine in the resulting state, as for transfer(IN, OUT).  In
+     *  addition, whenever at least INTERVAL more bytes have been converted
+     *  and written since the last call (or the start), call
+     *  CHECKPOINT.accept with the number of bytes converted so far; my
+     *  positions() then correspond to that point.  Returns the number of
+     *  bytes converted. */
+    long transfer(ReadableByteChannel in, WritableByteChannel out,
+                  long interval, LongConsumer checkpoint)
+        throws IOException {
+        ByteBuffer src = ByteBuffer.allocateDirect(BLOCK_SIZE);
+        ByteBuffer dst = ByteBuffer.allocateDirect(BLOCK_SIZE);
+        long total = 0, last = 0;
+        while (in.read(src) >= 0 || src.position() > 0) {
+            src.flip();
+            total += src.remaining();
+            convert(src, dst);
+            src.clear();
+            dst.flip();
+            while (dst.hasRemaining()) {
+                out.write(dst);
+            }
+            dst.clear();
+            if (checkpoint != null && total - last >= interval) {
+                last = total;
+                checkpoint.accept(total);
+            }
+        }
+        sync();
+        return total;
+    }
+
+    /** Return my current rotor settings, by slot. */
+    int[] positions() {
+        return _posns.clone();
+    }
+
+    /** Set my rotor settings (and my machine's) to POSNS, by slot, as
+     *  returned by positions(). */
+    void setPositions(int[] posns) {
+        if (posns.length != _posns.length) {
+            throw error("wrong number of rotor settings");
+        }
+        for (int k = 0; k < posns.length; k += 1) {
+            if (posns[k] < 0 || posns[k] >= BYTE_VALUES
+                || (posns[k] != _posns[k] && !_tables.rotates(k))) {
+                throw error("bad rotor setting for slot %d", k);
+            }
+        }
+        System.arraycopy(posns, 0, _posns, 0, posns.length);
+        sync();
+    }
+
+    /** Convert the remaining bytes of SRC into DST, which must have at
+     *  least as much room, advancing both buffers. */
+    void convert(ByteBuffer src, ByteBuffer dst) {
+        int n = BYTE_VALUES, numRotors = _posns.length;
+        int[] plugboard = _plugboard;
+        while (src.hasRemaining()) {
+            _tables.advance(_posns);
+            for (int k = 0; k < numRotors; k += 1) {
+                _offsets[k] = _tables.shift(_posns[k], n - _rings[k]);
+            }
+            int c = src.get() & BYTE_MASK;
+            if (plugboard != null) {
+                c = plugboard[_tables.substitute(plugboard[c], _offsets)];
+            } else {
+                c = _tables.substitute(c, _offsets);
+            }
+            dst.put((byte) c);
+        }
+    }
+
+    /** Copy my rotor settings back into my machine. */
+    void sync() {
+        for (int k = 1; k < _posns.length; k += 1) {
+            if (_tables.rotates(k)) {
+                _machine.rotor(k).set(_posns[k]);
+            }
+        }
+    }
+
+    /** Number of byte values. */
+    private static final int BYTE_VALUES = 256;
+    /** Mask for reading unsigned bytes. */
+    private static final int BYTE_MASK = 0xff;
+    /** Radix of byte notation. */
+    private static final int HEX = 16;
+    /** Size of the transfer buffers. */
+    private static final int BLOCK_SIZE = 1 << 20;
+
+    /** The machine I continue. */
+    private final Machine _machine;
+    /** Its compiled tables. */
+    private final MachineTables _tables;
+    /** Current rotor settings, by slot. */
+    private final int[] _posns;
+    /** Ring settings, by slot. */
+    private final int[] _rings;
+    /** Scratch settings less ring settings, by slot. */
+    private final int[] _offsets;
+    /** Plugboard table, or null. */
+    private final int[] _plugboard;
+}
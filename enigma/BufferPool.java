@@ -0,0 +1,68 @@
+package enigma;
+
+import java.nio.Buffer;
+import java.util.ArrayDeque;
+import java.util.function.IntFunction;
+
+import static enigma.EnigmaException.*;
+import static enigma.EnigmaException.Kind.*;
+
+/** A pool of equal-sized buffers for reuse.  Buffers are allocated when
+ *  the pool is empty, and at most a fixed number of released buffers
+ *  are kept, so a client that releases every buffer it takes uses
+ *  constant memory.  Pools are safe for use by several threads.
+ *  @author Truong Le
+ *  @param <B> the type of buffer pooled.
+ */
+class BufferPool<B extends Buffer> {
+
+    /** A pool of buffers of CAPACITY elements, allocated by ALLOCATOR,
+     *  that keeps at most RETAIN released buffers. */
+    BufferPool(IntFunction<B> allocator, int capacity, int retain) {
+        if (capacity <= 0 || retain < 0) {
+            throw error(INTERNAL, "bad buffer pool size");
+        }
+        _allocator = allocator;
+        _capacity = capacity;
+        _retain = retain;
+    }
+
+    /** Return a cleared buffer, reusing a released one if possible. */
+    synchronized B take() {
+        B buf = _free.poll();
+        if (buf == null) {
+            _allocated += 1;
+            return _allocator.apply(_capacity);
+        }
+        buf.clear();
+        return buf;
+    }
+
+    /** Return BUF, which came from take(), to the pool. */
+    synchronized void release(B buf) {
+        if (buf.capacity() == _capacity && _free.size() < _retain) {
+            _free.push(buf);
+        }
+    }
+
+    /** Return the number of elements in each buffer. */
+    int capacity() {
+        return _capacity;
+    }
+
+    /** Return the number of buffers allocated so far. */
+    synchronized int allocated() {
+        return _allocated;
+    }
+
+    /** Allocates new buffers. */
+    private final IntFunction<B> _allocator;
+    /** Elements per buffer. */
+    private final int _capacity;
+    /** Largest number of free buffers kept. */
+    private final int _retain;
+    /** Released buffers, most recent first. */
+    private final ArrayDeque<B> _free = new ArrayDeque<>();
+    /** Number of buffers allocated. */
+    private int _allocated;
+}
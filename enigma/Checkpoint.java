@@ -0,0 +1,141 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+
+import static enigma.EnigmaException.*;
+import static enigma.EnigmaException.Kind.*;
+
+/** A record of how far a long conversion has got, kept in a small
+ *  sidecar file so that an interrupted job can resume where it left off.
+ *  A checkpoint holds the offsets reached in the input and output, the
+ *  settings line the conversion started from, and the rotor settings at
+ *  that point.  Checkpoints are written to a temporary file, forced to
+ *  the device, that then atomically replaces the sidecar, so the sidecar
+ *  always holds a complete one, even after a crash.
+ *  @author Truong Le
+ */
+class Checkpoint {
+
+    /** A checkpoint at input offset INPUT and output offset OUTPUT of a
+     *  conversion that started from the settings line SETTINGS, where the
+     *  machine's rotor settings are POSNS (by slot). */
+    Checkpoint(long input, long output, String settings, int[] posns) {
+        _input = input;
+        _output = output;
+        _settings = settings;
+        _posns = posns.clone();
+    }
+
+    /** Return the checkpoint stored in FILE. */
+    static Checkpoint read(File file) {
+        Properties props = new Properties();
+        try (Reader in = Files.newBufferedReader(file.toPath(),
+                                                 StandardCharsets.UTF_8)) {
+            props.load(in);
+        } catch (IOException excp) {
+            throw error(IO, "could not read checkpoint %s", file);
+        }
+        for (String name : new String[] {INPUT, OUTPUT, SETTINGS,
+                                         POSITIONS}) {
+            if (props.getProperty(name) == null) {
+                throw error("checkpoint %s has no %s", file, name);
+            }
+        }
+        try {
+            String[] fields = props.getProperty(POSITIONS).trim()
+                .split("\\s+");
+            int[] posns = new int[fields.length];
+            for (int k = 0; k < posns.length; k += 1) {
+                posns[k] = Integer.parseInt(fields[k]);
+            }
+            return new Checkpoint(Long.parseLong(props.getProperty(INPUT)),
+                                  Long.parseLong(props.getProperty(OUTPUT)),
+                                  props.getProperty(SETTINGS), posns);
+        } catch (NumberFormatException excp) {
+            throw error("malformed checkpoint %s", file);
+        }
+    }
+
+    /** Store this checkpoint in FILE, replacing its contents atomically.
+     *  It is an error if the file system cannot. */
+    void write(File file) {
+        Properties props = new Properties();
+        props.setProperty(INPUT, Long.toString(_input));
+        props.setProperty(OUTPUT, Long.toString(_output));
+        props.setProperty(SETTINGS, _settings);
+        StringBuilder posns = new StringBuilder();
+        for (int p : _posns) {
+            posns.append(posns.length() == 0 ? "" : " ").append(p);
+        }
+        props.setProperty(POSITIONS, posns.toString());
+
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            StringWriter text = new StringWriter();
+            props.store(text, "enigma checkpoint");
+            ByteBuffer bytes = ByteBuffer.wrap(
+                text.toString().getBytes(StandardCharsets.UTF_8));
+            try (FileChannel out = FileChannel.open(
+                     temp.toPath(), StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING,
+                     StandardOpenOption.WRITE)) {
+                while (bytes.hasRemaining()) {
+                    out.write(bytes);
+                }
+                out.force(true);
+            }
+            Files.move(temp.toPath(), file.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException excp) {
+            temp.delete();
+            throw error(IO, "cannot replace checkpoint %s atomically", file);
+        } catch (IOException excp) {
+            throw error(IO, "could not write checkpoint %s", file);
+        }
+    }
+
+    /** Return the input offset reached. */
+    long input() {
+        return _input;
+    }
+
+    /** Return the output offset reached. */
+    long output() {
+        return _output;
+    }
+
+    /** Return the settings line the conversion started from. */
+    String settings() {
+        return _settings;
+    }
+
+    /** Return the rotor settings reached, by slot. */
+    int[] positions() {
+        return _posns.clone();
+    }
+
+    /** Property names. */
+    private static final String INPUT = "input", OUTPUT = "output",
+        SETTINGS = "settings", POSITIONS = "positions";
+
+    /** Input offset. */
+    private final long _input;
+    /** Output offset. */
+    private final long _output;
+    /** Starting settings line. */
+    private final String _settings;
+    /** Rotor settings, by slot. */
+    private final int[] _posns;
+}
@@ -0,0 +1,522 @@
+package enigma;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import static enigma.EnigmaException.*;
+import static enigma.EnigmaException.Kind.*;
+
+/** Streams over files that may be compressed, so that archives kept
+ *  compressed are converted without first being decompressed to disk.
+ *  A file whose name ends in ".gz" holds gzip data (one or more members)
+ *  and one whose name ends in ".zz" holds zlib (deflate) data; other
+ *  files are read and written as they are.
+ *
+ *  Gzip is written in independent blocks of at most 65280 bytes of data,
+ *  each a complete gzip member whose header records its compressed size
+ *  in a "BC" extra field, as in the BGZF format, followed by an empty
+ *  member marking the end.  Any gzip reader reads the result as one
+ *  stream, but its blocks can be compressed, and found and decompressed,
+ *  independently: blocks are compressed by worker threads while the
+ *  writer goes on writing, and input in this format is decompressed by
+ *  worker threads a window of blocks ahead of the reader, up to the
+ *  first member without a block size (as after "cat a.gz b.gz"), from
+ *  which on the reader decompresses it itself.  Other compressed input
+ *  is decompressed by one thread, also ahead of the reader.
+ *  @author Truong Le
+ */
+class Compression {
+
+    /** Return true iff the file named NAME is compressed. */
+    static boolean compressed(String name) {
+        return name.endsWith(GZIP_SUFFIX) || name.endsWith(ZLIB_SUFFIX);
+    }
+
+    /** Return a stream of the contents of FILE, decompressed as its name
+     *  requires, with up to THREADS threads. */
+    static InputStream input(File file, int threads) {
+        try {
+            InputStream raw = new BufferedInputStream(
+                new FileInputStream(file), BUFFER_SIZE);
+            if (file.getName().endsWith(ZLIB_SUFFIX)) {
+                return new BlockInputStream(
+                    new StreamChunks(new InflaterInputStream(raw)), 1);
+            } else if (!file.getName().endsWith(GZIP_SUFFIX)) {
+                return raw;
+            }
+            raw.mark(HEADER_SIZE);
+            byte[] header = raw.readNBytes(HEADER_SIZE);
+            raw.reset();
+            if (blockSize(header) > 0) {
+                return new BlockInputStream(new GzipBlocks(raw), threads);
+            }
+            return new BlockInputStream(
+                new StreamChunks(new GZIPInputStream(raw, BUFFER_SIZE)), 1);
+        } catch (IOException excp) {
+            throw error(IO, "could not open %s", file);
+        }
+    }
+
+    /** Return a stream writing to FILE, compressed as its name requires,
+     *  with up to THREADS threads.  Closing the stream completes the
+     *  file. */
+    static OutputStream output(File file, int threads) {
+        if (file.getName().endsWith(ZLIB_SUFFIX)) {
+            throw error(USAGE,
+                        "zlib output is not supported; use %s", GZIP_SUFFIX);
+        }
+        try {
+            OutputStream raw = new BufferedOutputStream(
+                new FileOutputStream(file), BUFFER_SIZE);
+            if (!file.getName().endsWith(GZIP_SUFFIX)) {
+                return raw;
+            }
+            return new BlockOutputStream(raw, threads);
+        } catch (IOException excp) {
+            throw error(IO, "could not open %s", file);
+        }
+    }
+
+    /** Return the size of the gzip member whose header starts HEADER, if
+     *  the header records it in a "BC" extra field, or else 0. */
+    static int blockSize(byte[] header) {
+        if (header.length < HEADER_SIZE || (header[0] & BYTE_MASK) != ID1
+            || (header[1] & BYTE_MASK) != ID2 || header[2] != CM_DEFLATE
+            || header[3] != FLG_FEXTRA || shortAt(header, 10) != BC_XLEN
+            || header[12] != 'B' || header[13] != 'C'
+            || shortAt(header, 14) != 2) {
+            return 0;
+        }
+        return shortAt(header, 16) + 1;
+    }
+
+    /** Return the gzip member holding the first N bytes of DATA, with its
+     *  size in a "BC" extra field. */
+    static byte[] block(byte[] data, int n) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(data, 0, n);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(n / 2 + 64);
+        out.write(new byte[HEADER_SIZE], 0, HEADER_SIZE);
+        byte[] buf = new byte[BUFFER_SIZE];
+        while (!deflater.finished()) {
+            out.write(buf, 0, deflater.deflate(buf));
+        }
+        deflater.end();
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, n);
+        writeInt(out, (int) crc.getValue());
+        writeInt(out, n);
+        byte[] result = out.toByteArray();
+        if (result.length > MAX_BLOCK) {
+            throw error("gzip block too large");
+        }
+        byte[] header = {
+            (byte) ID1, (byte) ID2, CM_DEFLATE, FLG_FEXTRA, 0, 0, 0, 0, 0,
+            (byte) OS_UNKNOWN, BC_XLEN, 0, 'B', 'C', 2, 0,
+            (byte) (result.length - 1), (byte) ((result.length - 1) >>> 8),
+        };
+        System.arraycopy(header, 0, result, 0, HEADER_SIZE);
+        return result;
+    }
+
+    /** Return the data of BLOCK, a gzip member as written by block(). */
+    static byte[] unblock(byte[] block) {
+        int end = block.length - TRAILER_SIZE;
+        int size = intAt(block, end + 4);
+        if (end < HEADER_SIZE || size < 0 || size > MAX_BLOCK) {
+            throw error("corrupt gzip block");
+        }
+        Inflater inflater = new Inflater(true);
+        inflater.setInput(block, HEADER_SIZE, end - HEADER_SIZE);
+        byte[] data = new byte[size];
+        int n = 0;
+        try {
+            while (n < size && !inflater.finished()) {
+                int got = inflater.inflate(data, n, size - n);
+                if (got == 0 && (inflater.needsInput()
+                                 || inflater.needsDictionary())) {
+                    break;
+                }
+                n += got;
+            }
+        } catch (DataFormatException excp) {
+            throw error("corrupt gzip block");
+        } finally {
+            inflater.end();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, n);
+        if (n != size || (int) crc.getValue() != intAt(block, end)) {
+            throw error("corrupt gzip block");
+        }
+        return data;
+    }
+
+    /** A source of the blocks of a decompressed stream, each produced by
+     *  a task. */
+    private interface Source {
+        /** Return a task producing the next block, or null if there are
+         *  no more. */
+        Callable<byte[]> next() throws IOException;
+
+        /** Release my resources. */
+        void close() throws IOException;
+    }
+
+    /** The blocks of gzip data written in blocks of known size: each task
+     *  decompresses one, so that they may run at once.  From the first
+     *  member whose size is not known, the rest of the data is
+     *  decompressed in order by next() itself, and each task merely
+     *  returns a chunk already decompressed. */
+    private static class GzipBlocks implements Source {
+
+        /** The blocks of IN. */
+        GzipBlocks(InputStream in) {
+            _in = in;
+        }
+
+        @Override
+        public Callable<byte[]> next() throws IOException {
+            if (_rest != null) {
+                return rest();
+            }
+            byte[] header = _in.readNBytes(HEADER_SIZE);
+            if (header.length == 0) {
+                return null;
+            }
+            int size = blockSize(header);
+            if (size == 0) {
+                _rest = new GZIPInputStream(
+                    new SequenceInputStream(new ByteArrayInputStream(header),
+                                            _in), BUFFER_SIZE);
+                return rest();
+            } else if (size < HEADER_SIZE + TRAILER_SIZE) {
+                throw error("corrupt gzip block");
+            }
+            byte[] block = Arrays.copyOf(header, size);
+            if (_in.readNBytes(block, HEADER_SIZE, size - HEADER_SIZE)
+                != size - HEADER_SIZE) {
+                throw error("truncated gzip block");
+            }
+            return () -> unblock(block);
+        }
+
+        @Override
+        public void close() throws IOException {
+            _in.close();
+        }
+
+        /** Return a task yielding the next chunk of _rest, or null at its
+         *  end. */
+        private Callable<byte[]> rest() throws IOException {
+            if (_restEnded) {
+                return null;
+            }
+            byte[] chunk = _rest.readNBytes(BUFFER_SIZE);
+            _restEnded = chunk.length < BUFFER_SIZE;
+            return () -> chunk;
+        }
+
+        /** The compressed data. */
+        private final InputStream _in;
+        /** The decompressed data from the first member without a block
+         *  size on, or null until there is one. */
+        private InputStream _rest;
+        /** True once _rest is exhausted. */
+        private boolean _restEnded;
+    }
+
+    /** Successive chunks of a stream read by one thread: each task reads
+     *  the next chunk, so they must run in order. */
+    private static class StreamChunks implements Source {
+
+        /** The chunks of IN. */
+        StreamChunks(InputStream in) {
+            _in = in;
+        }
+
+        @Override
+        public Callable<byte[]> next() {
+            if (_end) {
+                return null;
+            }
+            return () -> {
+                byte[] chunk = _in.readNBytes(BUFFER_SIZE);
+                if (chunk.length < BUFFER_SIZE) {
+                    _end = true;
+                }
+                return chunk;
+            };
+        }
+
+        @Override
+        public void close() throws IOException {
+            _in.close();
+        }
+
+        /** The stream, decompressing as it is read. */
+        private final InputStream _in;
+        /** True once a task has reached the end of _in. */
+        private volatile boolean _end;
+    }
+
+    /** A stream of the blocks of a Source, produced by a pool of threads
+     *  a window of blocks ahead of the reader and read in order. */
+    private static class BlockInputStream extends InputStream {
+
+        /** The blocks of SOURCE, produced with THREADS threads. */
+        BlockInputStream(Source source, int threads) {
+            _source = source;
+            _window = WINDOW_PER_THREAD * threads;
+            _pool = Executors.newFixedThreadPool(threads, r -> {
+                Thread thread = new Thread(r, "decompressor");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return _block[_pos++] & BYTE_MASK;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            } else if (!fill()) {
+                return -1;
+            }
+            int n = Math.min(len, _block.length - _pos);
+            System.arraycopy(_block, _pos, b, off, n);
+            _pos += n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            _pool.shutdownNow();
+            _source.close();
+        }
+
+        /** Make the current block non-empty, if there is more data,
+         *  keeping up to _window blocks in production.  Return false at
+         *  the end of the data. */
+        private boolean fill() throws IOException {
+            while (_block == null || _pos == _block.length) {
+                while (!_end && _pending.size() < _window) {
+                    Callable<byte[]> task = _source.next();
+                    if (task == null) {
+                        _end = true;
+                    } else {
+                        _pending.add(_pool.submit(task));
+                    }
+                }
+                if (_pending.isEmpty()) {
+                    return false;
+                }
+                try {
+                    _block = _pending.remove().get();
+                } catch (InterruptedException excp) {
+                    throw error(INTERNAL, "decompression interrupted");
+                } catch (ExecutionException excp) {
+                    Throwable cause = excp.getCause();
+                    if (cause instanceof EnigmaException) {
+                        throw (EnigmaException) cause;
+                    }
+                    throw error(IO,
+                                "could not decompress input: %s",
+                                cause.getMessage());
+                }
+                _pos = 0;
+            }
+            return true;
+        }
+
+        /** The blocks. */
+        private final Source _source;
+        /** Maximum number of blocks in production. */
+        private final int _window;
+        /** Threads producing blocks. */
+        private final ExecutorService _pool;
+        /** Blocks in production, in order. */
+        private final ArrayDeque<Future<byte[]>> _pending =
+            new ArrayDeque<>();
+        /** The block being read, or null. */
+        private byte[] _block;
+        /** Position in _block. */
+        private int _pos;
+        /** True once _source has no more blocks. */
+        private boolean _end;
+    }
+
+    /** A stream that writes gzip blocks, compressed by a pool of threads
+     *  while more data is written, to an underlying stream in order. */
+    private static class BlockOutputStream extends OutputStream {
+
+        /** A stream writing to OUT, compressing with THREADS threads. */
+        BlockOutputStream(OutputStream out, int threads) {
+            _out = out;
+            _window = WINDOW_PER_THREAD * threads;
+            _pool = Executors.newFixedThreadPool(threads, r -> {
+                Thread thread = new Thread(r, "compressor");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            _buffer[_count++] = (byte) b;
+            if (_count == _buffer.length) {
+                submit();
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = Math.min(len, _buffer.length - _count);
+                System.arraycopy(b, off, _buffer, _count, n);
+                _count += n;
+                off += n;
+                len -= n;
+                if (_count == _buffer.length) {
+                    submit();
+                }
+            }
+        }
+
+        /** Compress and write everything written so far. */
+        @Override
+        public void flush() throws IOException {
+            if (_count > 0) {
+                submit();
+            }
+            while (!_pending.isEmpty()) {
+                writeNext();
+            }
+            _out.flush();
+        }
+
+        /** Finish the file with the empty end-of-data block. */
+        @Override
+        public void close() throws IOException {
+            if (_closed) {
+                return;
+            }
+            _closed = true;
+            try {
+                flush();
+                _out.write(block(new byte[0], 0));
+            } finally {
+                _pool.shutdownNow();
+                _out.close();
+            }
+        }
+
+        /** Start compressing the buffered data as a block, writing out
+         *  finished blocks beyond my window. */
+        private void submit() throws IOException {
+            byte[] data = Arrays.copyOf(_buffer, _count);
+            _count = 0;
+            _pending.add(_pool.submit(() -> block(data, data.length)));
+            while (_pending.size() > _window) {
+                writeNext();
+            }
+        }
+
+        /** Write the oldest block being compressed, waiting for it. */
+        private void writeNext() throws IOException {
+            try {
+                _out.write(_pending.remove().get());
+            } catch (InterruptedException excp) {
+                throw error(INTERNAL, "compression interrupted");
+            } catch (ExecutionException excp) {
+                throw error(IO,
+                            "could not compress output: %s",
+                            excp.getCause().getMessage());
+            }
+        }
+
+        /** The compressed file. */
+        private final OutputStream _out;
+        /** Maximum number of blocks being compressed. */
+        private final int _window;
+        /** Threads compressing blocks. */
+        private final ExecutorService _pool;
+        /** Blocks being compressed, in order. */
+        private final ArrayDeque<Future<byte[]>> _pending =
+            new ArrayDeque<>();
+        /** Data not yet submitted. */
+        private final byte[] _buffer = new byte[BLOCK_DATA];
+        /** Number of bytes in _buffer. */
+        private int _count;
+        /** True once closed. */
+        private boolean _closed;
+    }
+
+    /** Return the little-endian unsigned short at offset I of B. */
+    private static int shortAt(byte[] b, int i) {
+        return (b[i] & BYTE_MASK) | (b[i + 1] & BYTE_MASK) << 8;
+    }
+
+    /** Return the little-endian int at offset I of B. */
+    private static int intAt(byte[] b, int i) {
+        return shortAt(b, i) | shortAt(b, i + 2) << 16;
+    }
+
+    /** Write V to OUT as a little-endian int. */
+    private static void writeInt(ByteArrayOutputStream out, int v) {
+        for (int i = 0; i < 4; i += 1) {
+            out.write(v >>> (8 * i));
+        }
+    }
+
+    /** Suffixes of the names of gzip and zlib files. */
+    private static final String GZIP_SUFFIX = ".gz", ZLIB_SUFFIX = ".zz";
+    /** Gzip magic bytes. */
+    private static final int ID1 = 0x1f, ID2 = 0x8b;
+    /** Gzip compression method and flags of a block. */
+    private static final byte CM_DEFLATE = 8, FLG_FEXTRA = 4;
+    /** Length of the extra field of a block. */
+    private static final byte BC_XLEN = 6;
+    /** Gzip operating system code "unknown". */
+    private static final int OS_UNKNOWN = 0xff;
+    /** Bytes of the header of a block and of any gzip trailer. */
+    private static final int HEADER_SIZE = 18, TRAILER_SIZE = 8;
+    /** Largest block, and most data in one block, in bytes. */
+    private static final int MAX_BLOCK = 1 << 16, BLOCK_DATA = 0xff00;
+    /** Size of I/O buffers and of chunks read by one thread. */
+    private static final int BUFFER_SIZE = 1 << 16;
+    /** Blocks in production per thread. */
+    private static final int WINDOW_PER_THREAD = 4;
+    /** Mask recovering an unsigned byte. */
+    private static final int BYTE_MASK = 0xff;
+}
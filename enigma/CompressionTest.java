@@ -0,0 +1,125 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/** The suite of all JUnit tests for compressed streams.
+ *  @author Truong Le
+ */
+public class CompressionTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /** Return DATA written to FILE through Compression and read back
+     *  with READER threads. */
+    private static byte[] roundTrip(byte[] data, File file, int reader)
+        throws Exception {
+        try (OutputStream out = Compression.output(file, 3)) {
+            int head = Math.min(data.length, 1000);
+            out.write(data, 0, head);
+            for (int i = head; i < data.length; i += 1) {
+                out.write(data[i]);
+            }
+        }
+        try (InputStream in = Compression.input(file, reader)) {
+            return in.readAllBytes();
+        }
+    }
+
+    @Test
+    public void testBlockedGzip() throws Exception {
+        byte[] data = new byte[300_000];
+        Random random = new Random(42);
+        for (int i = 0; i < data.length; i += 1) {
+            data[i] = (byte) (i % 7 == 0 ? random.nextInt() : 'A' + i % 26);
+        }
+        File file = File.createTempFile("enigma-compress", ".gz");
+        try {
+            assertArrayEquals(data, roundTrip(data, file, 1));
+            assertArrayEquals(data, roundTrip(data, file, 4));
+            try (InputStream in =
+                 new GZIPInputStream(new FileInputStream(file))) {
+                assertArrayEquals(data, in.readAllBytes());
+            }
+            assertArrayEquals(new byte[0], roundTrip(new byte[0], file, 2));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testConcatenatedMembers() throws Exception {
+        byte[] first = new byte[200_000], second = new byte[150_000];
+        for (int i = 0; i < first.length; i += 1) {
+            first[i] = (byte) ('A' + i % 26);
+        }
+        for (int i = 0; i < second.length; i += 1) {
+            second[i] = (byte) ('a' + i % 13);
+        }
+        File file = File.createTempFile("enigma-compress", ".gz");
+        try {
+            roundTrip(first, file, 1);
+            ByteArrayOutputStream plain = new ByteArrayOutputStream();
+            try (OutputStream out = new GZIPOutputStream(plain)) {
+                out.write(second);
+            }
+            ByteArrayOutputStream all = new ByteArrayOutputStream();
+            all.write(Files.readAllBytes(file.toPath()));
+            all.write(plain.toByteArray());
+            all.write(Files.readAllBytes(file.toPath()));
+            Files.write(file.toPath(), all.toByteArray());
+
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            expected.write(first);
+            expected.write(second);
+            expected.write(first);
+            for (int threads : new int[] {1, 4}) {
+                try (InputStream in = Compression.input(file, threads)) {
+                    assertArrayEquals(expected.toByteArray(),
+                                      in.readAllBytes());
+                }
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testCorruptBlock() throws Exception {
+        byte[] data = new byte[100_000];
+        File file = File.createTempFile("enigma-compress", ".gz");
+        try {
+            roundTrip(data, file, 2);
+            byte[] bytes = Files.readAllBytes(file.toPath());
+            bytes[40] ^= 1;
+            Files.write(file.toPath(), bytes);
+            try (InputStream in = Compression.input(file, 2)) {
+                in.readAllBytes();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testNames() {
+        assertTrue(Compression.compressed("archive.in.gz"));
+        assertTrue(Compression.compressed("archive.zz"));
+        assertFalse(Compression.compressed("archive.in"));
+    }
+
+}
@@ -0,0 +1,133 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+import static enigma.EnigmaException.*;
+import static enigma.EnigmaException.Kind.*;
+
+/** The current configuration read from a file, reloaded whenever the
+ *  file changes.  A background thread watches the file's directory with
+ *  a WatchService and, once the file has been quiet for a moment,
+ *  rereads and recompiles it.  The new MachineSpec is then published
+ *  with an atomic swap.  Callers take current() when they start a unit
+ *  of work (a file or a session) and use that spec to the end of it, so
+ *  work in flight finishes on the old configuration and later work picks
+ *  up the new one.  Reading current() is a single volatile read, so a
+ *  reload never blocks the threads that convert.
+ *
+ *  A changed file that fails to parse is reported on the standard error
+ *  and counted as an error in the process's Metrics, and the previous
+ *  configuration stays current.
+ *  @author Truong Le
+ */
+class ConfigWatcher implements AutoCloseable {
+
+    /** A watcher for the configuration file FILE, whose current contents
+     *  are INITIAL.  It starts watching at once. */
+    ConfigWatcher(Path file, MachineSpec initial) {
+        _file = file.toAbsolutePath();
+        _current.set(initial);
+        try {
+            _watcher = FileSystems.getDefault().newWatchService();
+            _file.getParent().register(_watcher, ENTRY_CREATE, ENTRY_MODIFY);
+        } catch (IOException excp) {
+            throw error(IO, "could not watch %s", file);
+        }
+        Thread thread = new Thread(this::watch, "config-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Return the current configuration. */
+    MachineSpec current() {
+        return _current.get();
+    }
+
+    /** Return the number of successful reloads so far. */
+    int reloads() {
+        return _reloads.get();
+    }
+
+    /** Reread and recompile my file now, making the result current.  On
+     *  failure, report the error and keep the current configuration. */
+    void reload() {
+        try (Scanner config = new Scanner(_file, StandardCharsets.UTF_8)) {
+            _current.set(MachineSpec.read(config));
+            _reloads.incrementAndGet();
+        } catch (EnigmaException excp) {
+            Metrics.global().reportError(excp);
+            System.err.printf("Error: reloading %s: %s%n", _file,
+                              excp.getMessage());
+        } catch (IOException excp) {
+            System.err.printf("Error: could not reload %s%n", _file);
+        }
+    }
+
+    /** Stop watching. */
+    @Override
+    public void close() {
+        try {
+            _watcher.close();
+        } catch (IOException excp) {
+            /* Nothing more to do. */
+        }
+    }
+
+    /** Reload my file after each burst of changes to it, until closed. */
+    private void watch() {
+        try {
+            while (true) {
+                if (changed(_watcher.take())) {
+                    WatchKey key;
+                    while ((key = _watcher.poll(QUIET_MILLIS,
+                                                TimeUnit.MILLISECONDS))
+                           != null) {
+                        changed(key);
+                    }
+                    reload();
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException excp) {
+            /* Closed: stop watching. */
+        }
+    }
+
+    /** Return true iff KEY reports a change to my file, and reset it. */
+    private boolean changed(WatchKey key) {
+        boolean result = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW
+                || _file.getFileName().equals(event.context())) {
+                result = true;
+            }
+        }
+        key.reset();
+        return result;
+    }
+
+    /** Milliseconds a changed file must be quiet before it is reread, so
+     *  that a file written in several steps is read once, complete. */
+    private static final long QUIET_MILLIS = 200;
+
+    /** The configuration file. */
+    private final Path _file;
+    /** Watch service for the file's directory. */
+    private final WatchService _watcher;
+    /** The current configuration. */
+    private final AtomicReference<MachineSpec> _current =
+        new AtomicReference<>();
+    /** Number of successful reloads. */
+    private final AtomicInteger _reloads = new AtomicInteger();
+}
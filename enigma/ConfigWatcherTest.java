@@ -0,0 +1,80 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Scanner;
+
+/** The suite of all JUnit tests for configuration reloading.
+ *  @author Truong Le
+ */
+public class ConfigWatcherTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** A small configuration. */
+    private static final String CONFIG =
+        "ABCDEF\n3 1\n"
+        + " I MA (ABC)(DEF)\n"
+        + " II MC (AEBD)(CF)\n"
+        + " B R (AB)(CD)(EF)\n";
+
+    /** The same configuration, with a second reflector. */
+    private static final String CONFIG2 = CONFIG + " C R (AF)(BE)(CD)\n";
+
+    /** Write TEXT to FILE. */
+    private static void write(Path file, String text) throws Exception {
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testReloadOnChange() throws Exception {
+        Path dir = Files.createTempDirectory("enigma-watch");
+        Path file = dir.resolve("test.conf");
+        write(file, CONFIG);
+        MachineSpec initial = MachineSpec.read(new Scanner(CONFIG));
+        try (ConfigWatcher watcher = new ConfigWatcher(file, initial)) {
+            assertSame(initial, watcher.current());
+            write(file, CONFIG2);
+            while (watcher.reloads() == 0) {
+                Thread.sleep(20);
+            }
+            assertEquals(4, watcher.current().registry().size());
+            assertEquals(3, initial.registry().size());
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    @Test
+    public void testBadReloadKeepsCurrent() throws Exception {
+        Path dir = Files.createTempDirectory("enigma-watch");
+        Path file = dir.resolve("test.conf");
+        write(file, CONFIG);
+        MachineSpec initial = MachineSpec.read(new Scanner(CONFIG));
+        try (ConfigWatcher watcher = new ConfigWatcher(file, initial)) {
+            write(file, "ABC(DEF\n3 1\n");
+            watcher.reload();
+            assertSame(initial, watcher.current());
+            write(file, CONFIG2);
+            watcher.reload();
+            assertEquals(4, watcher.current().registry().size());
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(dir);
+        }
+    }
+
+}
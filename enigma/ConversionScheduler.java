@@ -0,0 +1,340 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static enigma.EnigmaException.*;
+import static enigma.EnigmaException.Kind.*;
+
+/** A scheduler for many small, independent conversion requests, each a
+ *  message to convert from the state a settings line sets up, that
+ *  coalesces concurrent requests into batches.  A dispatcher thread
+ *  collects requests until the oldest has waited the latency budget or
+ *  a batch is full, groups them by configuration and rotor order, and
+ *  converts each group on a BatchMachine, one lane per request, from
+ *  compiled tables and keys kept warm across batches.  Under light load
+ *  a request waits at most the budget; under heavy load requests arrive
+ *  while a batch converts, so batches grow and throughput with them.
+ *
+ *  Every request is converted on its own: a settings line that omits the
+ *  ring settings or plugboard leaves those of a new machine.  Request
+ *  latencies, from submission to completion, are recorded in a
+ *  LatencyHistogram.
+ *  @author Truong Le
+ */
+class ConversionScheduler implements AutoCloseable {
+
+    /** A scheduler that waits at most BUDGETNANOS nanoseconds to fill a
+     *  batch of at most MAXBATCH requests, and converts the groups of a
+     *  batch with THREADS threads. */
+    ConversionScheduler(long budgetNanos, int maxBatch, int threads) {
+        if (budgetNanos < 0 || maxBatch <= 0 || threads <= 0) {
+            throw error(INTERNAL, "bad scheduler parameters");
+        }
+        _budget = budgetNanos;
+        _maxBatch = maxBatch;
+        _workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "conversion-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        _dispatcher = new Thread(this::dispatch, "conversion-dispatcher");
+        _dispatcher.setDaemon(true);
+        _dispatcher.start();
+    }
+
+    /** Return a future for the conversion of MSG by a new machine of
+     *  configuration SPEC set up according to SETTINGS.  The future fails
+     *  with an EnigmaException if SETTINGS or MSG is invalid. */
+    CompletableFuture<String> submit(MachineSpec spec, String settings,
+                                     String msg) {
+        Request request = new Request(spec, settings, msg);
+        _queue.add(request);
+        if (_closed && _queue.remove(request)) {
+            request._result.completeExceptionally(
+                error(INTERNAL, "scheduler closed"));
+        }
+        return request._result;
+    }
+
+    /** Return the histogram of request latencies. */
+    LatencyHistogram latency() {
+        return _latency;
+    }
+
+    /** Return the number of requests completed. */
+    long requests() {
+        return _requests.get();
+    }
+
+    /** Return the number of BatchMachine batches converted. */
+    long batches() {
+        return _batches.get();
+    }
+
+    /** Stop, failing requests not yet converted. */
+    @Override
+    public void close() {
+        _closed = true;
+        _dispatcher.interrupt();
+        try {
+            _dispatcher.join();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        }
+        _workers.shutdown();
+        for (Request r; (r = _queue.poll()) != null; ) {
+            r._result.completeExceptionally(
+                error(INTERNAL, "scheduler closed"));
+        }
+    }
+
+    /** Collect batches of requests and hand their groups to the
+     *  workers, until closed. */
+    private void dispatch() {
+        ArrayList<Request> batch = new ArrayList<>();
+        try {
+            while (!_closed) {
+                Request first = _queue.take();
+                batch.add(first);
+                long deadline = first._arrival + _budget;
+                while (batch.size() < _maxBatch) {
+                    long wait = deadline - System.nanoTime();
+                    Request next = wait <= 0 ? _queue.poll()
+                        : _queue.poll(wait, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                for (List<Lane> group : group(batch)) {
+                    _workers.execute(() -> convert(group));
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException excp) {
+            _queue.addAll(batch);
+        }
+    }
+
+    /** Return the requests of BATCH that are valid, as lanes grouped by
+     *  rotor order, failing the rest. */
+    private Iterable<List<Lane>> group(List<Request> batch) {
+        IdentityHashMap<MachineTables, List<Lane>> groups =
+            new IdentityHashMap<>();
+        for (Request request : batch) {
+            try {
+                Key key = keys(request._spec)
+                    .key(request._spec, request._settings);
+                int[] chars =
+                    request._spec.alphabet().toIndices(request._msg);
+                groups.computeIfAbsent(key._tables, t -> new ArrayList<>())
+                    .add(new Lane(request, key, chars));
+            } catch (EnigmaException excp) {
+                complete(request, null, excp);
+            }
+        }
+        return groups.values();
+    }
+
+    /** Convert the lanes of GROUP, which share a rotor order, in
+     *  batches of similar lengths, and complete their requests.  If the
+     *  conversion fails, fail those not yet completed. */
+    private void convert(List<Lane> group) {
+        try {
+            convertLanes(group);
+        } catch (RuntimeException excp) {
+            for (Lane lane : group) {
+                if (!lane._request._result.isDone()) {
+                    complete(lane._request, null,
+                             error(INTERNAL, "conversion failed: %s", excp));
+                }
+            }
+        }
+    }
+
+    /** Convert the lanes of GROUP, as for convert. */
+    private void convertLanes(List<Lane> group) {
+        group.sort(Comparator.comparingInt(lane -> lane._chars.length));
+        MachineTables tables = group.get(0)._key._tables;
+        for (int start = 0; start < group.size(); start += MAX_LANES) {
+            List<Lane> lanes =
+                group.subList(start, Math.min(group.size(),
+                                              start + MAX_LANES));
+            BatchMachine batch = new BatchMachine(tables, lanes.size());
+            int[][] msgs = new int[lanes.size()][];
+            for (int i = 0; i < msgs.length; i += 1) {
+                Key key = lanes.get(i)._key;
+                batch.setLane(i, key._posns, key._rings, key._plugboard);
+                msgs[i] = lanes.get(i)._chars;
+            }
+            int[][] result = batch.convert(msgs);
+            _batches.incrementAndGet();
+            for (int i = 0; i < msgs.length; i += 1) {
+                Request request = lanes.get(i)._request;
+                complete(request, request._spec.alphabet()
+                         .fromIndices(result[i], result[i].length), null);
+            }
+        }
+    }
+
+    /** Complete REQUEST with RESULT, or fail it with ERROR if that is not
+     *  null, recording its latency. */
+    private void complete(Request request, String result,
+                          EnigmaException error) {
+        _latency.record(System.nanoTime() - request._arrival);
+        _requests.incrementAndGet();
+        if (error != null) {
+            request._result.completeExceptionally(error);
+        } else {
+            request._result.complete(result);
+        }
+    }
+
+    /** Return the compiled keys of SPEC.  Only the dispatcher calls
+     *  this. */
+    private Keys keys(MachineSpec spec) {
+        return _keys.computeIfAbsent(spec, s -> new Keys());
+    }
+
+    /** A submitted request. */
+    private static class Request {
+
+        /** A request to convert MSG with SPEC set up by SETTINGS. */
+        Request(MachineSpec spec, String settings, String msg) {
+            _spec = spec;
+            _settings = settings;
+            _msg = msg;
+        }
+
+        /** The configuration. */
+        private final MachineSpec _spec;
+        /** The settings line. */
+        private final String _settings;
+        /** The message. */
+        private final String _msg;
+        /** Time of submission, by System.nanoTime(). */
+        private final long _arrival = System.nanoTime();
+        /** The result. */
+        private final CompletableFuture<String> _result =
+            new CompletableFuture<>();
+    }
+
+    /** A request ready to convert: its key and its message as alphabet
+     *  indices. */
+    private static class Lane {
+
+        /** The lane of REQUEST, with key KEY and message CHARS. */
+        Lane(Request request, Key key, int[] chars) {
+            _request = request;
+            _key = key;
+            _chars = chars;
+        }
+
+        /** The request. */
+        private final Request _request;
+        /** Its compiled settings line. */
+        private final Key _key;
+        /** Its message, as alphabet indices. */
+        private final int[] _chars;
+    }
+
+    /** A compiled settings line: the tables of its rotor order and the
+     *  state it sets up, by slot. */
+    private static class Key {
+
+        /** A key with tables TABLES, settings POSNS, ring settings RINGS
+         *  and plugboard table PLUGBOARD (or null). */
+        Key(MachineTables tables, int[] posns, int[] rings,
+            int[] plugboard) {
+            _tables = tables;
+            _posns = posns;
+            _rings = rings;
+            _plugboard = plugboard;
+        }
+
+        /** Tables of the rotor order. */
+        private final MachineTables _tables;
+        /** Settings and ring settings, by slot. */
+        private final int[] _posns, _rings;
+        /** Plugboard table, or null. */
+        private final int[] _plugboard;
+    }
+
+    /** The warm keys and tables of one configuration.  They do not refer
+     *  to the configuration, so that they are dropped with it. */
+    private static class Keys {
+
+        /** Return the key of the settings line SETTINGS for SPEC, the
+         *  configuration of these keys. */
+        Key key(MachineSpec spec, String settings) {
+            Key key = _keys.get(settings);
+            if (key == null) {
+                Machine M = spec.newMachine();
+                MachineKey compiled = MachineKey.compile(M, settings);
+                String order = Arrays.toString(compiled.rotors());
+                MachineTables tables = _tables.get(order);
+                if (tables == null) {
+                    tables = new MachineTables(M);
+                    _tables.put(order, tables);
+                }
+                int n = M.numRotors();
+                int[] posns = new int[n], rings = new int[n];
+                for (int k = 0; k < n; k += 1) {
+                    posns[k] = M.rotor(k).setting();
+                    rings[k] = M.rotor(k).ring();
+                }
+                key = new Key(tables, posns, rings,
+                              M.plugboard() == null ? null
+                              : M.plugboard().forwardTable());
+                _keys.put(settings, key);
+            }
+            return key;
+        }
+
+        /** Keys of recently used settings lines. */
+        private final LruCache<String, Key> _keys = new LruCache<>(MAX_KEYS);
+        /** Tables of the rotor orders used, by their registry ids. */
+        private final Map<String, MachineTables> _tables = new HashMap<>();
+    }
+
+    /** Maximum number of lanes converted together. */
+    private static final int MAX_LANES = 64;
+    /** Maximum number of compiled settings lines kept per
+     *  configuration. */
+    private static final int MAX_KEYS = 1024;
+
+    /** Longest time a request waits for a batch to fill, in
+     *  nanoseconds. */
+    private final long _budget;
+    /** Maximum number of requests in a batch. */
+    private final int _maxBatch;
+    /** Submitted requests not yet batched. */
+    private final LinkedBlockingQueue<Request> _queue =
+        new LinkedBlockingQueue<>();
+    /** Warm keys by configuration, forgotten with the configuration. */
+    private final WeakHashMap<MachineSpec, Keys> _keys = new WeakHashMap<>();
+    /** Thread collecting batches. */
+    private final Thread _dispatcher;
+    /** Threads converting groups. */
+    private final ExecutorService _workers;
+    /** Latencies of completed requests. */
+    private final LatencyHistogram _latency = new LatencyHistogram();
+    /** Numbers of requests completed and batches converted. */
+    private final AtomicLong _requests = new AtomicLong(),
+        _batches = new AtomicLong();
+    /** True once closed. */
+    private volatile boolean _closed;
+}
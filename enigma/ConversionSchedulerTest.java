@@ -0,0 +1,101 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the conversion scheduler.
+ *  @author Truong Le
+ */
+public class ConversionSchedulerTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Convert a message with SCHEDULER from a new configuration, and
+     *  return a weak reference to that configuration. */
+    private WeakReference<MachineSpec> convertOnce(
+        ConversionScheduler scheduler) throws Exception {
+        MachineSpec spec = naval();
+        assertEquals(converted(spec, NAVAL_SETTINGS[0], "HELLO"),
+                     scheduler.submit(spec, NAVAL_SETTINGS[0], "HELLO")
+                     .get());
+        return new WeakReference<>(spec);
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testCoalescedResults() throws Exception {
+        MachineSpec spec = naval();
+        String msg = "FROMHISSHOULDERHIAWATHATOOKTHECAMERAOFROSEWOOD";
+        ArrayList<CompletableFuture<String>> results = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        try (ConversionScheduler scheduler =
+             new ConversionScheduler(50_000_000L, 1000, 2)) {
+            for (int i = 0; i < 200; i += 1) {
+                String settings = NAVAL_SETTINGS[i % NAVAL_SETTINGS.length];
+                String text = msg.substring(0, i % msg.length());
+                results.add(scheduler.submit(spec, settings, text));
+                expected.add(converted(spec, settings, text));
+            }
+            for (int i = 0; i < results.size(); i += 1) {
+                assertEquals(expected.get(i), results.get(i).get());
+            }
+            assertEquals(200, scheduler.requests());
+            assertTrue(scheduler.batches() < 200);
+            assertEquals(200, scheduler.latency().count());
+        }
+    }
+
+    @Test
+    public void testBadRequestFailsAlone() throws Exception {
+        MachineSpec spec = naval();
+        try (ConversionScheduler scheduler =
+             new ConversionScheduler(1_000_000L, 16, 1)) {
+            CompletableFuture<String> bad =
+                scheduler.submit(spec, "* B Beta III", "HELLO");
+            CompletableFuture<String> badMsg =
+                scheduler.submit(spec, NAVAL_SETTINGS[0], "hello");
+            CompletableFuture<String> good =
+                scheduler.submit(spec, NAVAL_SETTINGS[1], "HELLO");
+            assertEquals(converted(spec, NAVAL_SETTINGS[1], "HELLO"),
+                         good.get());
+            for (CompletableFuture<String> failed : List.of(bad, badMsg)) {
+                try {
+                    failed.get();
+                    fail("invalid request converted");
+                } catch (ExecutionException excp) {
+                    assertTrue(excp.getCause() instanceof EnigmaException);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDroppedSpecCollected() throws Exception {
+        try (ConversionScheduler scheduler =
+             new ConversionScheduler(1_000_000L, 16, 1)) {
+            WeakReference<MachineSpec> dropped = convertOnce(scheduler);
+            convertOnce(scheduler);  // The dispatcher forgets the first.
+            for (int i = 0; i < 50 && dropped.get() != null; i += 1) {
+                System.gc();
+                Thread.sleep(10);
+            }
+            assertTrue("configuration kept", dropped.get() == null);
+        }
+    }
+
+}
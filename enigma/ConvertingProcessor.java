@@ -0,0 +1,333 @@
+package enigma;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static enigma.EnigmaException.*;
+import static enigma.EnigmaException.Kind.*;
+
+/** A reactive stage that encrypts a stream of buffers with a machine.
+ *  It subscribes to a publisher of chunks of a message and publishes the
+ *  converted message to one subscriber, in chunks taken from a pool of
+ *  fixed-size buffers.  The machine keeps its state from one chunk to
+ *  the next, so the output is the same however the message is split.
+ *
+ *  Demand is respected in both directions: a chunk is published only
+ *  when the subscriber has requested one, and at most one input chunk
+ *  is requested ahead of need.  A subscriber that hands each chunk back
+ *  with release() once done with it therefore converts a message of
+ *  any length in constant memory.
+ *
+ *  Signals may arrive from any threads; they are serialized by a drain
+ *  loop, and the subscriber is signalled from one thread at a time.
+ *  @author Truong Le
+ *  @param <B> the type of buffer converted.
+ */
+class ConvertingProcessor<B extends Buffer>
+    implements Flow.Processor<B, B> {
+
+    /** Converts one chunk into another, keeping state between chunks.
+     *  @param <B> the type of buffer converted. */
+    interface Converter<B extends Buffer> {
+        /** Convert as much of the remaining contents of SRC as fits into
+         *  DST, advancing both. */
+        void convert(B src, B dst);
+
+        /** Called once the whole message has been converted. */
+        void finish();
+    }
+
+    /** Return a processor that converts text with M, which continues
+     *  from its current settings, publishing chunks of CHUNK chars and
+     *  keeping up to POOL released chunks for reuse.  Whitespace is
+     *  passed through unconverted, without advancing the machine.  CHUNK
+     *  must be at least 2, to hold any character. */
+    static ConvertingProcessor<CharBuffer> forChars(Machine M, int chunk,
+                                                    int pool) {
+        if (chunk < 2) {
+            throw error(INTERNAL, "chunks must hold at least 2 chars");
+        }
+        return new ConvertingProcessor<>(new CharConverter(M),
+            new BufferPool<>(CharBuffer::allocate, chunk, pool));
+    }
+
+    /** Return a processor that converts binary data with M, whose
+     *  alphabet must be the byte alphabet and which continues from its
+     *  current settings, publishing direct buffers of CHUNK bytes and
+     *  keeping up to POOL released chunks for reuse. */
+    static ConvertingProcessor<ByteBuffer> forBytes(Machine M, int chunk,
+                                                    int pool) {
+        BinaryConverter conv = new BinaryConverter(M);
+        Converter<ByteBuffer> converter = new Converter<>() {
+            @Override
+            public void convert(ByteBuffer src, ByteBuffer dst) {
+                int n = Math.min(src.remaining(), dst.remaining());
+                ByteBuffer part = src.duplicate();
+                part.limit(part.position() + n);
+                conv.convert(part, dst);
+                src.position(src.position() + n);
+            }
+
+            @Override
+            public void finish() {
+                conv.sync();
+            }
+        };
+        return new ConvertingProcessor<>(converter,
+            new BufferPool<>(ByteBuffer::allocateDirect, chunk, pool));
+    }
+
+    /** A processor converting with CONVERTER into buffers from POOL. */
+    ConvertingProcessor(Converter<B> converter, BufferPool<B> pool) {
+        _converter = converter;
+        _pool = pool;
+    }
+
+    /** Return BUF, a chunk I published, for reuse. */
+    void release(B buf) {
+        _pool.release(buf);
+    }
+
+    /** Return my buffer pool. */
+    BufferPool<B> pool() {
+        return _pool;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super B> subscriber) {
+        boolean first;
+        synchronized (this) {
+            first = !_subscribed;
+            _subscribed = true;
+        }
+        if (!first) {
+            subscriber.onSubscribe(REJECTED);
+            subscriber.onError(error(INTERNAL,
+                                     "processor already has a subscriber"));
+            return;
+        }
+        subscriber.onSubscribe(new Downstream());
+        _downstream = subscriber;
+        drain();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (_upstream != null) {
+            subscription.cancel();
+            return;
+        }
+        _upstream = subscription;
+        drain();
+    }
+
+    @Override
+    public void onNext(B item) {
+        _pending = item;
+        drain();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        _error = throwable;
+        _done = true;
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        _done = true;
+        drain();
+    }
+
+    /** My subscriber's subscription. */
+    private class Downstream implements Flow.Subscription {
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                _failure = new IllegalArgumentException(
+                    "non-positive request: " + n);
+            } else {
+                _demand.getAndAccumulate(n, (a, b) ->
+                    a + b < 0 ? Long.MAX_VALUE : a + b);
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            _cancelled = true;
+            Flow.Subscription up = _upstream;
+            if (up != null) {
+                up.cancel();
+            }
+        }
+    }
+
+    /** Publish whatever demand and input allow, request more input if
+     *  needed, and pass on termination.  Only one thread runs the loop
+     *  at a time; signals arriving meanwhile make it go round again. */
+    private void drain() {
+        if (_wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        while (true) {
+            Flow.Subscriber<? super B> down = _downstream;
+            Flow.Subscription up = _upstream;
+            if (!_cancelled && !_terminated && down != null && up != null) {
+                step(down, up);
+            }
+            missed = _wip.addAndGet(-missed);
+            if (missed == 0) {
+                return;
+            }
+        }
+    }
+
+    /** Carry out one round of the drain loop for subscriber DOWN and
+     *  upstream subscription UP. */
+    private void step(Flow.Subscriber<? super B> down,
+                      Flow.Subscription up) {
+        try {
+            if (_failure != null) {
+                throw _failure;
+            }
+            while (_demand.get() > 0 && !_cancelled) {
+                if (_current == null || !_current.hasRemaining()) {
+                    _current = _pending;
+                    _pending = null;
+                    if (_current == null) {
+                        break;
+                    }
+                    _requested = false;
+                }
+                B out = _pool.take();
+                _converter.convert(_current, out);
+                out.flip();
+                if (!out.hasRemaining()) {
+                    _pool.release(out);
+                    continue;
+                }
+                _demand.decrementAndGet();
+                down.onNext(out);
+            }
+            boolean idle = (_current == null || !_current.hasRemaining())
+                && _pending == null;
+            if (idle && _done) {
+                _terminated = true;
+                if (_error != null) {
+                    down.onError(_error);
+                } else {
+                    _converter.finish();
+                    down.onComplete();
+                }
+            } else if (idle && !_requested) {
+                _requested = true;
+                up.request(1);
+            }
+        } catch (EnigmaException | IllegalArgumentException excp) {
+            _cancelled = true;
+            up.cancel();
+            _terminated = true;
+            down.onError(excp);
+        }
+    }
+
+    /** Converts text with a machine, passing whitespace through. */
+    private static class CharConverter implements Converter<CharBuffer> {
+        /** A converter using M. */
+        CharConverter(Machine M) {
+            _machine = M;
+            _alphabet = M.alphabet();
+        }
+
+        @Override
+        public void convert(CharBuffer src, CharBuffer dst) {
+            while (src.hasRemaining() && dst.remaining() >= 2) {
+                char ch = src.get();
+                int cp = ch;
+                if (_high != 0) {
+                    if (!Character.isLowSurrogate(ch)) {
+                        throw error("Character not in Alphabet");
+                    }
+                    cp = Character.toCodePoint(_high, ch);
+                    _high = 0;
+                } else if (Character.isHighSurrogate(ch)) {
+                    _high = ch;
+                    continue;
+                }
+                int c = _alphabet.indexOf(cp);
+                if (c >= 0) {
+                    dst.put(Character.toChars(
+                        _alphabet.codePoint(_machine.convert(c))));
+                } else if (Character.isWhitespace(cp)) {
+                    dst.put(ch);
+                } else {
+                    throw error("Character not in Alphabet");
+                }
+            }
+        }
+
+        @Override
+        public void finish() {
+            if (_high != 0) {
+                throw error("message ends with half a character");
+            }
+        }
+
+        /** The machine converting. */
+        private final Machine _machine;
+        /** Its alphabet. */
+        private final Alphabet _alphabet;
+        /** High surrogate left at the end of the last chunk, or 0. */
+        private char _high;
+    }
+
+    /** The subscription of a subscriber turned away. */
+    private static final Flow.Subscription REJECTED =
+        new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+            }
+
+            @Override
+            public void cancel() {
+            }
+        };
+
+    /** Converts each chunk. */
+    private final Converter<B> _converter;
+    /** Supplies output chunks. */
+    private final BufferPool<B> _pool;
+    /** Number of drain requests outstanding. */
+    private final AtomicInteger _wip = new AtomicInteger();
+    /** Number of chunks requested by my subscriber and not yet sent. */
+    private final AtomicLong _demand = new AtomicLong();
+    /** True once a subscriber has been accepted.  Guarded by this. */
+    private boolean _subscribed;
+    /** My subscriber, once it has its subscription, or null. */
+    private volatile Flow.Subscriber<? super B> _downstream;
+    /** My subscription to my publisher, or null. */
+    private volatile Flow.Subscription _upstream;
+    /** Input chunk received and not yet being converted, or null. */
+    private volatile B _pending;
+    /** Input chunk being converted, or null. */
+    private B _current;
+    /** True iff an input chunk has been requested and not received. */
+    private boolean _requested;
+    /** True once my publisher has finished. */
+    private volatile boolean _done;
+    /** Misuse by my subscriber to be reported to it, or null. */
+    private volatile IllegalArgumentException _failure;
+    /** Error reported by my publisher, or null. */
+    private volatile Throwable _error;
+    /** True once my subscriber has cancelled or conversion failed. */
+    private volatile boolean _cancelled;
+    /** True once my subscriber has been told the stream is over. */
+    private boolean _terminated;
+}
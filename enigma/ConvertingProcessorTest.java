@@ -0,0 +1,227 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Scanner;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the ConvertingProcessor class.
+ *  @author Truong Le
+ */
+public class ConvertingProcessorTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return a naval machine with rotors B Beta III IV I inserted, set
+     *  to AXLE, with plugboard (YF) (ZH). */
+    private Machine navalMachine() {
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("B", new Permutation(NAVALA.get("B"),
+                                                      UPPER)));
+        rotors.add(new FixedRotor("Beta",
+                                  new Permutation(NAVALA.get("Beta"), UPPER)));
+        rotors.add(new MovingRotor("III",
+                                   new Permutation(NAVALA.get("III"), UPPER),
+                                   "V"));
+        rotors.add(new MovingRotor("IV",
+                                   new Permutation(NAVALA.get("IV"), UPPER),
+                                   "J"));
+        rotors.add(new MovingRotor("I",
+                                   new Permutation(NAVALA.get("I"), UPPER),
+                                   "Q"));
+        Machine M = new Machine(UPPER, 5, 3, rotors);
+        M.insertRotors(new String[] {"B", "Beta", "III", "IV", "I"});
+        M.setRotors("AXLE");
+        M.setPlugboard(new Permutation("(YF) (ZH)", UPPER));
+        return M;
+    }
+
+    /** A subscriber that requests one chunk at a time, copies each chunk
+     *  received, and releases it to PROCESSOR.
+     *  @param <B> the type of buffer received. */
+    private static class Collector<B extends java.nio.Buffer>
+        implements Flow.Subscriber<B> {
+
+        /** A collector of chunks from PROCESSOR. */
+        Collector(ConvertingProcessor<B> processor) {
+            _processor = processor;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            _subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(B item) {
+            if (item instanceof CharBuffer) {
+                _text.append((CharBuffer) item);
+            } else {
+                ByteBuffer buf = (ByteBuffer) item;
+                while (buf.hasRemaining()) {
+                    _bytes.add(buf.get());
+                }
+            }
+            _processor.release(item);
+            _subscription.request(1);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            _error = throwable;
+            _done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            _done.countDown();
+        }
+
+        /** Wait until the stream ends. */
+        void await() throws InterruptedException {
+            _done.await();
+        }
+
+        /** Processor whose chunks are released. */
+        private final ConvertingProcessor<B> _processor;
+        /** Text received. */
+        private final StringBuilder _text = new StringBuilder();
+        /** Bytes received. */
+        private final ArrayList<Byte> _bytes = new ArrayList<>();
+        /** Latch released at the end of the stream. */
+        private final CountDownLatch _done = new CountDownLatch(1);
+        /** Subscription to the processor. */
+        private Flow.Subscription _subscription;
+        /** Error received, or null. */
+        private Throwable _error;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testChars() throws Exception {
+        String msg = "FROM HIS SHOULDER HIAWATHA TOOK THE CAMERA OF ROSEWOOD";
+        StringBuilder all = new StringBuilder();
+        for (int i = 0; i < 200; i += 1) {
+            all.append(msg).append('\n');
+        }
+        String expected = navalMachine()
+            .convert(all.toString().replaceAll("\\s", ""));
+
+        ConvertingProcessor<CharBuffer> processor =
+            ConvertingProcessor.forChars(navalMachine(), 16, 4);
+        Collector<CharBuffer> collector = new Collector<>(processor);
+        processor.subscribe(collector);
+        try (SubmissionPublisher<CharBuffer> publisher =
+             new SubmissionPublisher<>()) {
+            publisher.subscribe(processor);
+            for (int i = 0; i < all.length(); i += 7) {
+                publisher.submit(CharBuffer.wrap(
+                    all, i, Math.min(all.length(), i + 7)));
+            }
+        }
+        collector.await();
+        assertNull(collector._error);
+        assertEquals(expected,
+                     collector._text.toString().replaceAll("\\s", ""));
+        assertEquals(all.toString().replaceAll("\\S", "."),
+                     collector._text.toString().replaceAll("\\S", "."));
+        assertTrue(processor.pool().allocated() <= 2);
+    }
+
+    @Test
+    public void testBadCharacter() throws Exception {
+        ConvertingProcessor<CharBuffer> processor =
+            ConvertingProcessor.forChars(navalMachine(), 16, 4);
+        Collector<CharBuffer> collector = new Collector<>(processor);
+        processor.subscribe(collector);
+        try (SubmissionPublisher<CharBuffer> publisher =
+             new SubmissionPublisher<>()) {
+            publisher.subscribe(processor);
+            publisher.submit(CharBuffer.wrap("HELLO"));
+            publisher.submit(CharBuffer.wrap("WORLD!"));
+        }
+        collector.await();
+        assertTrue(collector._error instanceof EnigmaException);
+    }
+
+    @Test
+    public void testUnpairedSurrogate() throws Exception {
+        String[][] inputs = {
+            {"HELLO\ud800A"}, {"HELLO\ud800", "A"},
+            {"HELLO\ud800\u0c00"}, {"HELLO\ud800\ud800\udc00"},
+        };
+        for (String[] chunks : inputs) {
+            ConvertingProcessor<CharBuffer> processor =
+                ConvertingProcessor.forChars(navalMachine(), 16, 4);
+            Collector<CharBuffer> collector = new Collector<>(processor);
+            processor.subscribe(collector);
+            try (SubmissionPublisher<CharBuffer> publisher =
+                 new SubmissionPublisher<>()) {
+                publisher.subscribe(processor);
+                for (String chunk : chunks) {
+                    publisher.submit(CharBuffer.wrap(chunk));
+                }
+            }
+            collector.await();
+            assertTrue(collector._error instanceof EnigmaException);
+            assertEquals("Character not in Alphabet",
+                         collector._error.getMessage());
+        }
+    }
+
+    @Test
+    public void testBytes() throws Exception {
+        StringBuilder reflector = new StringBuilder(" R R");
+        for (int b = 0; b < 256; b += 2) {
+            reflector.append(String.format(" (%02x%02x)", b, b + 1));
+        }
+        String config = "BYTES\n3 1\n I M00 (000102)\n F N (0405)\n"
+            + reflector + "\n";
+        MachineSpec spec = MachineSpec.read(new Scanner(config));
+        byte[] data = new byte[1000];
+        for (int i = 0; i < data.length; i += 1) {
+            data[i] = (byte) (i * 31);
+        }
+        Machine expected = spec.newMachine();
+        BinaryConverter.setUp(expected, "* R F I 0000");
+        Machine M = spec.newMachine();
+        BinaryConverter.setUp(M, "* R F I 0000");
+        ByteBuffer want = ByteBuffer.allocate(data.length);
+        new BinaryConverter(expected).convert(ByteBuffer.wrap(data), want);
+
+        ConvertingProcessor<ByteBuffer> processor =
+            ConvertingProcessor.forBytes(M, 64, 2);
+        Collector<ByteBuffer> collector = new Collector<>(processor);
+        processor.subscribe(collector);
+        try (SubmissionPublisher<ByteBuffer> publisher =
+             new SubmissionPublisher<>()) {
+            publisher.subscribe(processor);
+            for (int i = 0; i < data.length; i += 100) {
+                publisher.submit(ByteBuffer.wrap(data, i, 100));
+            }
+        }
+        collector.await();
+        assertNull(collector._error);
+        assertEquals(data.length, collector._bytes.size());
+        for (int i = 0; i < data.length; i += 1) {
+            assertEquals(want.get(i), (byte) collector._bytes.get(i));
+        }
+    }
+
+}
@@ -0,0 +1,41 @@
+package enigma;
+
+/** The conversion loop for one rotor order, specialised where possible
+ *  to the shape of the machine.  An engine holds the compiled tables of
+ *  the rotors but no positions: each run loads the rotor settings, steps
+ *  and substitutes a block of characters, and leaves the final settings
+ *  for the caller to store back.  Like the machine that owns it, an
+ *  engine is for use by one thread at a time.
+ *
+ *  select() picks an engine for a MachineTables: NavalEngine for the
+ *  26-letter, 5-slot, 3-pawl shape of the naval machine, and
+ *  GenericEngine, which loops over any number of slots, otherwise.
+ *  @author Truong Le
+ */
+abstract class Engine {
+
+    /** Return the best engine for the rotor order compiled in TABLES. */
+    static Engine select(MachineTables tables) {
+        if (NavalEngine.fits(tables)) {
+            return new NavalEngine(tables);
+        }
+        return new GenericEngine(tables);
+    }
+
+    /** Return a short description of this engine and the shape it
+     *  handles, for debugging output. */
+    abstract String name();
+
+    /** Convert the first COUNT entries of CHARS (alphabet indices, all
+     *  valid) in place, stepping before each character as the machine
+     *  does.  POSNS and RINGS hold the settings and ring settings of each
+     *  slot; POSNS is updated to the final settings.  PLUGS is the
+     *  plugboard's forward table, or null if there is no plugboard. */
+    abstract void run(int[] posns, int[] rings, int[] plugs, int[] chars,
+                      int count);
+
+    @Override
+    public String toString() {
+        return name();
+    }
+}
@@ -0,0 +1,200 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the conversion engines.
+ *  @author Truong Le
+ */
+public class EngineTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return a naval machine with NUMROTORS slots and PAWLS pawls, with
+     *  rotors NAMES inserted, set to SETTING and RINGS, with plugboard
+     *  PLUGBOARD. */
+    private Machine machine(int numRotors, int pawls, String[] names,
+                            String setting, String rings,
+                            String plugboard) {
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("B", new Permutation(NAVALA.get("B"),
+                                                      UPPER)));
+        rotors.add(new FixedRotor("Beta",
+                                  new Permutation(NAVALA.get("Beta"), UPPER)));
+        String[][] moving = {{"I", "Q"}, {"II", "E"}, {"III", "V"},
+                             {"IV", "J"}, {"V", "Z"}};
+        for (String[] r : moving) {
+            rotors.add(new MovingRotor(r[0],
+                                       new Permutation(NAVALA.get(r[0]),
+                                                       UPPER), r[1]));
+        }
+        Machine M = new Machine(UPPER, numRotors, pawls, rotors);
+        M.insertRotors(names);
+        M.setRotors(setting);
+        M.setRingRotors(rings);
+        M.setPlugboard(new Permutation(plugboard, UPPER));
+        return M;
+    }
+
+    /** Advance the rotors of M as the original, rotor-by-rotor stepping
+     *  code did. */
+    private static void referenceAdvance(Machine M) {
+        int numRotors = M.numRotors(), pawls = M.numPawls();
+        Set<Rotor> advancing = new HashSet<>();
+        for (int i = numRotors - pawls; i < numRotors; i += 1) {
+            if (i == numRotors - 1) {
+                advancing.add(M.rotor(i));
+            } else {
+                if (M.rotor(i + 1).atNotch()) {
+                    advancing.add(M.rotor(i));
+                }
+                if (M.rotor(i).atNotch() && !M.rotor(i - 1).reflecting()) {
+                    advancing.add(M.rotor(i));
+                    advancing.add(M.rotor(i - 1));
+                }
+            }
+        }
+        for (Rotor r : advancing) {
+            r.advance();
+        }
+    }
+
+    /** Return the conversion of MSG by M, one rotor at a time. */
+    private static String referenceConvert(Machine M, String msg) {
+        StringBuilder result = new StringBuilder();
+        Alphabet alpha = M.alphabet();
+        for (char ch : msg.toCharArray()) {
+            referenceAdvance(M);
+            int c = M.plugboard().permute(alpha.toInt(ch));
+            for (int k = M.numRotors() - 1; k >= 0; k -= 1) {
+                c = M.rotor(k).convertForward(c);
+            }
+            for (int k = 1; k < M.numRotors(); k += 1) {
+                c = M.rotor(k).convertBackward(c);
+            }
+            result.append(alpha.toChar(M.plugboard().permute(c)));
+        }
+        return result.toString();
+    }
+
+    /** Return a random message of LENGTH letters drawn by RANDOM. */
+    private static String message(Random random, int length) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < length; i += 1) {
+            result.append((char) ('A' + random.nextInt(26)));
+        }
+        return result.toString();
+    }
+
+    /** Check that machines with NUMROTORS slots, PAWLS pawls and rotors
+     *  NAMES, at random settings, convert as the reference does, with an
+     *  engine whose name starts with ENGINE. */
+    private void checkAgainstReference(int numRotors, int pawls,
+                                       String[] names, String engine) {
+        Random random = new Random(numRotors * 31 + pawls);
+        for (int trial = 0; trial < 20; trial += 1) {
+            String setting = message(random, numRotors - 1),
+                rings = message(random, numRotors - 1);
+            Machine M = machine(numRotors, pawls, names, setting, rings,
+                                "(AQ) (EP) (KZ)");
+            Machine R = machine(numRotors, pawls, names, setting, rings,
+                                "(AQ) (EP) (KZ)");
+            assertTrue(M.engine().name().startsWith(engine));
+            String msg = message(random, 700);
+            assertEquals(referenceConvert(R, msg), M.convert(msg));
+            for (int k = 0; k < numRotors; k += 1) {
+                assertEquals(R.rotor(k).setting(), M.rotor(k).setting());
+            }
+        }
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testNaval() {
+        checkAgainstReference(5, 3,
+                              new String[] {"B", "Beta", "III", "IV", "I"},
+                              "naval");
+    }
+
+    @Test
+    public void testGenericFourPawls() {
+        checkAgainstReference(5, 4,
+                              new String[] {"B", "II", "III", "IV", "I"},
+                              "generic");
+    }
+
+    @Test
+    public void testGenericMovingWithoutPawl() {
+        checkAgainstReference(5, 2,
+                              new String[] {"B", "V", "III", "IV", "I"},
+                              "generic");
+    }
+
+    @Test
+    public void testGenericThreeSlots() {
+        checkAgainstReference(3, 2, new String[] {"B", "II", "V"},
+                              "generic");
+    }
+
+    @Test
+    public void testWideAlphabet() {
+        int n = 300;
+        StringBuilder chars = new StringBuilder();
+        for (int i = 0; i < n; i += 1) {
+            chars.append((char) ('\u0100' + i));
+        }
+        Alphabet alpha = new Alphabet(chars.toString());
+        Random random = new Random(n);
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        int[][] pairs = new int[n / 2][];
+        for (int i = 0; i < n / 2; i += 1) {
+            pairs[i] = new int[] {2 * i, 2 * i + 1};
+        }
+        rotors.add(new Reflector("R", new Permutation(pairs, alpha)));
+        for (int r = 1; r <= 3; r += 1) {
+            ArrayList<Integer> order = new ArrayList<>();
+            for (int i = 0; i < n; i += 1) {
+                order.add(i);
+            }
+            Collections.shuffle(order, random);
+            int[] cycle = order.stream().mapToInt(i -> i).toArray();
+            rotors.add(new MovingRotor("M" + r,
+                                       new Permutation(new int[][] {cycle},
+                                                       alpha),
+                                       chars.substring(r, r + 2)));
+        }
+        String[] names = {"R", "M1", "M2", "M3"};
+        String setting = chars.substring(0, 3);
+        Machine M = new Machine(alpha, 4, 3, rotors),
+            R = new Machine(alpha, 4, 3, rotors);
+        for (Machine m : new Machine[] {M, R}) {
+            m.insertRotors(names);
+            m.setRotors(setting);
+            m.setPlugboard(new Permutation(new int[][] {{0, 5}}, alpha));
+        }
+        StringBuilder msg = new StringBuilder();
+        for (int i = 0; i < 2000; i += 1) {
+            msg.append(chars.charAt(random.nextInt(n)));
+        }
+        String expected = referenceConvert(R, msg.toString());
+        M.setRotors(setting);
+        assertTrue(M.engine().name().startsWith("generic 300"));
+        assertEquals(expected, M.convert(msg.toString()));
+    }
+
+}
@@ -0,0 +1,104 @@
+package enigma;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** Java Flight Recorder events recorded by the simulator.  Events carry
+ *  only primitive fields and strings that already exist, and none has a
+ *  stack trace, so they cost next to nothing when recording is off and
+ *  little when it is on.  They appear under the "Enigma" category of a
+ *  recording, e.g. one started with
+ *  java -XX:StartFlightRecording=filename=enigma.jfr enigma.Main ....
+ *  @author Truong Le
+ */
+final class EnigmaEvents {
+
+    /** Not instantiable. */
+    private EnigmaEvents() {
+    }
+
+    /** Reading and indexing a configuration. */
+    @Name("enigma.ConfigLoad")
+    @Label("Configuration Load")
+    @Category("Enigma")
+    @StackTrace(false)
+    static class ConfigLoad extends Event {
+        /** Number of rotors defined. */
+        @Label("Rotors")
+        int rotors;
+
+        /** Number of rotor slots. */
+        @Label("Slots")
+        int slots;
+
+        /** Number of characters in the alphabet. */
+        @Label("Alphabet Size")
+        int alphabetSize;
+    }
+
+    /** Setting a machine up from one settings line. */
+    @Name("enigma.SetUp")
+    @Label("Settings Line")
+    @Category("Enigma")
+    @StackTrace(false)
+    static class SetUp extends Event {
+        /** The settings line. */
+        @Label("Settings")
+        String settings;
+
+        /** True iff the compiled key was found in the cache. */
+        @Label("Cache Hit")
+        @Description("Whether the settings line's compiled key was cached")
+        boolean cacheHit;
+    }
+
+    /** Converting one section: a settings line and the message lines
+     *  after it. */
+    @Name("enigma.Section")
+    @Label("Section")
+    @Category("Enigma")
+    @StackTrace(false)
+    static class Section extends Event {
+        /** The settings line starting the section. */
+        @Label("Settings")
+        String settings;
+
+        /** Number of message lines. */
+        @Label("Lines")
+        int lines;
+
+        /** Number of characters converted. */
+        @Label("Characters")
+        long chars;
+
+        /** Characters converted per second. */
+        @Label("Characters per Second")
+        double charsPerSecond;
+
+        /** True iff characters were converted by keystream table
+         *  lookup. */
+        @Label("Keystream Table")
+        boolean keystream;
+    }
+
+    /** Converting one binary file. */
+    @Name("enigma.BinaryTransfer")
+    @Label("Binary Transfer")
+    @Category("Enigma")
+    @StackTrace(false)
+    static class BinaryTransfer extends Event {
+        /** Number of bytes converted. */
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        /** Bytes converted per second. */
+        @Label("Bytes per Second")
+        double bytesPerSecond;
+    }
+}
@@ -7,9 +7,32 @@ package enigma;
  */
 class EnigmaException extends RuntimeException {
 
-    /** An exception whose getMessage() value is MSG. */
+    /** The kinds of error, by which errors are counted (see Metrics). */
+    enum Kind {
+        /** The machine's wiring: configurations, and rotor and plugboard
+         *  cycles. */
+        CONFIG,
+        /** Settings lines: rotor orders and settings. */
+        SETTINGS,
+        /** Messages and the other data read or converted. */
+        DATA,
+        /** Command-line arguments and options. */
+        USAGE,
+        /** Failures to open, read or write files and connections. */
+        IO,
+        /** Misuse of a class by its caller, and interrupted work. */
+        INTERNAL
+    }
+
+    /** An exception whose getMessage() value is MSG, of kind DATA. */
     EnigmaException(String msg) {
+        this(Kind.DATA, msg);
+    }
+
+    /** An exception of kind KIND whose getMessage() value is MSG. */
+    EnigmaException(Kind kind, String msg) {
         super(msg);
+        _kind = kind;
     }
 
     /** A utility method that returns a new exception with a message
@@ -23,4 +46,25 @@ class EnigmaException extends RuntimeException {
         return new EnigmaException(String.format(msgFormat, arguments));
     }
 
+    /** As for error(MSGFORMAT, ARGUMENTS), but of kind KIND. */
+    static EnigmaException error(Kind kind, String msgFormat,
+                                 Object... arguments) {
+        return new EnigmaException(kind,
+                                   String.format(msgFormat, arguments));
+    }
+
+    /** Returns my kind. */
+    Kind kind() {
+        return _kind;
+    }
+
+    /** Returns the category of this error: the name of its kind, in
+     *  lower case. */
+    String category() {
+        return _kind.name().toLowerCase();
+    }
+
+    /** My kind. */
+    private final Kind _kind;
+
 }
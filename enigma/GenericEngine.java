@@ -0,0 +1,46 @@
+package enigma;
+
+/** The engine for machines of any shape: it steps and substitutes with
+ *  loops over the slots of a MachineTables.
+ *  @author Truong Le
+ */
+class GenericEngine extends Engine {
+
+    /** An engine for the rotor order compiled in TABLES. */
+    GenericEngine(MachineTables tables) {
+        _tables = tables;
+        _offsets = new int[tables.numRotors()];
+    }
+
+    @Override
+    String name() {
+        return String.format("generic %dx%d/%d", _tables.size(),
+                             _tables.numRotors(), _tables.numPawls());
+    }
+
+    @Override
+    void run(int[] posns, int[] rings, int[] plugs, int[] chars,
+             int count) {
+        MachineTables tables = _tables;
+        int n = tables.size(), numRotors = posns.length;
+        int[] offsets = _offsets;
+        for (int i = 0; i < count; i += 1) {
+            tables.advance(posns);
+            for (int k = 0; k < numRotors; k += 1) {
+                offsets[k] = tables.shift(posns[k], n - rings[k]);
+            }
+            int c = chars[i];
+            if (plugs != null) {
+                c = plugs[tables.substitute(plugs[c], offsets)];
+            } else {
+                c = tables.substitute(c, offsets);
+            }
+            chars[i] = c;
+        }
+    }
+
+    /** Compiled rotor tables. */
+    private final MachineTables _tables;
+    /** Scratch settings less ring settings, by slot. */
+    private final int[] _offsets;
+}
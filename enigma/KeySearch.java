@@ -0,0 +1,178 @@
+package enigma;
+
+import java.util.ArrayList;
+
+import static enigma.EnigmaException.*;
+
+/** A known-plaintext search over the keys of a configuration.  The key
+ *  space consists of every rotor order (a reflector, distinct fixed
+ *  rotors for the slots without pawls, and distinct moving rotors for
+ *  the slots with pawls) combined with every initial setting; ring
+ *  settings are left at 0 and no plugboard is used.  A key is a hit if
+ *  decrypting the ciphertext with it yields text containing the crib.
+ *
+ *  Rotor orders are numbered from 0 to orders() - 1, and the initial
+ *  settings of an order from 0 to positions() - 1, with the rightmost
+ *  slot varying fastest.  A KeySearch owns a Machine, so each thread
+ *  searching must have its own.
+ *  @author Truong Le
+ */
+class KeySearch {
+
+    /** A search over the keys of SPEC for those that decrypt CIPHERTEXT
+     *  into text containing CRIB.  Whitespace in both is ignored. */
+    KeySearch(MachineSpec spec, String ciphertext, String crib) {
+        _spec = spec;
+        _machine = spec.newMachine();
+        Alphabet alpha = spec.alphabet();
+        _cipher = indices(ciphertext, alpha);
+        _crib = indices(crib, alpha);
+        _plain = new int[_cipher.length];
+        _size = alpha.size();
+        _posns = new int[spec.numRotors() - 1];
+
+        long positions = 1;
+        for (int k = 1; k < spec.numRotors(); k += 1) {
+            if (positions > Long.MAX_VALUE / _size) {
+                throw error("too many settings to search");
+            }
+            positions *= _size;
+        }
+        _positions = positions;
+
+        RotorRegistry registry = spec.registry();
+        ArrayList<Integer> reflectors = new ArrayList<>(),
+            fixed = new ArrayList<>(), moving = new ArrayList<>();
+        for (int id = 0; id < registry.size(); id += 1) {
+            switch (registry.type(id)) {
+            case 'R':
+                reflectors.add(id);
+                break;
+            case 'M':
+                moving.add(id);
+                break;
+            default:
+                fixed.add(id);
+                break;
+            }
+        }
+        int numRotors = spec.numRotors(), pawls = spec.numPawls();
+        int[] order = new int[numRotors];
+        for (int reflector : reflectors) {
+            order[0] = reflector;
+            enumerate(order, 1, numRotors - pawls, fixed, moving);
+        }
+    }
+
+    /** Return the number of rotor orders. */
+    int orders() {
+        return _orders.size();
+    }
+
+    /** Return the number of initial settings of each rotor order. */
+    long positions() {
+        return _positions;
+    }
+
+    /** Return the settings line for rotor order ORDER and initial
+     *  setting POS. */
+    String settings(int order, long pos) {
+        StringBuilder line = new StringBuilder("*");
+        for (int id : _orders.get(order)) {
+            line.append(' ').append(_spec.registry().name(id));
+        }
+        line.append(' ');
+        decode(pos);
+        for (int p : _posns) {
+            line.appendCodePoint(_spec.alphabet().codePoint(p));
+        }
+        return line.toString();
+    }
+
+    /** Return true iff the key with rotor order ORDER and initial setting
+     *  POS is a hit. */
+    boolean trial(int order, long pos) {
+        if (order != _inserted) {
+            _machine.insertRotors(_orders.get(order));
+            _inserted = order;
+        }
+        decode(pos);
+        _machine.setPositions(_posns);
+        for (int i = 0; i < _cipher.length; i += 1) {
+            _plain[i] = _machine.convert(_cipher[i]);
+        }
+        return contains(_plain, _crib);
+    }
+
+    /** Fill in ORDER from slot K on, where slots before FIRSTMOVING take
+     *  distinct rotors from FIXED and the others from MOVING, recording
+     *  each complete order. */
+    private void enumerate(int[] order, int k, int firstMoving,
+                           ArrayList<Integer> fixed,
+                           ArrayList<Integer> moving) {
+        if (k == order.length) {
+            _orders.add(order.clone());
+            return;
+        }
+        for (int id : k < firstMoving ? fixed : moving) {
+            boolean used = false;
+            for (int j = 1; j < k; j += 1) {
+                used |= order[j] == id;
+            }
+            if (!used) {
+                order[k] = id;
+                enumerate(order, k + 1, firstMoving, fixed, moving);
+            }
+        }
+    }
+
+    /** Set _posns to the initial settings numbered POS. */
+    private void decode(long pos) {
+        for (int k = _posns.length - 1; k >= 0; k -= 1) {
+            _posns[k] = (int) (pos % _size);
+            pos /= _size;
+        }
+    }
+
+    /** Return the alphabet indices of the characters of TEXT in ALPHA,
+     *  ignoring whitespace. */
+    private static int[] indices(String text, Alphabet alpha) {
+        return text.codePoints().filter(c -> !Character.isWhitespace(c))
+            .map(alpha::toIndex).toArray();
+    }
+
+    /** Return true iff TEXT contains PATTERN as a contiguous run. */
+    private static boolean contains(int[] text, int[] pattern) {
+        outer:
+        for (int i = 0; i + pattern.length <= text.length; i += 1) {
+            for (int j = 0; j < pattern.length; j += 1) {
+                if (text[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /** The configuration searched. */
+    private final MachineSpec _spec;
+    /** The machine used for trials. */
+    private final Machine _machine;
+    /** Ciphertext, as alphabet indices. */
+    private final int[] _cipher;
+    /** Crib, as alphabet indices. */
+    private final int[] _crib;
+    /** Scratch decryption. */
+    private final int[] _plain;
+    /** Alphabet size. */
+    private final int _size;
+    /** Scratch initial settings of slots 1 and up. */
+    private final int[] _posns;
+    /** Number of initial settings per rotor order. */
+    private final long _positions;
+    /** All rotor orders, as registry ids. */
+    private final ArrayList<int[]> _orders = new ArrayList<>();
+    /** Rotor order currently inserted in _machine, or -1. */
+    private int _inserted = -1;
+}
@@ -0,0 +1,306 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static enigma.EnigmaException.*;
+import static enigma.EnigmaException.Kind.*;
+
+/** A precomputed table of every state a configured machine passes
+ *  through, from its current settings until its settings repeat, with the
+ *  complete substitution (plugboard, rotors, reflector and back) for each
+ *  state.  Tables are written to a file and read through a read-only
+ *  memory mapping, so processes that map the same file share its pages
+ *  through the operating system's page cache.
+ *
+ *  State #0 is the state of the machine when the table was built; state
+ *  #i + 1 follows state #i, except that the state after the last one is
+ *  state #cycleStart().  A machine whose settings (including those of
+ *  its fixed rotors) match any recorded state may use the table.
+ *  @author Truong Le
+ */
+class KeystreamTable {
+
+    /** Write the table for the current rotor order, settings, ring
+     *  settings and plugboard of M to FILE. */
+    static void write(Machine M, File file) {
+        MachineTables tables = new MachineTables(M);
+        int n = tables.size(), numRotors = tables.numRotors();
+        int[] posns = new int[numRotors], rings = new int[numRotors];
+        String[] names = new String[numRotors];
+        for (int k = 0; k < numRotors; k += 1) {
+            posns[k] = M.rotor(k).setting();
+            rings[k] = M.rotor(k).ring();
+            names[k] = M.rotor(k).name();
+        }
+        int[] plugboard = M.plugboard() == null
+            ? identity(n) : M.plugboard().forwardTable();
+
+        HashMap<Long, Integer> seen = new HashMap<>();
+        long[] keys = new long[INITIAL_STATES];
+        int count = 0;
+        long key = pack(posns, n);
+        while (!seen.containsKey(key)) {
+            if (count == keys.length) {
+                keys = Arrays.copyOf(keys, 2 * count);
+            }
+            seen.put(key, count);
+            keys[count] = key;
+            count += 1;
+            tables.advance(posns);
+            key = pack(posns, n);
+        }
+        int cycleStart = seen.get(key);
+
+        int width = n <= BYTE_LIMIT ? 1 : n <= SHORT_LIMIT ? 2 : 4;
+        byte[] header = header(names, rings, plugboard);
+        long length = HEADER_INTS * 4L + header.length
+            + (long) count * INDEX_ENTRY + (long) count * n * width;
+        if (length > Integer.MAX_VALUE) {
+            throw error("keystream table too large (%d bytes)", length);
+        }
+
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw");
+             FileChannel channel = out.getChannel()) {
+            out.setLength(0);
+            MappedByteBuffer buf =
+                channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+            buf.putInt(MAGIC).putInt(n).putInt(numRotors).putInt(count)
+                .putInt(cycleStart).putInt(width).putInt(header.length);
+            buf.put(header);
+            long[] sorted = Arrays.copyOf(keys, count);
+            Arrays.sort(sorted);
+            for (long k : sorted) {
+                buf.putLong(k).putInt(seen.get(k));
+            }
+            int[] offsets = new int[numRotors];
+            for (int s = 0; s < count; s += 1) {
+                unpack(keys[s], n, posns);
+                for (int k = 0; k < numRotors; k += 1) {
+                    offsets[k] = tables.shift(posns[k], n - rings[k]);
+                }
+                for (int c = 0; c < n; c += 1) {
+                    int e = plugboard[tables.substitute(plugboard[c],
+                                                        offsets)];
+                    if (width == 1) {
+                        buf.put((byte) e);
+                    } else if (width == 2) {
+                        buf.putChar((char) e);
+                    } else {
+                        buf.putInt(e);
+                    }
+                }
+            }
+            buf.force();
+        } catch (IOException excp) {
+            throw error(IO, "could not write %s", file);
+        }
+    }
+
+    /** Return the table stored in FILE, mapped read-only. */
+    static KeystreamTable map(File file) {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r");
+             FileChannel channel = in.getChannel()) {
+            return new KeystreamTable(
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IOException excp) {
+            throw error(IO, "could not open %s", file);
+        }
+    }
+
+    /** A table read from BUF. */
+    private KeystreamTable(ByteBuffer buf) {
+        if (buf.capacity() < HEADER_INTS * 4 || buf.getInt(0) != MAGIC) {
+            throw error("not a keystream table");
+        }
+        _buf = buf;
+        _size = buf.getInt(4);
+        _numRotors = buf.getInt(8);
+        _count = buf.getInt(12);
+        _cycleStart = buf.getInt(16);
+        _width = buf.getInt(20);
+        int headerLength = buf.getInt(24);
+        byte[] header = new byte[headerLength];
+        buf.position(HEADER_INTS * 4);
+        buf.get(header);
+        _header = header;
+        _indexStart = HEADER_INTS * 4 + headerLength;
+        _tableStart = _indexStart + _count * INDEX_ENTRY;
+    }
+
+    /** Return the number of states recorded. */
+    int count() {
+        return _count;
+    }
+
+    /** Return the state that follows the last recorded state. */
+    int cycleStart() {
+        return _cycleStart;
+    }
+
+    /** Return the number of the state M is in, or -1 if M's rotor order,
+     *  ring settings or plugboard differ from mine or its settings are
+     *  not among my recorded states. */
+    int find(Machine M) {
+        if (M.numRotors() != _numRotors || M.rotor(0) == null
+            || M.rotor(0).size() != _size) {
+            return -1;
+        }
+        String[] names = new String[_numRotors];
+        int[] rings = new int[_numRotors], posns = new int[_numRotors];
+        for (int k = 0; k < _numRotors; k += 1) {
+            names[k] = M.rotor(k).name();
+            rings[k] = M.rotor(k).ring();
+            posns[k] = M.rotor(k).setting();
+        }
+        int[] plugboard = M.plugboard() == null
+            ? identity(_size) : M.plugboard().forwardTable();
+        if (!Arrays.equals(_header, header(names, rings, plugboard))) {
+            return -1;
+        }
+        long key = pack(posns, _size);
+        int lo = 0, hi = _count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long k = _buf.getLong(_indexStart + mid * INDEX_ENTRY);
+            if (k < key) {
+                lo = mid + 1;
+            } else if (k > key) {
+                hi = mid - 1;
+            } else {
+                return _buf.getInt(_indexStart + mid * INDEX_ENTRY + 8);
+            }
+        }
+        return -1;
+    }
+
+    /** Return the state that follows STATE. */
+    int next(int state) {
+        return state + 1 < _count ? state + 1 : _cycleStart;
+    }
+
+    /** Return the conversion of C (an index in the alphabet) in STATE. */
+    int convert(int state, int c) {
+        int at = _tableStart + (state * _size + c) * _width;
+        if (_width == 1) {
+            return _buf.get(at) & BYTE_MASK;
+        } else if (_width == 2) {
+            return _buf.getChar(at);
+        } else {
+            return _buf.getInt(at);
+        }
+    }
+
+    /** Set POSNS, of length numRotors, to the rotor settings of STATE,
+     *  by slot.  POSNS[0] is set to 0. */
+    void settings(int state, int[] posns) {
+        unpack(stateKey(state), _size, posns);
+    }
+
+    /** Return the packed settings of STATE. */
+    private long stateKey(int state) {
+        if (_stateKeys == null) {
+            long[] keys = new long[_count];
+            for (int i = 0; i < _count; i += 1) {
+                keys[_buf.getInt(_indexStart + i * INDEX_ENTRY + 8)] =
+                    _buf.getLong(_indexStart + i * INDEX_ENTRY);
+            }
+            _stateKeys = keys;
+        }
+        return _stateKeys[state];
+    }
+
+    /** Return the settings POSNS of slots 1 and up packed into one number,
+     *  with slot 1 least significant, for an alphabet of size N. */
+    static long pack(int[] posns, int n) {
+        long key = 0;
+        for (int k = posns.length - 1; k >= 1; k -= 1) {
+            if (key > (Long.MAX_VALUE - posns[k]) / n) {
+                throw error("too many machine states to record");
+            }
+            key = key * n + posns[k];
+        }
+        return key;
+    }
+
+    /** Unpack KEY (as produced by pack) into POSNS for an alphabet of
+     *  size N.  POSNS[0] is set to 0. */
+    static void unpack(long key, int n, int[] posns) {
+        posns[0] = 0;
+        for (int k = 1; k < posns.length; k += 1) {
+            posns[k] = (int) (key % n);
+            key /= n;
+        }
+    }
+
+    /** Return the identity table of size N. */
+    private static int[] identity(int n) {
+        int[] result = new int[n];
+        for (int c = 0; c < n; c += 1) {
+            result[c] = c;
+        }
+        return result;
+    }
+
+    /** Return the encoded description of a rotor order NAMES, ring settings
+     *  RINGS and plugboard table PLUGBOARD, used to check that a machine
+     *  matches a table. */
+    private static byte[] header(String[] names, int[] rings,
+                                 int[] plugboard) {
+        byte[] text = String.join(" ", names).getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buf = ByteBuffer.allocate(4 + text.length
+                                             + 4 * rings.length
+                                             + 4 * plugboard.length);
+        buf.putInt(text.length).put(text);
+        for (int r : rings) {
+            buf.putInt(r);
+        }
+        for (int p : plugboard) {
+            buf.putInt(p);
+        }
+        return buf.array();
+    }
+
+    /** Identifies a keystream table file. */
+    private static final int MAGIC = 0x454e4b53;
+    /** Number of ints at the start of a table file. */
+    private static final int HEADER_INTS = 7;
+    /** Bytes per entry of the settings index (a long and an int). */
+    private static final int INDEX_ENTRY = 12;
+    /** Largest alphabet stored with one byte per entry. */
+    private static final int BYTE_LIMIT = 256;
+    /** Largest alphabet stored with two bytes per entry. */
+    private static final int SHORT_LIMIT = 1 << 16;
+    /** Mask for reading unsigned bytes. */
+    private static final int BYTE_MASK = 0xff;
+    /** Initial capacity for recorded states while building. */
+    private static final int INITIAL_STATES = 1024;
+
+    /** The mapped file. */
+    private final ByteBuffer _buf;
+    /** Alphabet size. */
+    private final int _size;
+    /** Number of rotor slots. */
+    private final int _numRotors;
+    /** Number of states. */
+    private final int _count;
+    /** State following the last state. */
+    private final int _cycleStart;
+    /** Bytes per substitution entry. */
+    private final int _width;
+    /** Encoded rotor order, rings and plugboard. */
+    private final byte[] _header;
+    /** Offset of the settings index. */
+    private final int _indexStart;
+    /** Offset of the substitution tables. */
+    private final int _tableStart;
+    /** Packed settings by state number, built on first use. */
+    private long[] _stateKeys;
+}
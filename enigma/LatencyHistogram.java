@@ -0,0 +1,105 @@
+package enigma;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/** A histogram of durations in nanoseconds, in the style of an HDR
+ *  histogram: buckets are grouped by powers of two, and each power of two
+ *  is divided into SUB_BUCKETS equal parts, so every recorded value is
+ *  counted with a relative error of at most 1 / SUB_BUCKETS.  Counts are
+ *  kept in LongAdders, so threads recording at once do not contend.
+ *  @author Truong Le
+ */
+class LatencyHistogram {
+
+    /** An empty histogram. */
+    LatencyHistogram() {
+        for (int i = 0; i < _counts.length; i += 1) {
+            _counts[i] = new LongAdder();
+        }
+    }
+
+    /** Record one duration of NANOS nanoseconds. */
+    void record(long nanos) {
+        _counts[bucket(Math.max(0, nanos))].increment();
+        _max.accumulate(nanos);
+    }
+
+    /** Forget every duration recorded. */
+    void reset() {
+        for (LongAdder count : _counts) {
+            count.reset();
+        }
+        _max.reset();
+    }
+
+    /** Return the number of durations recorded. */
+    long count() {
+        long total = 0;
+        for (LongAdder count : _counts) {
+            total += count.sum();
+        }
+        return total;
+    }
+
+    /** Return the longest duration recorded, or 0 if none has been. */
+    long max() {
+        return Math.max(0, _max.get());
+    }
+
+    /** Return an upper bound, within the histogram's precision, on the
+     *  duration below which a fraction Q (0 < Q <= 1) of the recorded
+     *  durations fall; 0 if none has been recorded. */
+    long percentile(double q) {
+        long[] counts = new long[_counts.length];
+        long total = 0;
+        for (int i = 0; i < counts.length; i += 1) {
+            counts[i] = _counts[i].sum();
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(q * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i += 1) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max());
+            }
+        }
+        return max();
+    }
+
+    /** Return the bucket of VALUE >= 0. */
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        int sub = (int) (value >>> exp) - SUB_BUCKETS;
+        return (exp + 1) * SUB_BUCKETS + sub;
+    }
+
+    /** Return the largest value counted in bucket I. */
+    static long upperBound(int i) {
+        if (i < SUB_BUCKETS) {
+            return i;
+        }
+        int exp = i / SUB_BUCKETS - 1;
+        long sub = i % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << exp) - 1;
+    }
+
+    /** Log base 2 of the number of buckets per power of two. */
+    private static final int SUB_BITS = 3;
+    /** Number of buckets per power of two. */
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    /** Number of buckets, enough for any non-negative long. */
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    /** Count of durations in each bucket. */
+    private final LongAdder[] _counts = new LongAdder[BUCKETS];
+    /** Longest duration. */
+    private final LongAccumulator _max = new LongAccumulator(Math::max, -1);
+}
@@ -0,0 +1,35 @@
+package enigma;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** A map holding at most a fixed number of entries, which discards its
+ *  least recently used entry when a new one would exceed the bound.
+ *  @author Truong Le
+ */
+class LruCache<K, V> extends LinkedHashMap<K, V> {
+
+    /** An empty cache holding at most CAPACITY entries. */
+    LruCache(int capacity) {
+        super(INITIAL_CAPACITY, LOAD_FACTOR, true);
+        _capacity = capacity;
+    }
+
+    /** Return my maximum number of entries. */
+    int capacity() {
+        return _capacity;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+        return size() > _capacity;
+    }
+
+    /** Initial capacity of the underlying table. */
+    private static final int INITIAL_CAPACITY = 16;
+    /** Load factor of the underlying table. */
+    private static final float LOAD_FACTOR = 0.75f;
+
+    /** Maximum number of entries. */
+    private final int _capacity;
+}
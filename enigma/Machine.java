@@ -1,10 +1,9 @@
 package enigma;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashSet;
-import java.util.Set;
 import static enigma.EnigmaException.*;
+import static enigma.EnigmaException.Kind.*;
 
 /** Class that represents a complete enigma machine.
  *  @author Truong Le
@@ -16,16 +15,25 @@ class Machine {
      *  available rotors. */
     Machine(Alphabet alpha, int numRotors, int pawls,
             Collection<Rotor> allRotors) {
+        this(alpha, numRotors, pawls, new RotorRegistry(allRotors));
+    }
+
+    /** A new Enigma machine with alphabet ALPHA, 1 < NUMROTORS rotor slots,
+     *  and 0 <= PAWLS < NUMROTORS pawls, whose available rotors are those
+     *  of REGISTRY. */
+    Machine(Alphabet alpha, int numRotors, int pawls,
+            RotorRegistry registry) {
         if (numRotors <= 1) {
-            throw error("Num Rotors must be greater than 1");
+            throw error(CONFIG, "Num Rotors must be greater than 1");
         }
         if (pawls < 0 || pawls >= numRotors) {
-            throw error("Incorrect value of pawls");
+            throw error(CONFIG, "Incorrect value of pawls");
         }
         _alphabet = alpha;
         _numRotors = numRotors;
         _pawls = pawls;
-        _allRotors = allRotors;
+        _registry = registry;
+        _rotorsById = new Rotor[registry.size()];
     }
 
     /** Return the number of rotor slots I have. */
@@ -38,37 +46,70 @@ class Machine {
         return _pawls;
     }
 
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return the rotor in slot K (0 is the reflector), as set by the
+     *  last insertRotors. */
+    Rotor rotor(int k) {
+        return rotorsArr[k];
+    }
+
+    /** Return my plugboard, or null if none has been set. */
+    Permutation plugboard() {
+        return _plugboard;
+    }
+
+    /** Return the registry of my available rotors. */
+    RotorRegistry registry() {
+        return _registry;
+    }
+
     /** Set my rotor slots to the rotors named ROTORS from my set of
      *  available rotors (ROTORS[0] names the reflector).
      *  Initially, all rotors are set at their 0 setting. */
     void insertRotors(String[] rotors) {
         if (rotors.length != _numRotors) {
-            throw error("Num of rotors inserted must be equal to numRotor");
+            throw error(SETTINGS,
+                        "Num of rotors inserted must be equal to numRotor");
+        }
+        insertRotors(_registry.ids(rotors));
+    }
+
+    /** Set my rotor slots to the rotors whose ids in my registry are
+     *  IDS (IDS[0] is the reflector). */
+    void insertRotors(int[] ids) {
+        if (ids.length != _numRotors) {
+            throw error(SETTINGS,
+                        "Num of rotors inserted must be equal to numRotor");
         }
         if (_pawls < 0) {
-            throw error("Num of moving rotors must be greater/equal to 0");
+            throw error(SETTINGS,
+                        "Num of moving rotors must be greater/equal to 0");
         }
 
-        rotorsArr = new Rotor[_numRotors];
-        HashMap<String, Rotor> rotorsHashMap = new HashMap<>();
-        for (Rotor r: _allRotors) {
-            rotorsHashMap.put(r.name(), r);
+        _keyState = UNKNOWN_STATE;
+        if (!Arrays.equals(ids, _engineIds)) {
+            _engine = null;
+            _tables = null;
+            _engineIds = ids.clone();
         }
-
-        for (int i = 0; i < rotors.length; i++) {
-            if (rotorsHashMap.containsKey(rotors[i])) {
-                rotorsArr[i] = rotorsHashMap.get(rotors[i]);
-            } else {
-                throw error("Rotor's name not in list of all rotors");
+        rotorsArr = new Rotor[_numRotors];
+        for (int i = 0; i < ids.length; i++) {
+            if (_rotorsById[ids[i]] == null) {
+                _rotorsById[ids[i]] = _registry.newRotor(ids[i]);
             }
+            rotorsArr[i] = _rotorsById[ids[i]];
         }
 
         if (!rotorsArr[0].reflecting()) {
-            throw error("Leftmost rotor must be a reflector");
+            throw error(SETTINGS, "Leftmost rotor must be a reflector");
         }
         for (int i = (_numRotors - _pawls); i < _numRotors; i++) {
             if (!rotorsArr[i].rotates()) {
-                throw error("All rotors have pawl must rotate");
+                throw error(SETTINGS, "All rotors have pawl must rotate");
             }
         }
     }
@@ -77,105 +118,210 @@ class Machine {
      *  numRotors()-1 characters in my alphabet. The first letter refers
      *  to the leftmost rotor setting (not counting the reflector).  */
     void setRotors(String setting) {
-        if (setting.length() != _numRotors - 1) {
-            throw error("Setting's length must equal _numRotors - 1");
-        }
-        for (int i = 1; i < rotorsArr.length; i++) {
-            if (!_alphabet.contains(setting.charAt(i - 1))) {
-                throw error("Initial position not in alphabet");
-            }
-            rotorsArr[i].set(setting.charAt(i - 1));
-        }
+        setPositions(toIndices(setting));
     }
 
     /** Set my rotors according to RINGSETTING, which must be a string of
      *  numRotors()-1 characters in my alphabet. The first letter refers
      *  to the leftmost rotor setting (not counting the reflector).  */
     void setRingRotors(String ringSetting) {
-        if (ringSetting.length() != _numRotors - 1) {
-            throw error("Setting's length must equal _numRotors - 1");
+        setRings(toIndices(ringSetting));
+    }
+
+    /** Set the rotors in slots 1 and up to the settings POSNS[0],
+     *  POSNS[1], ..., which are indices in my alphabet. */
+    void setPositions(int[] posns) {
+        _keyState = UNKNOWN_STATE;
+        for (int i = 1; i < rotorsArr.length; i++) {
+            rotorsArr[i].set(posns[i - 1]);
         }
+    }
+
+    /** Set the ring settings of the rotors in slots 1 and up to RINGS[0],
+     *  RINGS[1], ..., which are indices in my alphabet. */
+    void setRings(int[] rings) {
+        _keyState = UNKNOWN_STATE;
         for (int i = 1; i < rotorsArr.length; i++) {
-            if (!_alphabet.contains(ringSetting.charAt(i - 1))) {
-                throw error("Initial position not in alphabet");
+            rotorsArr[i].setRing(rings[i - 1]);
+        }
+    }
+
+    /** Return the alphabet indices of the characters of SETTING, which
+     *  must be a string of numRotors()-1 characters in my alphabet. */
+    private int[] toIndices(String setting) {
+        int[] posns = setting.codePoints().toArray();
+        if (posns.length != _numRotors - 1) {
+            throw error(SETTINGS,
+                        "Setting's length must equal _numRotors - 1");
+        }
+        for (int i = 0; i < posns.length; i++) {
+            posns[i] = _alphabet.indexOf(posns[i]);
+            if (posns[i] < 0) {
+                throw error(SETTINGS, "Initial position not in alphabet");
             }
-            rotorsArr[i].setRing(ringSetting.charAt(i - 1));
         }
+        return posns;
     }
 
     /** Set the plugboard to PLUGBOARD. */
     void setPlugboard(Permutation plugboard) {
         if (plugboard.derangement()) {
-            throw error("Plugboard must contain no derangement");
+            throw error(CONFIG, "Plugboard must contain no derangement");
+        }
+        int[] cycles = plugboard.cycleLengths();
+        if (cycles.length == 0) {
+            throw error(CONFIG, "Each cycle must have max of 2 chars");
         }
-        String[] cycles = plugboard.cyclesArr();
-        for (String cycle: cycles) {
-            if (cycle.length() != 2) {
-                throw error("Each cycle must have max of 2 chars");
+        for (int length: cycles) {
+            if (length != 2) {
+                throw error(CONFIG, "Each cycle must have max of 2 chars");
             }
         }
         _plugboard = plugboard;
+        _plugTable = plugboard.forwardTable();
+        _keyState = UNKNOWN_STATE;
+    }
+
+    /** Use TABLE, when it applies, to convert characters by lookup
+     *  instead of through the rotors.  TABLE applies whenever my rotor
+     *  order, ring settings, plugboard and settings match one of its
+     *  recorded states; otherwise conversion proceeds as usual.  A null
+     *  TABLE turns lookup off. */
+    void setKeystream(KeystreamTable table) {
+        syncRotors();
+        _keystream = table;
+        _keyState = UNKNOWN_STATE;
+    }
+
+    /** Returns true iff my last conversion was by keystream table
+     *  lookup (see setKeystream). */
+    boolean keystreamActive() {
+        return _keystream != null && _keyState >= 0;
     }
 
     /** Returns the result of converting the input character C (as an
      *  index in the range 0..alphabet size - 1), after first advancing
      *  the machine. */
     int convert(int c) {
-        advRotors();
-        int ch = c % _alphabet.size();
+        if (c < 0) {
+            throw error(INTERNAL, "Character index out of range");
+        }
+        int result = convertValid(c % _alphabet.size());
+        syncRotors();
+        return result;
+    }
 
-        if (_plugboard != null) {
-            ch = _plugboard.permute(ch);
+    /** Returns the result of converting C, which must be in the range
+     *  0..alphabet size - 1, after first advancing the machine.  Nothing
+     *  is checked along the way.  While converting by keystream table
+     *  lookup, only _keyState advances: the caller must then bring my
+     *  rotors up to date with syncRotors(). */
+    private int convertValid(int c) {
+        if (_keystream != null) {
+            if (_keyState == UNKNOWN_STATE) {
+                _keyState = _keystream.find(this);
+            }
+            if (_keyState >= 0) {
+                _keyState = _keystream.next(_keyState);
+                return _keystream.convert(_keyState, c);
+            }
         }
+        _one[0] = c;
+        runEngine(_one, 1);
+        return _one[0];
+    }
 
-        for (int i = rotorsArr.length - 1; i >= 0; i--) {
-            ch = rotorsArr[i].convertForward(ch);
+    /** Return the engine that converts with my current rotor order,
+     *  selecting it if need be (see Engine.select). */
+    Engine engine() {
+        if (_engine == null) {
+            _engine = Engine.select(tables());
         }
-        for (int j = 1; j < rotorsArr.length; j++) {
-            ch = rotorsArr[j].convertBackward(ch);
+        return _engine;
+    }
+
+    /** Return the compiled tables of my current rotor order. */
+    private MachineTables tables() {
+        if (_tables == null) {
+            _tables = new MachineTables(this);
         }
+        return _tables;
+    }
 
-        if (_plugboard != null) {
-            ch = _plugboard.permute(ch);
+    /** Convert the first COUNT entries of CHARS (valid indices) in place
+     *  with my engine, starting from and updating my rotor settings. */
+    private void runEngine(int[] chars, int count) {
+        Engine engine = engine();
+        int[] posns = loadPositions();
+        for (int k = 0; k < _numRotors; k += 1) {
+            _rings[k] = rotorsArr[k].ring();
         }
+        engine.run(posns, _rings, _plugTable, chars, count);
+        storePositions(posns);
+    }
 
-        return ch;
+    /** Return my scratch settings array, filled with my rotor settings,
+     *  by slot. */
+    private int[] loadPositions() {
+        if (_posns.length != _numRotors) {
+            _posns = new int[_numRotors];
+            _rings = new int[_numRotors];
+        }
+        for (int k = 0; k < _numRotors; k += 1) {
+            _posns[k] = rotorsArr[k].setting();
+        }
+        return _posns;
+    }
+
+    /** Set my rotor settings to those of my state in my keystream table,
+     *  if I am converting by lookup (see convertValid). */
+    private void syncRotors() {
+        if (_keystream != null && _keyState >= 0) {
+            int[] posns = loadPositions();
+            _keystream.settings(_keyState, posns);
+            storePositions(posns);
+        }
+    }
+
+    /** Set the settings of my rotating rotors to POSNS, by slot. */
+    private void storePositions(int[] posns) {
+        for (int k = 1; k < _numRotors; k += 1) {
+            if (rotorsArr[k].rotates()) {
+                rotorsArr[k].set(posns[k]);
+            }
+        }
     }
 
     /** Returns the encoding/decoding of MSG, updating the state of
-     *  the rotors accordingly. */
+     *  the rotors accordingly.  MSG is validated in one pass before any
+     *  character is converted, so a message with a character outside my
+     *  alphabet leaves the rotors unmoved.  Each call is recorded as one
+     *  message in the process's Metrics. */
     String convert(String msg) {
-        String convert = "";
-        for (int i = 0; i < msg.length(); i++) {
-            int c = convert(_alphabet.toInt(msg.charAt(i)));
-            convert += _alphabet.toChar(c);
+        long start = System.nanoTime();
+        int[] chars = _alphabet.toIndices(msg);
+        if (_keystream == null) {
+            runEngine(chars, chars.length);
+        } else {
+            for (int i = 0; i < chars.length; i += 1) {
+                chars[i] = convertValid(chars[i]);
+            }
+            syncRotors();
         }
-        return convert;
+        Metrics.global().message(chars.length, System.nanoTime() - start);
+        return _alphabet.fromIndices(chars, chars.length);
     }
 
-    /** Advance all selected Rotors at Notch. */
+    /** Advance all selected Rotors at Notch.  The rightmost rotor always
+     *  advances; a rotor with a pawl also advances when it or the rotor
+     *  to its right is at a notch (see MachineTables.advances). */
     void advRotors() {
         if (_pawls == 0) {
             return;
         }
-        Set<Rotor> advanceRotors = new HashSet<>();
-        for (int i = _numRotors - _pawls; i < _numRotors; i++) {
-            if (i == _numRotors - 1) {
-                advanceRotors.add(rotorsArr[i]);
-            } else {
-                if (rotorsArr[i + 1].atNotch()) {
-                    advanceRotors.add(rotorsArr[i]);
-                }
-                if (rotorsArr[i].atNotch()
-                        && !rotorsArr[i - 1].reflecting()) {
-                    advanceRotors.add(rotorsArr[i]);
-                    advanceRotors.add(rotorsArr[i - 1]);
-                }
-            }
-        }
-        for (Rotor r: advanceRotors) {
-            r.advance();
-        }
+        int[] posns = loadPositions();
+        tables().advance(posns);
+        storePositions(posns);
     }
 
     /** Common alphabet of my rotors. */
@@ -184,10 +330,33 @@ class Machine {
     private int _numRotors;
     /** Number of pawls of the machine. */
     private int _pawls;
-    /** A collection of all Rotors in the machine. */
-    private Collection<Rotor> _allRotors;
+    /** Registry of all rotors available to the machine. */
+    private final RotorRegistry _registry;
+    /** My rotors, by registry id, created as they are first inserted. */
+    private final Rotor[] _rotorsById;
     /** The plugboard of the machine. */
     private Permutation _plugboard;
+    /** Forward table of _plugboard, or null. */
+    private int[] _plugTable;
     /** Array of rotors of the machine. */
     private Rotor[] rotorsArr;
+    /** Engine for the current rotor order, or null until needed. */
+    private Engine _engine;
+    /** Compiled tables of the current rotor order, or null until
+     *  needed. */
+    private MachineTables _tables;
+    /** Registry ids of the rotor order _engine and _tables are for. */
+    private int[] _engineIds;
+    /** Scratch rotor settings and ring settings, by slot. */
+    private int[] _posns = new int[0], _rings = new int[0];
+    /** Scratch buffer for converting one character. */
+    private final int[] _one = new int[1];
+    /** Precomputed keystream table to convert with, or null. */
+    private KeystreamTable _keystream;
+    /** My state number in _keystream, -1 if _keystream does not apply,
+     *  or UNKNOWN_STATE if not yet looked up. */
+    private int _keyState = UNKNOWN_STATE;
+
+    /** Value of _keyState before my state is looked up. */
+    private static final int UNKNOWN_STATE = -2;
 }
@@ -0,0 +1,185 @@
+package enigma;
+
+import java.util.ArrayList;
+
+import static enigma.EnigmaException.*;
+import static enigma.EnigmaException.Kind.*;
+
+/** The compiled form of a settings line: the rotors to insert, their
+ *  settings and (optionally) ring settings as alphabet indices, and the
+ *  plugboard.  Compiling a settings line validates it once; applying the
+ *  resulting key again only reinserts the rotors, resets the primitive
+ *  settings and swaps in the already-built plugboard.
+ *  @author Truong Le
+ */
+class MachineKey {
+
+    /** Set M according to SETTINGS, a settings line in the format
+     *  specified in the assignment, and return the compiled key, which
+     *  reproduces the same setup when applied to M. */
+    static MachineKey compile(Machine M, String settings) {
+        ArrayList<String> tokens = tokenize(settings);
+        if (tokens.isEmpty()) {
+            throw error(SETTINGS, "No settings found!");
+        } else if (!tokens.get(0).equals("*")) {
+            throw error(SETTINGS, "Wrong format for settings");
+        }
+
+        int n = M.numRotors();
+        if (tokens.size() < n + 1) {
+            throw error(SETTINGS, "Wrong format for settings");
+        }
+        String[] rotors = tokens.subList(1, n + 1).toArray(new String[0]);
+        for (int i = 0; i < n; i += 1) {
+            for (int j = 0; j < i; j += 1) {
+                if (rotors[i].equals(rotors[j])) {
+                    throw error(SETTINGS, "Settings contains repeated rotors");
+                }
+            }
+        }
+        int[] ids = M.registry().ids(rotors);
+        M.insertRotors(ids);
+
+        int next = n + 1;
+        if (next < tokens.size() && isWord(tokens.get(next), n - 1)) {
+            M.setRotors(tokens.get(next));
+            next += 1;
+        } else {
+            throw error(SETTINGS, "No setting found for current config.");
+        }
+
+        boolean ringsGiven = false;
+        if (next < tokens.size() && isWord(tokens.get(next), n - 1)) {
+            M.setRingRotors(tokens.get(next));
+            ringsGiven = true;
+            next += 1;
+        }
+
+        Permutation plugboard = null;
+        if (next < tokens.size()) {
+            StringBuilder cycles = new StringBuilder();
+            while (next < tokens.size() && isCycle(tokens.get(next))) {
+                cycles.append(tokens.get(next)).append(' ');
+                next += 1;
+            }
+            plugboard = Permutation.intern(cycles.toString(), M.alphabet());
+            M.setPlugboard(plugboard);
+        }
+
+        int[] posns = new int[n - 1], rings = new int[n - 1];
+        for (int k = 1; k < n; k += 1) {
+            posns[k - 1] = M.rotor(k).setting();
+            rings[k - 1] = M.rotor(k).ring();
+        }
+        return new MachineKey(ids, posns, ringsGiven ? rings : null,
+                              plugboard);
+    }
+
+    /** A key that inserts the rotors whose registry ids are ROTORS, sets
+     *  them to POSNS and, if it is not null, rings RINGS, and sets the
+     *  plugboard to PLUGBOARD if it is not null. */
+    MachineKey(int[] rotors, int[] posns, int[] rings,
+               Permutation plugboard) {
+        _rotors = rotors;
+        _posns = posns;
+        _rings = rings;
+        _plugboard = plugboard;
+    }
+
+    /** Set M up according to this key. */
+    void apply(Machine M) {
+        M.insertRotors(_rotors);
+        M.setPositions(_posns);
+        if (_rings != null) {
+            M.setRings(_rings);
+        }
+        if (_plugboard != null) {
+            M.setPlugboard(_plugboard);
+        }
+    }
+
+    /** Return the registry ids of the rotors of this key, reflector
+     *  first. */
+    int[] rotors() {
+        return _rotors;
+    }
+
+    /** Return the settings of slots 1 and up. */
+    int[] positions() {
+        return _posns;
+    }
+
+    /** Return the ring settings of slots 1 and up, or null if this key
+     *  leaves them unchanged. */
+    int[] rings() {
+        return _rings;
+    }
+
+    /** Return the plugboard, or null if this key leaves it unchanged. */
+    Permutation plugboard() {
+        return _plugboard;
+    }
+
+    /** Return the whitespace-separated tokens of LINE. */
+    static ArrayList<String> tokenize(String line) {
+        ArrayList<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i < line.length(); i += 1) {
+            if (Character.isWhitespace(line.charAt(i))) {
+                if (start >= 0) {
+                    tokens.add(line.substring(start, i));
+                    start = -1;
+                }
+            } else if (start < 0) {
+                start = i;
+            }
+        }
+        if (start >= 0) {
+            tokens.add(line.substring(start));
+        }
+        return tokens;
+    }
+
+    /** Return true iff TOKEN consists of at least MIN word characters
+     *  and nothing else. */
+    private static boolean isWord(String token, int min) {
+        return token.codePointCount(0, token.length()) >= Math.max(min, 1)
+            && token.codePoints().allMatch(MachineKey::isWordChar);
+    }
+
+    /** Return true iff TOKEN is "(", one or more word characters, and
+     *  ")". */
+    private static boolean isCycle(String token) {
+        int last = token.length() - 1;
+        return last >= 2 && token.charAt(0) == '('
+            && token.charAt(last) == ')'
+            && isWord(token.substring(1, last), 1);
+    }
+
+    /** Return true iff C is a word character in the sense of a Unicode
+     *  regular expression \w. */
+    private static boolean isWordChar(int c) {
+        switch (Character.getType(c)) {
+        case Character.NON_SPACING_MARK:
+        case Character.ENCLOSING_MARK:
+        case Character.COMBINING_SPACING_MARK:
+        case Character.DECIMAL_DIGIT_NUMBER:
+        case Character.CONNECTOR_PUNCTUATION:
+            return true;
+        default:
+            return Character.isAlphabetic(c) || c == ZWNJ || c == ZWJ;
+        }
+    }
+
+    /** The Unicode join-control characters. */
+    private static final int ZWNJ = 0x200c, ZWJ = 0x200d;
+
+    /** Registry ids of the rotors to insert. */
+    private final int[] _rotors;
+    /** Settings of slots 1 and up. */
+    private final int[] _posns;
+    /** Ring settings of slots 1 and up, or null. */
+    private final int[] _rings;
+    /** The plugboard, or null. */
+    private final Permutation _plugboard;
+}
@@ -0,0 +1,167 @@
+package enigma;
+
+import java.util.NoSuchElementException;
+import java.util.Scanner;
+import java.util.regex.Pattern;
+
+import static enigma.EnigmaException.*;
+import static enigma.EnigmaException.Kind.*;
+
+/** A configuration, read and indexed once: its alphabet, its numbers of
+ *  rotor slots and pawls, and the registry of its rotors.  Any number of
+ *  independent machines may be built from one MachineSpec; they share its
+ *  compiled rotor permutations but not their settings.  The permutations
+ *  are interned, so configurations that describe the same rotor share one
+ *  copy of it as well.
+ *  @author Truong Le
+ */
+class MachineSpec {
+
+    /** Return the configuration read from CONFIG, in the format specified
+     *  in the assignment (or a byte configuration; see BinaryConverter).
+     *  Each read is recorded as a ConfigLoad event (see EnigmaEvents). */
+    static MachineSpec read(Scanner config) {
+        EnigmaEvents.ConfigLoad event = new EnigmaEvents.ConfigLoad();
+        event.begin();
+        MachineSpec spec = parse(config);
+        event.end();
+        if (event.shouldCommit()) {
+            event.rotors = spec.registry().size();
+            event.slots = spec.numRotors();
+            event.alphabetSize = spec.alphabet().size();
+            event.commit();
+        }
+        return spec;
+    }
+
+    /** Return the configuration read from CONFIG, as for read(). */
+    private static MachineSpec parse(Scanner config) {
+        try {
+            String alphabet = config.nextLine();
+            boolean bytes = alphabet.trim().equals(BinaryConverter.BYTES);
+            Alphabet alpha;
+            if (bytes) {
+                alphabet = "";
+                alpha = BinaryConverter.byteAlphabet();
+            } else {
+                alpha = new Alphabet(alphabet);
+            }
+            if (alphabet.contains("*") || alphabet.contains("(")
+                    || alphabet.contains(")") || alphabet.contains(" ")) {
+                throw error(CONFIG, "Wrong Format For Config");
+            }
+
+            if (!config.hasNextInt()) {
+                throw error(CONFIG, "Wrong Format For Config");
+            }
+            int numRotors = config.nextInt();
+
+            if (!config.hasNextInt()) {
+                throw error(CONFIG, "Wrong Format For Config");
+            }
+            int numPawls = config.nextInt();
+
+            RotorRegistry registry = new RotorRegistry(bytes
+                ? cycles -> BinaryConverter.permutation(cycles, alpha)
+                : cycles -> Permutation.intern(cycles, alpha));
+            while (config.hasNext()) {
+                readRotor(config, registry, bytes);
+            }
+
+            MachineSpec spec =
+                new MachineSpec(alpha, numRotors, numPawls, registry, bytes);
+            spec.newMachine();
+            return spec;
+        } catch (NoSuchElementException excp) {
+            throw error(CONFIG, "configuration file truncated");
+        }
+    }
+
+    /** Read a rotor description from CONFIG and add it to REGISTRY, where
+     *  BYTES indicates a byte configuration.  Its permutation is compiled
+     *  when the rotor is first used. */
+    private static void readRotor(Scanner config, RotorRegistry registry,
+                                  boolean bytes) {
+        try {
+            String name = "", notches = "", cycles = "", cycleChecker;
+            if (config.hasNext()) {
+                name = config.next();
+            }
+            if (config.hasNext()) {
+                notches = config.next();
+            } else {
+                throw error(CONFIG, "Lack Info for this Rotor");
+            }
+
+            while (config.hasNext(CYCLE)) {
+                cycleChecker = config.next();
+                cycles += cycleChecker + " ";
+            }
+
+            String notchChars = notches.substring(1);
+            if (bytes) {
+                notchChars = BinaryConverter.decode(notchChars);
+            }
+            registry.add(name, notches.charAt(0), notchChars, cycles);
+        } catch (NoSuchElementException excp) {
+            throw error(CONFIG, "bad rotor description");
+        }
+    }
+
+    /** A configuration with alphabet ALPHABET, NUMROTORS slots, PAWLS
+     *  pawls and rotors REGISTRY.  BYTES is true for a byte
+     *  configuration. */
+    MachineSpec(Alphabet alphabet, int numRotors, int pawls,
+                RotorRegistry registry, boolean bytes) {
+        _alphabet = alphabet;
+        _numRotors = numRotors;
+        _pawls = pawls;
+        _registry = registry;
+        _bytes = bytes;
+    }
+
+    /** Return a new machine for this configuration, with no rotors
+     *  inserted. */
+    Machine newMachine() {
+        return new Machine(_alphabet, _numRotors, _pawls, _registry);
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return my number of rotor slots. */
+    int numRotors() {
+        return _numRotors;
+    }
+
+    /** Return my number of pawls. */
+    int numPawls() {
+        return _pawls;
+    }
+
+    /** Return my rotors. */
+    RotorRegistry registry() {
+        return _registry;
+    }
+
+    /** Return true iff I am a byte configuration. */
+    boolean bytes() {
+        return _bytes;
+    }
+
+    /** A cycle token in a rotor description. */
+    private static final Pattern CYCLE = Pattern.compile("\\s*[(].+[)]\\s*");
+
+    /** The alphabet. */
+    private final Alphabet _alphabet;
+    /** Number of rotor slots. */
+    private final int _numRotors;
+    /** Number of pawls. */
+    private final int _pawls;
+    /** All rotors. */
+    private final RotorRegistry _registry;
+    /** True for a byte configuration. */
+    private final boolean _bytes;
+}
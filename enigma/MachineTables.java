@@ -0,0 +1,232 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+import static enigma.EnigmaException.Kind.*;
+
+/** The compiled form of the rotors currently inserted in a Machine: one
+ *  forward and one inverse lookup table per slot, plus notch and ratchet
+ *  flags.  A MachineTables holds no rotor positions, so one instance may
+ *  drive any number of machine states that share a rotor order.
+ *
+ *  For the conversion loop, the tables are also packed into one array in
+ *  the order a character visits them: the forward tables from the last
+ *  slot to the reflector, then the inverse tables back from slot 1.
+ *  Entries are bytes for alphabets of at most 256 characters, shorts for
+ *  at most 65536, and ints otherwise, so the tables of a naval machine
+ *  take 234 contiguous bytes.
+ *  @author Truong Le
+ */
+class MachineTables {
+
+    /** Compile the rotors currently inserted in M. */
+    MachineTables(Machine M) {
+        _numRotors = M.numRotors();
+        _pawls = M.numPawls();
+        _forward = new int[_numRotors][];
+        _backward = new int[_numRotors][];
+        _notches = new boolean[_numRotors][];
+        _rotates = new boolean[_numRotors];
+        _reflecting = new boolean[_numRotors];
+        _names = new String[_numRotors];
+        for (int k = 0; k < _numRotors; k += 1) {
+            Rotor r = M.rotor(k);
+            if (r == null) {
+                throw error(INTERNAL, "No rotors inserted");
+            }
+            _size = r.size();
+            _names[k] = r.name();
+            _forward[k] = r.permutation().forwardTable();
+            _backward[k] = r.permutation().inverseTable();
+            _rotates[k] = r.rotates();
+            _reflecting[k] = r.reflecting();
+            _notches[k] = new boolean[_size];
+            for (int p = 0; p < _size; p += 1) {
+                _notches[k][p] = r.notchAt(p);
+            }
+        }
+        pack();
+    }
+
+    /** Fill in the packed tables and the slot of each stage. */
+    private void pack() {
+        int stages = 2 * _numRotors - 1, n = _size;
+        _stageSlots = new int[stages];
+        int[][] tables = new int[stages][];
+        for (int s = 0; s < stages; s += 1) {
+            int k = s < _numRotors ? _numRotors - 1 - s : s - _numRotors + 1;
+            _stageSlots[s] = k;
+            tables[s] = s < _numRotors ? _forward[k] : _backward[k];
+        }
+        if (n <= BYTE_LIMIT) {
+            _bytes = new byte[stages * n];
+        } else if (n <= SHORT_LIMIT) {
+            _shorts = new short[stages * n];
+        } else {
+            _ints = new int[stages * n];
+        }
+        for (int s = 0; s < stages; s += 1) {
+            for (int c = 0; c < n; c += 1) {
+                int i = s * n + c, v = tables[s][c];
+                if (_bytes != null) {
+                    _bytes[i] = (byte) v;
+                } else if (_shorts != null) {
+                    _shorts[i] = (short) v;
+                } else {
+                    _ints[i] = v;
+                }
+            }
+        }
+    }
+
+    /** Return the size of my alphabet. */
+    int size() {
+        return _size;
+    }
+
+    /** Return my number of rotor slots. */
+    int numRotors() {
+        return _numRotors;
+    }
+
+    /** Return my number of pawls. */
+    int numPawls() {
+        return _pawls;
+    }
+
+    /** Return the name of the rotor in slot K. */
+    String name(int k) {
+        return _names[k];
+    }
+
+    /** Return the forward table of the rotor in slot K. */
+    int[] forward(int k) {
+        return _forward[k];
+    }
+
+    /** Return the inverse table of the rotor in slot K. */
+    int[] backward(int k) {
+        return _backward[k];
+    }
+
+    /** Return the notch flags, indexed by setting, of the rotor in
+     *  slot K. */
+    boolean[] notches(int k) {
+        return _notches[k];
+    }
+
+    /** Return the packed tables if their entries are bytes (see the
+     *  class comment), or null.  Stage #S starts at S * size(). */
+    byte[] packedBytes() {
+        return _bytes;
+    }
+
+    /** Return true iff the rotor in slot K has a ratchet. */
+    boolean rotates(int k) {
+        return _rotates[k];
+    }
+
+    /** Return true iff the rotor in slot K is a reflector. */
+    boolean reflecting(int k) {
+        return _reflecting[k];
+    }
+
+    /** Advance the rotor settings in POSNS (indexed by slot) exactly as
+     *  Machine.advRotors advances its rotors. */
+    void advance(int[] posns) {
+        if (_pawls == 0) {
+            return;
+        }
+        int first = _numRotors - _pawls, last = _numRotors - 1;
+        boolean here = false;
+        for (int k = first - 1; k <= last; k += 1) {
+            boolean next = k < last && _notches[k + 1][posns[k + 1]];
+            if (advances(k, here, next) && _rotates[k]) {
+                posns[k] = posns[k] + 1 == _size ? 0 : posns[k] + 1;
+            }
+            here = next;
+        }
+    }
+
+    /** Return true iff the stepping rule advances slot K, given whether
+     *  slot K (HERE) and slot K + 1 (NEXT) were at a notch before the
+     *  step.  Only slots numRotors() - numPawls() - 1 and above may
+     *  advance.  A rotor at a notch advances itself only if the rotor to
+     *  its left is not a reflector. */
+    boolean advances(int k, boolean here, boolean next) {
+        int first = _numRotors - _pawls, last = _numRotors - 1;
+        return k == last
+            || (k >= first && (next || (here && !_reflecting[k - 1])))
+            || (k + 1 < last && next && !_reflecting[k]);
+    }
+
+    /** Return the conversion of C by the rotors alone (no plugboard),
+     *  where OFFSETS[k] is the setting less the ring setting, modulo
+     *  size(), of slot K. */
+    int substitute(int c, int[] offsets) {
+        int n = _size, stages = _stageSlots.length;
+        int[] slots = _stageSlots;
+        if (_bytes != null) {
+            byte[] t = _bytes;
+            for (int s = 0, base = 0; s < stages; s += 1, base += n) {
+                int d = offsets[slots[s]];
+                c = shift(t[base + shift(c, d)] & BYTE_MASK, n - d);
+            }
+        } else if (_shorts != null) {
+            short[] t = _shorts;
+            for (int s = 0, base = 0; s < stages; s += 1, base += n) {
+                int d = offsets[slots[s]];
+                c = shift(t[base + shift(c, d)] & SHORT_MASK, n - d);
+            }
+        } else {
+            int[] t = _ints;
+            for (int s = 0, base = 0; s < stages; s += 1, base += n) {
+                int d = offsets[slots[s]];
+                c = shift(t[base + shift(c, d)], n - d);
+            }
+        }
+        return c;
+    }
+
+    /** Return C + D modulo size(), where 0 <= C, D <= size(). */
+    int shift(int c, int d) {
+        int r = c + d;
+        return r >= _size ? r - _size : r;
+    }
+
+    /** Largest alphabet whose packed entries are bytes. */
+    private static final int BYTE_LIMIT = 1 << Byte.SIZE;
+    /** Largest alphabet whose packed entries are shorts. */
+    private static final int SHORT_LIMIT = 1 << Short.SIZE;
+    /** Mask recovering an unsigned byte entry. */
+    private static final int BYTE_MASK = BYTE_LIMIT - 1;
+    /** Mask recovering an unsigned short entry. */
+    private static final int SHORT_MASK = SHORT_LIMIT - 1;
+
+    /** Size of the alphabet. */
+    private int _size;
+    /** Number of rotor slots. */
+    private final int _numRotors;
+    /** Number of pawls. */
+    private final int _pawls;
+    /** Forward lookup table for each slot. */
+    private final int[][] _forward;
+    /** Inverse lookup table for each slot. */
+    private final int[][] _backward;
+    /** Notch flags for each slot, indexed by setting. */
+    private final boolean[][] _notches;
+    /** Ratchet flag for each slot. */
+    private final boolean[] _rotates;
+    /** Reflector flag for each slot. */
+    private final boolean[] _reflecting;
+    /** Rotor name for each slot. */
+    private final String[] _names;
+    /** The slot of each stage of the packed tables. */
+    private int[] _stageSlots;
+    /** Packed tables with byte, short or int entries; exactly one of
+     *  these is not null. */
+    private byte[] _bytes;
+    /** See _bytes. */
+    private short[] _shorts;
+    /** See _bytes. */
+    private int[] _ints;
+}
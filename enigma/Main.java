@@ -1,18 +1,37 @@
 package enigma;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
-import java.util.NoSuchElementException;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Scanner;
-
-import java.util.regex.Pattern;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static enigma.EnigmaException.*;
+import static enigma.EnigmaException.Kind.*;
 
 /** Enigma simulator.
  *  @author Truong Le
@@ -27,12 +46,108 @@ public final class Main {
      *  input.  ARGS[2] is optional; when present, it names an output
      *  file for processed messages.  Otherwise, output goes to the
      *  standard output. Exits normally if there are no errors in the input;
-     *  otherwise with code 1. */
+     *  otherwise with code 1.
+     *
+     *  ARGS may begin with options of the form --NAME or --NAME=VALUE:
+     *    --keystream=FILE  converts by lookup in the keystream table FILE
+     *                      wherever the table applies.
+     *    --build-keystream=FILE  instead of converting, writes to FILE the
+     *                      keystream table for the first settings line of
+     *                      the input.
+     *    --binary=SETTINGS  converts the binary file ARGS[1] into ARGS[2]
+     *                      (both required) with a machine over the byte
+     *                      alphabet, set up by the settings line SETTINGS
+     *                      (see BinaryConverter).
+     *    --debug  reports on the standard error the conversion engine
+     *                      selected for each settings line (see Engine).
+     *    --checkpoint[=N]  with --binary, records progress every N bytes
+     *                      (64 MiB by default) in the sidecar file
+     *                      ARGS[2].ckpt, which is removed once the whole
+     *                      input has been converted (see Checkpoint).
+     *    --resume  with --binary, continues an interrupted conversion from
+     *                      the checkpoint in ARGS[2].ckpt.  The output is
+     *                      the same as that of an uninterrupted run.
+     *    --search=[ADDRESS:]PORT  instead of converting, coordinates a key
+     *                      search by workers connecting to PORT (on the
+     *                      loopback address unless ADDRESS is given).  The
+     *                      first line of the input is the crib and the rest
+     *                      the ciphertext; the settings lines of all keys
+     *                      that decrypt the ciphertext into text containing
+     *                      the crib are written to the output (see
+     *                      KeySearch and SearchCoordinator).
+     *    --local-workers=N  with --search, also starts N worker processes
+     *                      on this host.
+     *    --work=HOST:PORT  runs a key search worker for the coordinator at
+     *                      HOST:PORT; takes no other arguments.
+     *    --batch=PATTERN  converts every input file selected by PATTERN
+     *                      (a directory, for all its .in files, or a glob
+     *                      such as dir/*.in) concurrently, writing each
+     *                      FILE.in to FILE.out, with the configuration
+     *                      read once from ARGS[0].  A summary of the files
+     *                      converted, with timings and errors, goes to
+     *                      the file ARGS[1] if given, or else to the
+     *                      standard output; exits with code 1 if any file
+     *                      failed.
+     *    --cache[=N]  reuses the output of a section (a settings line and
+     *                      its messages) when the same section appears
+     *                      again, keeping up to N MiB (64 by default) of
+     *                      results, shared by all files of a batch; a
+     *                      report of the cache's use goes to the standard
+     *                      error at the end (see ResultCache).
+     *    --parallel[=N]  converts the input file ARGS[1] (required) with N
+     *                      threads (one per processor by default): the
+     *                      file is memory-mapped and cut into chunks at
+     *                      settings lines, which are converted at once
+     *                      and written in order.  The output is the same
+     *                      as without this option (see MappedSections and
+     *                      SettingsHistory).
+     *    --build-index=FILE  instead of converting, writes to FILE an index
+     *                      of the sections of the input file ARGS[1]
+     *                      (required), from which any section can be
+     *                      decrypted on its own (see SectionIndex).
+     *    --index=FILE  with --section=N, converts only section N (counting
+     *                      from 1) of the input file ARGS[1] (required),
+     *                      found through the index FILE written by
+     *                      --build-index.  The output is the same as that
+     *                      section's part of the output without these
+     *                      options.
+     *    --verify  with --index, first checks the CRC-32C of the whole
+     *                      input file against the index, which takes
+     *                      time proportional to its size; without it,
+     *                      only the file's size, modification time and
+     *                      ends and the section's settings line are
+     *                      checked (see SectionIndex).
+     *    --compressed  decompresses the files ARGS[1] whose names end in
+     *                      .gz (gzip) or .zz (zlib) as they are read, and
+     *                      compresses the output file ARGS[2] with gzip if
+     *                      its name ends in .gz, with worker threads, in
+     *                      text and binary modes (see Compression).
+     *    --periods  instead of converting, analyses the stepping of
+     *                      every rotor order of the configuration: its
+     *                      periods, and how many settings are reached by
+     *                      stepping and how many are never reached (only
+     *                      set up).  The report goes to the file ARGS[1]
+     *                      if given, or else to the standard output; with
+     *                      --debug, it lists the settings never reached
+     *                      (see PeriodAnalysis).
+     *    --watch  with --batch, rereads the configuration whenever ARGS[0]
+     *                      changes; files started after a reload use the
+     *                      new configuration, and files in progress finish
+     *                      with the old one (see ConfigWatcher).
+     *    --edit=FILE  instead of converting, re-encrypts an edited
+     *                      message: the input is a settings line followed
+     *                      by the lines of the original ciphertext, and
+     *                      FILE holds one edit of the plaintext per line,
+     *                      in order, as "OFFSET LENGTH [TEXT]" (replace
+     *                      the LENGTH characters at OFFSET by TEXT).  The
+     *                      new ciphertext is written as one line (see
+     *                      MessageEditor). */
     public static void main(String... args) {
         try {
-            new Main(args).process();
+            new Main(args).run();
             return;
         } catch (EnigmaException excp) {
+            Metrics.global().reportError(excp);
             System.err.printf("Error: %s%n", excp.getMessage());
         }
         System.exit(1);
@@ -40,226 +155,1052 @@ public final class Main {
 
     /** Check ARGS and open the necessary files (see comment on main). */
     Main(String[] args) {
+        int first;
+        for (first = 0; first < args.length; first += 1) {
+            if (!args[first].startsWith("--")) {
+                break;
+            }
+            String option = args[first].substring(2);
+            int eq = option.indexOf('=');
+            String name = eq < 0 ? option : option.substring(0, eq);
+            if (!Arrays.asList(OPTIONS).contains(name)) {
+                throw error(USAGE, "unknown option --%s", name);
+            }
+            _options.put(name, eq < 0 ? "" : option.substring(eq + 1));
+        }
+        args = Arrays.copyOfRange(args, first, args.length);
+
+        if (_options.containsKey("work")) {
+            if (args.length != 0) {
+                throw error(USAGE, "--work takes no other arguments");
+            }
+            return;
+        }
+
         if (args.length < 1 || args.length > 3) {
-            throw error("Only 1, 2, or 3 command-line arguments allowed");
+            throw error(USAGE,
+                        "Only 1, 2, or 3 command-line arguments allowed");
         }
 
+        _configName = args[0];
         _config = getInput(args[0]);
 
-        if (args.length > 1) {
+        if (_options.containsKey("batch")
+            || _options.containsKey("periods")) {
+            if (args.length > 2) {
+                throw error(USAGE,
+                            "--%s allows only configuration and "
+                            + "output files",
+                            _options.containsKey("batch") ? "batch"
+                            : "periods");
+            }
+            _output = args.length > 1 ? getOutput(args[1])
+                : new PrintStream(System.out, true, StandardCharsets.UTF_8);
+            return;
+        }
+
+        if (_options.containsKey("binary")) {
+            if (args.length != 3) {
+                throw error(USAGE, "--binary requires input and output files");
+            }
+            _inputName = args[1];
+            _outputName = args[2];
+            return;
+        }
+
+        String mapped = null;
+        for (String option : MAPPED_INPUT) {
+            if (_options.containsKey(option)) {
+                mapped = option;
+            }
+        }
+        if (mapped != null) {
+            if (args.length < 2) {
+                throw error(USAGE, "--%s requires an input file", mapped);
+            } else if (compressed(args[1])) {
+                throw error(USAGE,
+                            "--%s cannot read compressed input", mapped);
+            }
+            _inputName = args[1];
+        } else if (args.length > 1) {
             _input = getInput(args[1]);
         } else {
-            _input = new Scanner(System.in);
+            _input = new Scanner(System.in, StandardCharsets.UTF_8);
         }
 
         if (args.length > 2) {
             _output = getOutput(args[2]);
         } else {
-            _output = System.out;
+            _output = new PrintStream(System.out, true,
+                                      StandardCharsets.UTF_8);
         }
     }
 
-    /** Return a Scanner reading from the file named NAME. */
+    /** A Main that converts the messages in INPUT with machines built from
+     *  SPEC, writing the results to OUTPUT, with options OPTIONS and result
+     *  cache CACHE, which may be null (used for each file of a batch). */
+    private Main(MachineSpec spec, Scanner input, PrintStream output,
+                 HashMap<String, String> options, ResultCache cache) {
+        _spec = spec;
+        _cache = cache;
+        _input = input;
+        _output = output;
+        _options = options;
+    }
+
+    /** Return a Scanner reading from the file named NAME, which is
+     *  encoded in UTF-8. */
     private Scanner getInput(String name) {
+        if (compressed(name)) {
+            return new Scanner(Compression.input(new File(name), threads()),
+                               StandardCharsets.UTF_8);
+        }
         try {
-            return new Scanner(new File(name));
+            return new Scanner(new File(name), StandardCharsets.UTF_8);
         } catch (IOException excp) {
-            throw error("could not open %s", name);
+            throw error(IO, "could not open %s", name);
         }
     }
 
-    /** Return a PrintStream writing to the file named NAME. */
+    /** Return a PrintStream writing UTF-8 to the file named NAME. */
     private PrintStream getOutput(String name) {
+        if (compressed(name)) {
+            _closeOutput = true;
+            return new PrintStream(Compression.output(new File(name),
+                                                      threads()),
+                                   false, StandardCharsets.UTF_8);
+        }
         try {
-            return new PrintStream(new File(name));
+            return new PrintStream(new File(name), StandardCharsets.UTF_8);
         } catch (IOException excp) {
-            throw error("could not open %s", name);
+            throw error(IO, "could not open %s", name);
         }
     }
 
-    /** Configure an Enigma machine from the contents of configuration
-     *  file _config and apply it to the messages in _input, sending the
-     *  results to _output. */
-    private void process() {
+    /** Return true iff the file named NAME is to be read or written
+     *  compressed, under my options. */
+    private boolean compressed(String name) {
+        return _options.containsKey("compressed")
+            && Compression.compressed(name);
+    }
+
+    /** Return the number of threads used to compress or decompress. */
+    private static int threads() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /** Perform the action selected by my options (see runAction), and
+     *  then complete a compressed output file, even after an error. */
+    private void run() {
+        try {
+            runAction();
+        } finally {
+            if (_closeOutput) {
+                _output.close();
+            }
+        }
+    }
+
+    /** Perform the action selected by my options: by default, process().
+     *  The long-running modes publish their metrics through JMX (see
+     *  Metrics). */
+    private void runAction() {
+        for (String option : LONG_RUNNING) {
+            if (_options.containsKey(option)) {
+                Metrics.register();
+            }
+        }
+        if (_options.containsKey("cache")) {
+            String size = _options.get("cache");
+            _cache = new ResultCache(
+                (size.isEmpty() ? DEFAULT_CACHE_MIB : parseNumber(size))
+                * MIB);
+        }
+        if (_options.containsKey("build-keystream")) {
+            buildKeystream(new File(_options.get("build-keystream")));
+        } else if (_options.containsKey("build-index")) {
+            readConfig();
+            SectionIndex.write(_spec, new File(_inputName),
+                               new File(_options.get("build-index")));
+        } else if (_options.containsKey("index")) {
+            if (!_options.containsKey("section")) {
+                throw error(USAGE, "--index requires --section");
+            }
+            printSection(_options.get("index"), _options.get("section"));
+        } else if (_options.containsKey("periods")) {
+            printPeriods();
+        } else if (_options.containsKey("work")) {
+            String[] address = hostAndPort(_options.get("work"));
+            new SearchWorker(address[0], parseNumber(address[1])).run();
+        } else if (_options.containsKey("search")) {
+            search(_options.get("search"));
+        } else if (_options.containsKey("edit")) {
+            processEdits(_options.get("edit"));
+        } else if (_options.containsKey("batch")) {
+            processBatch(_options.get("batch"));
+        } else if (_options.containsKey("binary")) {
+            processBinary(_options.get("binary"));
+        } else if (_options.containsKey("parallel")) {
+            processParallel(_options.get("parallel"));
+        } else {
+            process();
+        }
+        if (_cache != null) {
+            System.err.println(_cache.summary());
+        }
+    }
+
+    /** Configure an Enigma machine from _config, set it up according to
+     *  the first settings line of _input, and write its keystream table
+     *  to FILE. */
+    private void buildKeystream(File file) {
         Machine enigma = readConfig();
-        String setting, line, decode;
-        if (!_input.hasNext()) {
+        if (!_input.hasNextLine()) {
             throw error("Input file is empty. Cannot read!");
         }
+        setUp(enigma, _input.nextLine());
+        KeystreamTable.write(enigma, file);
+    }
 
-        line = _input.nextLine();
-        if (!line.contains("*")) {
-            throw error("No setting/rotor. Or wrong format for setting");
+    /** Coordinate a key search over the configuration in file
+     *  _configName for the crib and ciphertext in _input, accepting
+     *  workers at ADDRESS ("[HOST:]PORT"), and print the hits to
+     *  _output. */
+    private void search(String address) {
+        String config;
+        try {
+            config = new String(Files.readAllBytes(Paths.get(_configName)),
+                                StandardCharsets.UTF_8);
+        } catch (IOException excp) {
+            throw error(IO, "could not open %s", _configName);
         }
-
+        if (!_input.hasNextLine()) {
+            throw error("Input file is empty. Cannot read!");
+        }
+        String crib = _input.nextLine();
+        StringBuilder ciphertext = new StringBuilder();
         while (_input.hasNextLine()) {
-            setting = line;
-            if (!setting.contains("*")) {
-                throw error("Wrong config. Must have * as setting");
-            }
-            setUp(enigma, setting);
+            ciphertext.append(_input.nextLine()).append('\n');
+        }
 
-            line = _input.nextLine();
+        SearchCoordinator coordinator = new SearchCoordinator(
+            config, ciphertext.toString(), crib, SEARCH_CHUNK);
+        int port;
+        if (address.contains(":")) {
+            String[] hostPort = hostAndPort(address);
+            try {
+                port = coordinator.start(parseNumber(hostPort[1]),
+                                         InetAddress.getByName(hostPort[0]));
+            } catch (UnknownHostException excp) {
+                throw error(IO, "unknown host %s", hostPort[0]);
+            }
+        } else {
+            port = coordinator.start(parseNumber(address));
+        }
 
-            while (!line.contains("*")) {
-                decode = enigma.convert(line.replaceAll(" ", ""));
-                if (line.isEmpty()) {
-                    _output.println();
-                } else {
-                    printMessageLine(decode);
-                }
+        ArrayList<Process> workers = new ArrayList<>();
+        int numLocal = _options.containsKey("local-workers")
+            ? parseNumber(_options.get("local-workers")) : 0;
+        String java = Paths.get(System.getProperty("java.home"), "bin",
+                                "java").toString();
+        for (int i = 0; i < numLocal; i += 1) {
+            try {
+                workers.add(new ProcessBuilder(
+                    java, "-cp", System.getProperty("java.class.path"),
+                    "enigma.Main", "--work=localhost:" + port)
+                    .inheritIO().start());
+            } catch (IOException excp) {
+                throw error(IO, "could not start worker process");
+            }
+        }
 
-                if (_input.hasNext()) {
-                    line = _input.nextLine();
-                } else {
-                    line = "*";
-                }
+        for (String hit : coordinator.await()) {
+            _output.println(hit);
+        }
+        for (Process worker : workers) {
+            try {
+                worker.waitFor();
+            } catch (InterruptedException excp) {
+                worker.destroy();
             }
         }
     }
 
-    /** Return an Enigma machine configured from the contents of configuration
-     *  file _config. */
-    private Machine readConfig() {
+    /** Return the host and port parts of ADDRESS, "HOST:PORT". */
+    private static String[] hostAndPort(String address) {
+        int colon = address.lastIndexOf(':');
+        if (colon < 0) {
+            throw error(USAGE, "address must have the form HOST:PORT");
+        }
+        return new String[] {
+            address.substring(0, colon), address.substring(colon + 1)
+        };
+    }
+
+    /** Return the non-negative number written in TEXT. */
+    private static int parseNumber(String text) {
         try {
-            String alphabet = _config.nextLine();
-            _alphabet = new Alphabet(alphabet);
-            if (alphabet.contains("*") || alphabet.contains("(")
-                    || alphabet.contains(")") || alphabet.contains(" ")) {
-                throw error("Wrong Format For Config");
+            int result = Integer.parseInt(text);
+            if (result >= 0) {
+                return result;
             }
+        } catch (NumberFormatException excp) {
+            /* Fall through. */
+        }
+        throw error(USAGE, "bad number: %s", text);
+    }
 
-            if (!_config.hasNextInt()) {
-                throw error("Wrong Format For Config");
+    /** Print the conversion of section number SECTION (counting from 1)
+     *  of the input file _inputName, as process() would print it, finding
+     *  it through the section index in the file named INDEX, checked
+     *  against the whole file first with --verify. */
+    private void printSection(String index, String section) {
+        readConfig();
+        SectionIndex sections =
+            SectionIndex.map(new File(index), new File(_inputName));
+        if (_options.containsKey("verify")) {
+            sections.verify();
+        }
+        long s = parseNumber(section) - 1L;
+        if (s < 0 || s >= sections.sections()) {
+            throw error(USAGE, "no section %s in %s", section, _inputName);
+        }
+        SectionIndex.View view = sections.view(_spec, s);
+        long first = sections.firstLine(s),
+            last = first + sections.lineCount(s);
+        for (long j = first; j < last; j += 1) {
+            if (sections.text(j).isEmpty()) {
+                _output.print(System.lineSeparator());
+                continue;
             }
-            int numRotors = _config.nextInt();
+            int start = (int) sections.charOffset(j),
+                end = j + 1 < last ? (int) sections.charOffset(j + 1)
+                : view.length();
+            printMessageLine(view.subSequence(start, end).toString());
+        }
+        _output.flush();
+    }
 
-            if (!_config.hasNextInt()) {
-                throw error("Wrong Format For Config");
+    /** Print the stepping analysis of every rotor order of the
+     *  configuration, with the settings never reached if debugging. */
+    private void printPeriods() {
+        readConfig();
+        for (PeriodAnalysis.Result result
+                 : PeriodAnalysis.analyse(_spec, threads())) {
+            _output.println(result);
+            if (_options.containsKey("debug")) {
+                BitSet reached = result.reached();
+                StringBuilder line = new StringBuilder();
+                for (int s = reached.nextClearBit(0); s < result.states();
+                     s = reached.nextClearBit(s + 1)) {
+                    String state = result.state(s);
+                    if (line.length() + state.length() >= LINE_WIDTH) {
+                        _output.println(line);
+                        line.setLength(0);
+                    }
+                    line.append("  ").append(state);
+                }
+                if (line.length() > 0) {
+                    _output.println(line);
+                }
             }
-            int numPawls = _config.nextInt();
+        }
+        _output.flush();
+    }
 
-            _allRotors = new ArrayList<>();
-            while (_config.hasNext()) {
-                _allRotors.add(readRotor());
+    /** Configure an Enigma machine from _config, set it up according to
+     *  the settings line at the start of _input, and print the
+     *  re-encryption of the ciphertext that follows it after applying the
+     *  edits in the file named EDITS. */
+    private void processEdits(String edits) {
+        Machine enigma = readConfig();
+        if (!_input.hasNextLine()) {
+            throw error("Input file is empty. Cannot read!");
+        }
+        String settings = _input.nextLine();
+        if (!settings.contains("*")) {
+            throw error(SETTINGS,
+                        "No setting/rotor. Or wrong format for setting");
+        }
+        setUp(enigma, settings);
+        StringBuilder ciphertext = new StringBuilder();
+        while (_input.hasNextLine()) {
+            String line = _input.nextLine();
+            if (line.contains("*")) {
+                break;
             }
+            ciphertext.append(line.replaceAll(" ", ""));
+        }
 
-            return new Machine(_alphabet, numRotors, numPawls, _allRotors);
-        } catch (NoSuchElementException excp) {
-            throw error("configuration file truncated");
+        ArrayList<MessageEditor.Edit> changes = new ArrayList<>();
+        Scanner in = getInput(edits);
+        while (in.hasNextLine()) {
+            String line = in.nextLine().trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] fields = line.split("\\s+", 3);
+            if (fields.length < 2) {
+                throw error("bad edit: %s", line);
+            }
+            changes.add(new MessageEditor.Edit(
+                parseNumber(fields[0]), parseNumber(fields[1]),
+                fields.length > 2 ? fields[2].replaceAll(" ", "") : ""));
         }
+        printMessageLine(new MessageEditor(enigma)
+                         .apply(ciphertext.toString(), changes));
     }
 
-    /** Return a rotor, reading its description from _config. */
-    private Rotor readRotor() {
+    /** Read the configuration from _config and convert every input file
+     *  selected by PATTERN concurrently, each into its output file (see
+     *  outputPath), then print a summary to _output. */
+    private void processBatch(String pattern) {
+        _spec = MachineSpec.read(_config);
+        if (_options.containsKey("watch")) {
+            _watcher = new ConfigWatcher(Paths.get(_configName), _spec);
+        }
+        List<Path> files = batchFiles(pattern);
+        ExecutorService pool = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors());
+        ArrayList<Future<String>> results = new ArrayList<>();
+        long start = System.nanoTime();
+        for (Path file : files) {
+            results.add(pool.submit(() -> processFile(file)));
+        }
+        pool.shutdown();
+
+        int failed = 0;
         try {
-            String name = "", notches = "", cycles = "", cycleChecker;
-            if (_config.hasNext()) {
-                name = _config.next();
+            failed = batchResults(results);
+        } finally {
+            if (_watcher != null) {
+                _watcher.close();
             }
-            if (_config.hasNext()) {
-                notches = _config.next();
-            } else {
-                throw error("Lack Info for this Rotor");
+        }
+        _output.printf("%d files, %d failed, %.1f ms%n", files.size(),
+                       failed, millisSince(start));
+        _output.flush();
+        if (failed > 0) {
+            throw error("%d of %d files failed", failed, files.size());
+        }
+    }
+
+    /** Print the summary lines of RESULTS, in order, to _output, and
+     *  return the number of files that failed. */
+    private int batchResults(List<Future<String>> results) {
+        int failed = 0;
+        for (Future<String> result : results) {
+            String line;
+            try {
+                line = result.get();
+            } catch (InterruptedException | ExecutionException excp) {
+                throw error(INTERNAL, "batch interrupted");
+            }
+            if (line.startsWith(BATCH_ERROR)) {
+                failed += 1;
             }
+            _output.println(line);
+        }
+        return failed;
+    }
 
-            while (_config.hasNext(Pattern.compile("\\s*[(].+[)]\\s*"))) {
-                cycleChecker = _config.next();
-                cycles += cycleChecker + " ";
+    /** Convert the messages in FILE into its output file with a machine
+     *  built from the current configuration (_spec, or the latest reload
+     *  if watching), and return its summary line.  If conversion
+     *  fails, the output file is removed. */
+    private String processFile(Path file) {
+        Path out = outputPath(file);
+        long start = System.nanoTime();
+        try (Scanner input = new Scanner(file, StandardCharsets.UTF_8);
+             PrintStream output = new PrintStream(out.toFile(),
+                                                  StandardCharsets.UTF_8)) {
+            MachineSpec spec = _watcher == null ? _spec : _watcher.current();
+            new Main(spec, input, output, _options, _cache).process();
+            if (output.checkError()) {
+                throw new IOException("write failed");
+            }
+        } catch (IOException | RuntimeException excp) {
+            try {
+                Files.deleteIfExists(out);
+            } catch (IOException ignored) {
+                /* Reported below in any case. */
             }
+            if (excp instanceof EnigmaException) {
+                Metrics.global().reportError((EnigmaException) excp);
+            }
+            String message = excp instanceof IOException
+                ? "could not convert " + file : excp.getMessage();
+            return String.format("%s %8.1f ms  %s: %s", BATCH_ERROR,
+                                 millisSince(start), file, message);
+        }
+        return String.format("%s %8.1f ms  %s", BATCH_OK,
+                             millisSince(start), file);
+    }
 
-            if (notches.charAt(0) == 'M') {
-                return new MovingRotor(name, new Permutation(cycles, _alphabet),
-                        notches.substring(1));
-            } else if (notches.charAt(0) == 'N') {
-                return new FixedRotor(name, new Permutation(cycles, _alphabet));
-            } else if (notches.charAt(0) == 'R') {
-                return new Reflector(name, new Permutation(cycles, _alphabet));
-            } else {
-                throw error("Wrong type of Rotor");
+    /** Return the files selected by PATTERN: the .in files of directory
+     *  PATTERN, or the files matching the glob PATTERN, whose directory
+     *  part may not contain wildcards.  The files are sorted by name. */
+    private static List<Path> batchFiles(String pattern) {
+        Path path = Paths.get(pattern);
+        Path dir;
+        String glob;
+        if (Files.isDirectory(path)) {
+            dir = path;
+            glob = "*" + IN_SUFFIX;
+        } else {
+            dir = path.getParent() == null ? Paths.get("") : path.getParent();
+            glob = path.getFileName().toString();
+        }
+        ArrayList<Path> result = new ArrayList<>();
+        try (DirectoryStream<Path> entries =
+             Files.newDirectoryStream(dir.toString().isEmpty()
+                                      ? Paths.get(".") : dir, glob)) {
+            for (Path entry : entries) {
+                if (Files.isRegularFile(entry)) {
+                    result.add(dir.resolve(entry.getFileName()));
+                }
             }
+        } catch (IOException | IllegalArgumentException excp) {
+            throw error(IO, "could not list %s", pattern);
+        }
+        Collections.sort(result);
+        return result;
+    }
 
-        } catch (NoSuchElementException excp) {
-            throw error("bad rotor description");
+    /** Return the output file for input FILE: FILE with its .in suffix
+     *  replaced by .out, or with .out added if it has none. */
+    private static Path outputPath(Path file) {
+        String name = file.getFileName().toString();
+        if (name.endsWith(IN_SUFFIX)) {
+            name = name.substring(0, name.length() - IN_SUFFIX.length());
         }
+        return file.resolveSibling(name + OUT_SUFFIX);
     }
 
-    /** Set M according to the specification given on SETTINGS,
-     *  which must have the format specified in the assignment. */
-    private void setUp(Machine M, String settings) {
-        Scanner input = new Scanner(settings);
+    /** Return the milliseconds elapsed since the System.nanoTime() value
+     *  START. */
+    private static double millisSince(long start) {
+        return (System.nanoTime() - start) / NANOS_PER_MILLI;
+    }
 
-        if (!input.hasNext()) {
-            throw error("No settings found!");
-        } else if (!input.hasNext(Pattern.compile("[*]"))) {
-            throw error("Wrong format for settings");
-        } else {
-            input.next();
+    /** Configure a byte-alphabet Enigma machine from _config, set it up
+     *  according to SETTINGS, and convert the file _inputName into the
+     *  file _outputName. */
+    private void processBinary(String settings) {
+        Machine enigma = readConfig();
+        if (!_spec.bytes()) {
+            throw error(CONFIG,
+                        "binary mode requires the %s alphabet",
+                        BinaryConverter.BYTES);
+        }
+        BinaryConverter.setUp(enigma, settings);
+        BinaryConverter converter = new BinaryConverter(enigma);
+        File sidecar = new File(_outputName + CHECKPOINT_SUFFIX);
+        boolean resume = _options.containsKey("resume");
+        Checkpoint start = null;
+        if (resume) {
+            start = Checkpoint.read(sidecar);
+            if (!start.settings().equals(settings)) {
+                throw error("checkpoint %s is for other settings", sidecar);
+            }
+            converter.setPositions(start.positions());
+        }
+        long interval = checkpointInterval();
+        if (compressed(_inputName) || compressed(_outputName)) {
+            if (interval > 0 || resume) {
+                throw error(USAGE,
+                            "--checkpoint and --resume need uncompressed "
+                            + "files");
+            }
+            transferCompressed(converter);
+            return;
         }
 
-        String[] rotorsArr = new String[M.numRotors()];
-        for (int i = 0; i < rotorsArr.length; i++) {
-            rotorsArr[i] = input.next();
+        try (FileChannel in = FileChannel.open(Paths.get(_inputName),
+                                               StandardOpenOption.READ);
+             FileChannel out = resume
+                 ? FileChannel.open(Paths.get(_outputName),
+                                    StandardOpenOption.WRITE)
+                 : FileChannel.open(Paths.get(_outputName),
+                                    StandardOpenOption.WRITE,
+                                    StandardOpenOption.CREATE,
+                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            long inStart = 0, outStart = 0;
+            if (start != null) {
+                inStart = start.input();
+                outStart = start.output();
+                if (in.size() < inStart || out.size() < outStart) {
+                    throw error("checkpoint %s is past the end of %s",
+                                sidecar, in.size() < inStart
+                                ? _inputName : _outputName);
+                }
+                in.position(inStart);
+                out.truncate(outStart);
+                out.position(outStart);
+            }
+            long inBase = inStart, outBase = outStart;
+            EnigmaEvents.BinaryTransfer event =
+                new EnigmaEvents.BinaryTransfer();
+            event.begin();
+            long startTime = System.nanoTime();
+            long bytes = converter.transfer(
+                in, out, interval, interval == 0 ? null : done -> {
+                    try {
+                        out.force(false);
+                    } catch (IOException excp) {
+                        throw error(IO, "could not write %s", _outputName);
+                    }
+                    new Checkpoint(inBase + done, outBase + done, settings,
+                                   converter.positions()).write(sidecar);
+                });
+            event.end();
+            Metrics.global().message(bytes, System.nanoTime() - startTime);
+            if (event.shouldCommit()) {
+                event.bytes = bytes;
+                event.bytesPerSecond = perSecond(bytes, startTime);
+                event.commit();
+            }
+        } catch (IOException excp) {
+            throw error(IO,
+                        "could not convert %s to %s", _inputName,
+                        _outputName);
         }
+        if (interval > 0 || resume) {
+            sidecar.delete();
+        }
+    }
 
-        if (rotorsArr.length != new
-                HashSet<String>(Arrays.asList(rotorsArr)).size()) {
-            throw error("Settings contains repeated rotors");
-        } else {
-            M.insertRotors(rotorsArr);
+    /** Convert _inputName into _outputName with CONVERTER, either of
+     *  them compressed, a buffer at a time. */
+    private void transferCompressed(BinaryConverter converter) {
+        long startTime = System.nanoTime();
+        try (ReadableByteChannel in = Channels.newChannel(
+                 Compression.input(new File(_inputName), threads()));
+             WritableByteChannel out = Channels.newChannel(
+                 Compression.output(new File(_outputName), threads()))) {
+            long bytes = converter.transfer(in, out);
+            Metrics.global().message(bytes, System.nanoTime() - startTime);
+        } catch (IOException excp) {
+            throw error(IO,
+                        "could not convert %s to %s", _inputName,
+                        _outputName);
         }
+    }
 
-        if (input.hasNext(Pattern.compile
-                ("\\w+" + "{" + (rotorsArr.length - 1) + "}"))) {
-            String setting = input.next();
-            M.setRotors(setting);
-        } else {
-            throw error("No setting found for current config.");
+    /** Return the number of bytes between checkpoints selected by my
+     *  options, or 0 if checkpoints are not wanted. */
+    private long checkpointInterval() {
+        String value = _options.get("checkpoint");
+        if (value == null) {
+            return 0;
+        } else if (value.isEmpty()) {
+            return DEFAULT_CHECKPOINT_INTERVAL;
+        }
+        try {
+            long result = Long.parseLong(value);
+            if (result > 0) {
+                return result;
+            }
+        } catch (NumberFormatException excp) {
+            /* Fall through. */
         }
+        throw error(USAGE, "bad checkpoint interval: %s", value);
+    }
 
-        if (input.hasNext(Pattern.compile
-                ("\\w+" + "{" + (rotorsArr.length - 1) + "}"))) {
-            String ringSetting = input.next();
-            M.setRingRotors(ringSetting);
+    /** Convert the messages in the file _inputName, writing the results to
+     *  _output, as process() would, but with THREADS threads (all
+     *  processors if empty).  Chunks of the file, cut at settings lines,
+     *  are decoded and converted concurrently, each after the settings
+     *  lines before it that still determine the machine's state (see
+     *  SettingsHistory), and their output is written in order.  At most a
+     *  few chunks per thread are in memory at once.  An error stops the
+     *  output where process() would stop it. */
+    private void processParallel(String threads) {
+        readConfig();
+        int n = threads.isEmpty()
+            ? Runtime.getRuntime().availableProcessors()
+            : Math.max(1, parseNumber(threads));
+        MappedSections file = new MappedSections(new File(_inputName));
+        int chunks = (int) Math.max(1, (file.size() + PARALLEL_CHUNK - 1)
+                                    / PARALLEL_CHUNK);
+        int window = 2 * n;
+        ExecutorService pool = Executors.newFixedThreadPool(n);
+        try {
+            HashMap<Integer, Future<MappedSections.Chunk>> decoded =
+                new HashMap<>();
+            ArrayDeque<Future<ByteArrayOutputStream>> converted =
+                new ArrayDeque<>();
+            SettingsHistory history = new SettingsHistory(_spec);
+            int next = 0;
+            for (int i = 0; i < chunks; i += 1) {
+                for (; next < chunks && next < i + window; next += 1) {
+                    long start = next * PARALLEL_CHUNK,
+                        end = start + PARALLEL_CHUNK;
+                    decoded.put(next, pool.submit(() ->
+                        file.chunk(file.boundary(start), file.boundary(end),
+                                   _spec)));
+                }
+                MappedSections.Chunk chunk = result(decoded.remove(i));
+                if (i > 0 && chunk.isEmpty()) {
+                    continue;
+                }
+                List<String> prelude = history.lines();
+                converted.add(pool.submit(() -> convertChunk(chunk,
+                                                             prelude)));
+                while (converted.size() >= window) {
+                    writeChunk(result(converted.remove()));
+                }
+                history.addAll(chunk.history());
+                if (!chunk.valid()) {
+                    /* This chunk's conversion reports the error. */
+                    break;
+                }
+            }
+            while (!converted.isEmpty()) {
+                writeChunk(result(converted.remove()));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        _output.flush();
+    }
+
+    /** Return the output of converting the messages of CHUNK, after
+     *  setting up with the settings lines PRELUDE, as process() would.
+     *  If the conversion fails, throw a ChunkFailure carrying the output
+     *  up to the error. */
+    private ByteArrayOutputStream convertChunk(MappedSections.Chunk chunk,
+                                               List<String> prelude) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream output = new PrintStream(bytes, false,
+                                             StandardCharsets.UTF_8);
+        Main part = new Main(_spec, new Scanner(chunk.input()), output,
+                             _options, _cache);
+        part._prelude = prelude;
+        try {
+            part.process();
+        } catch (EnigmaException excp) {
+            output.flush();
+            throw new ChunkFailure(bytes, excp);
         }
+        output.flush();
+        return bytes;
+    }
+
+    /** Write the converted chunk BYTES to _output. */
+    private void writeChunk(ByteArrayOutputStream bytes) {
+        _output.write(bytes.toByteArray(), 0, bytes.size());
+    }
 
-        if (input.hasNext()) {
-            String plugBoard = "";
-            while (input.hasNext(Pattern.compile("[(]\\w+[)]"))) {
-                String cycle = input.next();
-                plugBoard += cycle + " ";
+    /** Return the result of FUTURE, waiting for it.  If its task failed
+     *  with a ChunkFailure, write the output before the error and throw
+     *  the error. */
+    private <T> T result(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException excp) {
+            throw error(INTERNAL, "conversion interrupted");
+        } catch (ExecutionException excp) {
+            Throwable cause = excp.getCause();
+            if (cause instanceof ChunkFailure) {
+                ChunkFailure failure = (ChunkFailure) cause;
+                writeChunk(failure._output);
+                _output.flush();
+                throw failure._error;
+            } else if (cause instanceof EnigmaException) {
+                throw (EnigmaException) cause;
             }
-            M.setPlugboard(new Permutation(plugBoard, _alphabet));
+            throw error(INTERNAL, "conversion failed: %s", cause);
+        }
+    }
+
+    /** The failure of a chunk's conversion, with the output it produced
+     *  before the error. */
+    private static class ChunkFailure extends RuntimeException {
+
+        /** A failure with output OUTPUT and error ERROR. */
+        ChunkFailure(ByteArrayOutputStream output, EnigmaException error) {
+            super(error);
+            _output = output;
+            _error = error;
         }
 
+        /** Output before the error. */
+        private final ByteArrayOutputStream _output;
+        /** The error. */
+        private final EnigmaException _error;
+    }
+
+    /** Configure an Enigma machine from the contents of configuration
+     *  file _config and apply it to the messages in _input, sending the
+     *  results to _output. */
+    private void process() {
+        Machine enigma = readConfig();
+        if (_options.containsKey("keystream")) {
+            enigma.setKeystream(
+                KeystreamTable.map(new File(_options.get("keystream"))));
+        }
+        for (String earlier : _prelude) {
+            setUp(enigma, earlier);
+        }
+        String setting, line;
+        if (!_input.hasNext()) {
+            throw error("Input file is empty. Cannot read!");
+        }
+
+        line = _input.nextLine();
+        if (!line.contains("*")) {
+            throw error(SETTINGS,
+                        "No setting/rotor. Or wrong format for setting");
+        }
+
+        while (_input.hasNextLine()) {
+            setting = line;
+            if (!setting.contains("*")) {
+                throw error(SETTINGS, "Wrong config. Must have * as setting");
+            }
+            EnigmaEvents.Section section = new EnigmaEvents.Section();
+            section.begin();
+            long start = System.nanoTime(), chars = 0;
+            int lines = 0;
+            Metrics.global().section();
+            setUp(enigma, setting);
+            if (_options.containsKey("debug")) {
+                System.err.printf("debug: %s: engine %s%n", setting.trim(),
+                                  enigma.engine().name());
+            }
+
+            line = _input.nextLine();
+            ArrayList<String> body = new ArrayList<>();
+            ResultCache.Key key = null;
+            if (_cache != null) {
+                long size = 0;
+                while (!line.contains("*")
+                       && size + line.length() <= _cache.maxEntryChars()) {
+                    body.add(line);
+                    size += line.length();
+                    line = nextInputLine();
+                }
+                if (line.contains("*")) {
+                    key = cacheKey(enigma, setting, body);
+                }
+            }
+            ResultCache.Entry cached = key == null ? null : _cache.get(key);
+            if (cached != null) {
+                _output.print(cached.text());
+                lines = body.size();
+                chars = cached.chars();
+                Metrics.global().message(chars, System.nanoTime() - start);
+            } else {
+                StringBuilder result = key == null ? null
+                    : new StringBuilder();
+                for (String text : body) {
+                    chars += convertLine(enigma, text, result);
+                    lines += 1;
+                }
+                while (!line.contains("*")) {
+                    chars += convertLine(enigma, line, null);
+                    lines += 1;
+                    line = nextInputLine();
+                }
+                if (key != null) {
+                    _cache.put(key, result.toString(), chars);
+                }
+            }
+            section.end();
+            if (section.shouldCommit()) {
+                section.settings = setting;
+                section.lines = lines;
+                section.chars = chars;
+                section.charsPerSecond = perSecond(chars, start);
+                section.keystream = enigma.keystreamActive();
+                section.commit();
+            }
+        }
+    }
+
+    /** Convert the message line LINE with M, print it in groups of five
+     *  (see printMessageLine), also appending what is printed to RESULT
+     *  if it is not null, and return the number of characters
+     *  converted. */
+    private int convertLine(Machine M, String line, StringBuilder result) {
+        String decode = M.convert(line.replaceAll(" ", ""));
+        String printed = line.isEmpty() ? System.lineSeparator()
+            : messageLine(decode);
+        _output.print(printed);
+        if (result != null) {
+            result.append(printed);
+        }
+        return decode.codePointCount(0, decode.length());
+    }
+
+    /** Return the next line of _input, or "*" if there is no more
+     *  input. */
+    private String nextInputLine() {
+        return _input.hasNext() ? _input.nextLine() : "*";
+    }
+
+    /** Return the result cache key of the message lines BODY after M has
+     *  been set up by the settings line SETTING.  Settings lines that
+     *  omit the ring settings or plugboard keep those of the previous
+     *  section, so the key includes M's rings and plugboard. */
+    private ResultCache.Key cacheKey(Machine M, String setting,
+                                     List<String> body) {
+        StringBuilder rings = new StringBuilder();
+        for (int k = 1; k < M.numRotors(); k += 1) {
+            rings.append(M.rotor(k).ring()).append(' ');
+        }
+        return ResultCache.key(_spec,
+                               String.join(" ", MachineKey.tokenize(setting)),
+                               rings.toString(), M.plugboard(), body);
+    }
+
+    /** Return the rate per second of COUNT events since the
+     *  System.nanoTime() value START. */
+    private static double perSecond(long count, long start) {
+        long nanos = Math.max(1, System.nanoTime() - start);
+        return count * NANOS_PER_SECOND / nanos;
+    }
+
+    /** Return an Enigma machine configured from the contents of configuration
+     *  file _config. */
+    private Machine readConfig() {
+        if (_spec == null) {
+            _spec = MachineSpec.read(_config);
+        }
+        return _spec.newMachine();
+    }
+
+    /** Set M according to the specification given on SETTINGS,
+     *  which must have the format specified in the assignment.  Settings
+     *  lines seen before are reapplied from their compiled keys. */
+    private void setUp(Machine M, String settings) {
+        EnigmaEvents.SetUp event = new EnigmaEvents.SetUp();
+        event.begin();
+        MachineKey key = _keys.get(settings);
+        if (key == null) {
+            _keys.put(settings, MachineKey.compile(M, settings));
+        } else {
+            key.apply(M);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.settings = settings;
+            event.cacheHit = key != null;
+            event.commit();
+        }
     }
 
     /** Print MSG in groups of five (except that the last group may
      *  have fewer letters). */
     private void printMessageLine(String msg) {
-        int left;
-        for (int i = 0; msg.length() > i; i += 5) {
-            left = msg.length() - i;
+        _output.print(messageLine(msg));
+    }
+
+    /** Return MSG in groups of five, as a line, or "" if MSG is empty. */
+    private static String messageLine(String msg) {
+        StringBuilder result = new StringBuilder();
+        int start = 0;
+        for (int left = msg.codePointCount(0, msg.length()); left > 0;
+             left -= 5) {
             if (left > 5) {
-                _output.print(msg.substring(i, i + 5) + " ");
+                int end = msg.offsetByCodePoints(start, 5);
+                result.append(msg, start, end).append(' ');
+                start = end;
             } else {
-                _output.println(msg.substring(i, i + left));
+                result.append(msg, start, msg.length())
+                    .append(System.lineSeparator());
             }
         }
+        return result.toString();
     }
 
-    /** Alphabet used in this machine. */
-    private Alphabet _alphabet;
+    /** The configuration read from _config. */
+    private MachineSpec _spec;
+
+    /** Settings lines applied before the first section of _input, when
+     *  converting one chunk of a file (see processParallel). */
+    private List<String> _prelude = Collections.emptyList();
+
+    /** Cache of converted sections, with --cache, or null. */
+    private ResultCache _cache;
+
+    /** Watcher of the configuration file, in batch mode with --watch. */
+    private ConfigWatcher _watcher;
 
     /** Source of input messages. */
     private Scanner _input;
 
+    /** Name of the configuration file. */
+    private String _configName;
+
     /** Source of machine configuration. */
     private Scanner _config;
 
     /** File for encoded/decoded messages. */
     private PrintStream _output;
 
-    /** All rotors of config. */
-    private ArrayList<Rotor> _allRotors;
+    /** True iff _output is compressed, and so must be closed. */
+    private boolean _closeOutput;
+
+
+    /** Compiled keys of recently seen settings lines. */
+    private LruCache<String, MachineKey> _keys = new LruCache<>(MAX_KEYS);
+
+    /** Trials between progress reports in a key search. */
+    private static final int SEARCH_CHUNK = 4096;
+
+    /** Width of the lines listing settings never reached. */
+    private static final int LINE_WIDTH = 72;
+
+    /** Input and output file suffixes in batch mode. */
+    private static final String IN_SUFFIX = ".in", OUT_SUFFIX = ".out";
+
+    /** Status words of batch summary lines. */
+    private static final String BATCH_OK = "OK   ", BATCH_ERROR = "ERROR";
+
+    /** Suffix of the name of a checkpoint sidecar file. */
+    private static final String CHECKPOINT_SUFFIX = ".ckpt";
+
+    /** Approximate bytes per chunk with --parallel. */
+    private static final long PARALLEL_CHUNK = 4L << 20;
+
+    /** Default result cache size, in MiB, and bytes per MiB. */
+    private static final long DEFAULT_CACHE_MIB = 64, MIB = 1 << 20;
+
+    /** Default number of bytes between checkpoints. */
+    private static final long DEFAULT_CHECKPOINT_INTERVAL = 64L << 20;
+
+    /** Nanoseconds per millisecond and per second. */
+    private static final double NANOS_PER_MILLI = 1e6,
+        NANOS_PER_SECOND = 1e9;
+
+    /** Maximum number of compiled settings lines kept. */
+    private static final int MAX_KEYS = 1024;
+
+    /** Names of the binary input and output files, in binary mode. */
+    private String _inputName, _outputName;
+
+    /** Options given on the command line, mapped to their values ("" for
+     *  options without a value). */
+    private HashMap<String, String> _options = new HashMap<>();
+
+    /** Options that read the input file through a memory mapping,
+     *  rather than a Scanner. */
+    private static final String[] MAPPED_INPUT = {
+        "parallel", "build-index", "index",
+    };
+
+    /** Options selecting modes whose metrics are published. */
+    private static final String[] LONG_RUNNING = {
+        "batch", "search", "work",
+    };
+
+    /** Names of all recognized options. */
+    private static final String[] OPTIONS = {
+        "keystream", "build-keystream", "binary", "search", "local-workers",
+        "work", "batch", "edit", "checkpoint", "resume", "debug", "watch",
+        "cache", "parallel", "build-index", "index", "section", "compressed",
+        "periods", "verify",
+    };
 }
@@ -0,0 +1,267 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+import static enigma.EnigmaException.*;
+import static enigma.EnigmaException.Kind.*;
+
+/** An input file of messages, memory-mapped so that any number of threads
+ *  may find and decode its sections at once.  The file is cut into
+ *  chunks at section boundaries: the starts of lines containing '*'
+ *  (settings lines).  Boundaries are found by scanning the bytes for
+ *  '\n', which never occurs inside a multi-byte UTF-8 character, so no
+ *  thread needs to decode the text before its own chunk.
+ *
+ *  A chunk's text, read by a Scanner, has the same lines as the same
+ *  part of the whole file.  A boundary is only placed where no other line
+ *  separator that Scanner recognizes ("\r", "\u0085", "\u2028" or
+ *  "\u2029") lies between the start of the line and its '*'.
+ *  @author Truong Le
+ */
+class MappedSections {
+
+    /** The file FILE, mapped. */
+    MappedSections(File file) {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r");
+             FileChannel channel = in.getChannel()) {
+            _size = channel.size();
+            int count = (int) ((_size + SEGMENT - 1) / SEGMENT);
+            _segments = new MappedByteBuffer[count];
+            for (int i = 0; i < count; i += 1) {
+                long start = (long) i * SEGMENT;
+                _segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                    start, Math.min(SEGMENT, _size - start));
+            }
+        } catch (IOException excp) {
+            throw error(IO, "could not open %s", file);
+        }
+    }
+
+    /** Return the size of the file in bytes. */
+    long size() {
+        return _size;
+    }
+
+    /** Return the offset of the first section boundary at or after POS,
+     *  or size() if there is none.  Offset 0 is always a boundary. */
+    long boundary(long pos) {
+        if (pos <= 0) {
+            return 0;
+        }
+        long p = pos;
+        while (p < _size && byteAt(p - 1) != '\n') {
+            p += 1;
+        }
+        while (p < _size) {
+            long q = p;
+            boolean plain = true;
+            byte b;
+            while (q < _size && (b = byteAt(q)) != '\n') {
+                if (b == '*') {
+                    if (plain) {
+                        return p;
+                    }
+                    break;
+                }
+                plain &= !separator(q, b);
+                q += 1;
+            }
+            while (q < _size && byteAt(q) != '\n') {
+                q += 1;
+            }
+            p = q + 1;
+        }
+        return _size;
+    }
+
+    /** Return the chunk of the file from boundary START to boundary END,
+     *  decoded, with the history of its settings lines for configuration
+     *  SPEC. */
+    Chunk chunk(long start, long end, MachineSpec spec) {
+        String text = decode(start, end), next = null;
+        if (end < _size) {
+            long q = end;
+            while (q < _size && byteAt(q) != '\n') {
+                q += 1;
+            }
+            next = decode(end, q);
+            for (int i = 0; i < next.length(); i += 1) {
+                if (SEPARATORS.indexOf(next.charAt(i)) >= 0) {
+                    next = next.substring(0, i);
+                    break;
+                }
+            }
+        }
+        return new Chunk(text, next, spec);
+    }
+
+    /** A chunk of the file: its text, the settings line that follows it,
+     *  if any, and the history of its own settings lines. */
+    static class Chunk {
+
+        /** A chunk with text TEXT, followed by the settings line NEXT, or
+         *  by the end of the file if NEXT is null, for configuration
+         *  SPEC. */
+        Chunk(String text, String next, MachineSpec spec) {
+            _text = text;
+            _next = next;
+            _history = new SettingsHistory(spec);
+            try {
+                for (String settings : settingsLines(text)) {
+                    _history.add(settings);
+                }
+                _valid = true;
+            } catch (EnigmaException excp) {
+                _valid = false;
+            }
+        }
+
+        /** Return true iff my text is empty. */
+        boolean isEmpty() {
+            return _text.isEmpty();
+        }
+
+        /** Return my text followed by the next settings line, if any,
+         *  which is how a conversion of my sections alone sees where they
+         *  end, just as in the whole file. */
+        String input() {
+            return _next == null ? _text : _text + _next;
+        }
+
+        /** Return the history of my settings lines, up to the first
+         *  invalid one. */
+        SettingsHistory history() {
+            return _history;
+        }
+
+        /** Return true iff all my settings lines are valid. */
+        boolean valid() {
+            return _valid;
+        }
+
+        /** The text of the chunk. */
+        private final String _text;
+        /** The following settings line, or null. */
+        private final String _next;
+        /** The history of my settings lines. */
+        private final SettingsHistory _history;
+        /** True iff all my settings lines are valid. */
+        private boolean _valid;
+    }
+
+    /** Return the lines of TEXT, as Scanner divides it into lines, that
+     *  contain '*', in order. */
+    static List<String> settingsLines(String text) {
+        ArrayList<String> result = new ArrayList<>();
+        for (int star = text.indexOf('*'); star >= 0; ) {
+            int start = star, end = star;
+            while (start > 0
+                   && SEPARATORS.indexOf(text.charAt(start - 1)) < 0) {
+                start -= 1;
+            }
+            while (end < text.length()
+                   && SEPARATORS.indexOf(text.charAt(end)) < 0) {
+                end += 1;
+            }
+            result.add(text.substring(start, end));
+            star = text.indexOf('*', end);
+        }
+        return result;
+    }
+
+    /** Return true iff byte B at offset POS starts a line separator other
+     *  than '\n'. */
+    private boolean separator(long pos, byte b) {
+        if (b == '\r') {
+            return true;
+        } else if (b == (byte) 0xc2) {
+            return pos + 1 < _size && byteAt(pos + 1) == (byte) 0x85;
+        } else if (b == (byte) 0xe2) {
+            return pos + 2 < _size && byteAt(pos + 1) == (byte) 0x80
+                && (byteAt(pos + 2) == (byte) 0xa8
+                    || byteAt(pos + 2) == (byte) 0xa9);
+        }
+        return false;
+    }
+
+    /** Return the byte at offset POS. */
+    private byte byteAt(long pos) {
+        return _segments[(int) (pos / SEGMENT)].get((int) (pos % SEGMENT));
+    }
+
+    /** Return the offset of the first '\n' at or after POS, or size() if
+     *  there is none. */
+    long lineEnd(long pos) {
+        while (pos < _size) {
+            MappedByteBuffer segment = _segments[(int) (pos / SEGMENT)];
+            long base = pos - pos % SEGMENT;
+            for (int off = (int) (pos % SEGMENT); off < segment.limit();
+                 off += 1) {
+                if (segment.get(off) == '\n') {
+                    return base + off;
+                }
+            }
+            pos = base + SEGMENT;
+        }
+        return _size;
+    }
+
+    /** Return the CRC-32C of the whole file. */
+    long checksum() {
+        CRC32C crc = new CRC32C();
+        update(crc, 0, _size);
+        return crc.getValue();
+    }
+
+    /** Add the bytes from START to END to CRC. */
+    void update(CRC32C crc, long start, long end) {
+        for (long p = start; p < end; ) {
+            int seg = (int) (p / SEGMENT), off = (int) (p % SEGMENT);
+            int len = (int) Math.min(end - p, SEGMENT - off);
+            ByteBuffer bytes = _segments[seg].duplicate();
+            bytes.limit(off + len).position(off);
+            crc.update(bytes);
+            p += len;
+        }
+    }
+
+    /** Return the bytes from START to END, decoded as UTF-8, which they
+     *  must be. */
+    String decode(long start, long end) {
+        byte[] bytes = new byte[Math.toIntExact(end - start)];
+        int n = 0;
+        for (long p = start; p < end; ) {
+            int seg = (int) (p / SEGMENT), off = (int) (p % SEGMENT);
+            int len = (int) Math.min(end - p, SEGMENT - off);
+            _segments[seg].get(off, bytes, n, len);
+            n += len;
+            p += len;
+        }
+        try {
+            return StandardCharsets.UTF_8.newDecoder()
+                .decode(ByteBuffer.wrap(bytes)).toString();
+        } catch (CharacterCodingException excp) {
+            throw error("input is not valid UTF-8");
+        }
+    }
+
+    /** Bytes per mapped segment. */
+    private static final long SEGMENT = 1L << 30;
+    /** Line separators recognized by Scanner. */
+    private static final String SEPARATORS = "\r\n\u0085\u2028\u2029";
+
+    /** Size of the file. */
+    private final long _size;
+    /** The file, mapped in segments of SEGMENT bytes. */
+    private final MappedByteBuffer[] _segments;
+}
@@ -0,0 +1,156 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the MappedSections class.
+ *  @author Truong Le
+ */
+public class MappedSectionsTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Input whose lines after the first settings line hold a '*' after
+     *  each other separator that Scanner recognizes, so that only the
+     *  indented settings line may start a chunk. */
+    private static final String TEXT =
+        "* B Beta III IV I AXLE\n"
+        + "HELLO WORLD\n"
+        + "AB\r* X\n"
+        + "C\u0085* Y\n"
+        + "D\u2028* Z\n"
+        + "E\u2029* W\n"
+        + "  * C Gamma I II V QZAB ABCD\r\n"
+        + "FOO\n";
+
+    /** Bytes per mapped segment of a MappedSections. */
+    private static final long SEGMENT = 1L << 30;
+
+    /** Return the number of UTF-8 bytes of TEXT before S. */
+    private static long offset(String text, String s) {
+        return text.substring(0, text.indexOf(s))
+            .getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    /** Return the lines of TEXT that contain '*', as a Scanner reads
+     *  them. */
+    private static List<String> scannedSettings(String text) {
+        ArrayList<String> result = new ArrayList<>();
+        Scanner in = new Scanner(text);
+        while (in.hasNextLine()) {
+            String line = in.nextLine();
+            if (line.contains("*")) {
+                result.add(line);
+            }
+        }
+        return result;
+    }
+
+    /** Return a file holding TEXT. */
+    private static File write(String text) throws Exception {
+        File file = File.createTempFile("enigma-mapped", ".in");
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testBoundaries() throws Exception {
+        File file = write(TEXT);
+        try {
+            MappedSections input = new MappedSections(file);
+            long size = input.size(), second = offset(TEXT, "  * C");
+            assertEquals(0, input.boundary(0));
+            assertEquals(second, input.boundary(1));
+            assertEquals(second, input.boundary(offset(TEXT, "\r* X")));
+            assertEquals(second, input.boundary(second));
+            assertEquals(size, input.boundary(second + 1));
+            assertEquals(size, input.boundary(size));
+            assertEquals(offset(TEXT, "\nFOO") - 1,
+                         input.lineEnd(second) - 1);
+            assertEquals("  * C Gamma I II V QZAB ABCD\r",
+                         input.decode(second, input.lineEnd(second)));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testChunksKeepScannerLines() throws Exception {
+        File file = write(TEXT);
+        try {
+            MappedSections input = new MappedSections(file);
+            List<String> all = scannedSettings(TEXT);
+            assertEquals(all, MappedSections.settingsLines(TEXT));
+            for (long pos = 0; pos <= input.size(); pos += 1) {
+                long cut = input.boundary(pos);
+                List<String> lines = new ArrayList<>(
+                    MappedSections.settingsLines(input.decode(0, cut)));
+                lines.addAll(MappedSections.settingsLines(
+                    input.decode(cut, input.size())));
+                assertEquals("cut at " + cut, all, lines);
+            }
+
+            long second = offset(TEXT, "  * C");
+            MachineSpec spec = naval();
+            MappedSections.Chunk first = input.chunk(0, second, spec),
+                last = input.chunk(second, input.size(), spec);
+            assertEquals(input.decode(0, second)
+                         + "  * C Gamma I II V QZAB ABCD", first.input());
+            assertFalse(first.valid());
+            assertTrue(last.valid());
+            assertEquals(input.decode(second, input.size()), last.input());
+            assertEquals("[  * C Gamma I II V QZAB ABCD]",
+                         last.history().lines().toString());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testSegmentBoundary() throws Exception {
+        String tail = "\nQ\u2028* X\n* B Beta III IV I AXLE\nHELLO\n";
+        File file = File.createTempFile("enigma-mapped", ".in");
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.setLength(SEGMENT + 64);
+            out.seek(SEGMENT - 3);
+            out.write(tail.getBytes(StandardCharsets.UTF_8));
+            out.close();
+
+            MappedSections input = new MappedSections(file);
+            long star = SEGMENT - 3 + offset(tail, "* B");
+            assertEquals(star, input.boundary(SEGMENT - 100));
+            assertEquals(star, input.boundary(SEGMENT + 1));
+            assertEquals(SEGMENT + 5, input.lineEnd(SEGMENT - 2));
+            assertEquals("Q\u2028* X",
+                         input.decode(SEGMENT - 2, SEGMENT + 5));
+            assertEquals("* B Beta III IV I AXLE",
+                         input.decode(star, input.lineEnd(star)));
+            MappedSections.Chunk chunk =
+                input.chunk(star, input.size(), naval());
+            assertTrue(chunk.input()
+                       .startsWith("* B Beta III IV I AXLE\nHELLO\n"));
+            assertTrue(chunk.valid());
+        } finally {
+            file.delete();
+        }
+    }
+
+}
@@ -0,0 +1,190 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static enigma.EnigmaException.*;
+
+/** Re-encryption of an edited message without re-encrypting all of it.
+ *  The keystream applied to a message depends only on the position of
+ *  each character, so an edit that keeps the length of the message
+ *  changes only the ciphertext of the edited span, and an insertion or
+ *  deletion changes only the ciphertext from its position onward.  An
+ *  editor reaches each changed position by seeking: stepping copies of
+ *  the rotor settings without substituting anything.
+ *
+ *  Messages are strings of characters of the machine's alphabet (with no
+ *  spaces), and offsets count characters (code points).
+ *  @author Truong Le
+ */
+class MessageEditor {
+
+    /** An edit of a message: the LENGTH characters at OFFSET are replaced
+     *  by TEXT. */
+    static class Edit {
+        /** An edit replacing the LENGTH characters at OFFSET by TEXT. */
+        Edit(int offset, int length, String text) {
+            if (offset < 0 || length < 0) {
+                throw error("bad edit at %d", offset);
+            }
+            this.offset = offset;
+            this.length = length;
+            this.text = text;
+        }
+
+        /** Position of the first character replaced. */
+        private final int offset;
+        /** Number of characters replaced. */
+        private final int length;
+        /** Replacement text. */
+        private final String text;
+    }
+
+    /** An editor for messages whose encryption starts from the current
+     *  settings of M.  Applying edits leaves M in the state it would be
+     *  in after converting the edited message. */
+    MessageEditor(Machine M) {
+        _machine = M;
+        _tables = new MachineTables(M);
+        _alphabet = M.alphabet();
+        int numRotors = _tables.numRotors();
+        _start = new int[numRotors];
+        _rings = new int[numRotors];
+        for (int k = 0; k < numRotors; k += 1) {
+            _start[k] = M.rotor(k).setting();
+            _rings[k] = M.rotor(k).ring();
+        }
+        _plugboard = M.plugboard() == null ? null
+            : M.plugboard().forwardTable();
+    }
+
+    /** Return the encryption of the message whose encryption is
+     *  CIPHERTEXT after applying EDITS, which must be in order of offset,
+     *  may not overlap, and refer to positions in the unedited message.
+     *  Only the characters from the first edit that changes the length of
+     *  the message onward, and those replaced by edits before it, are
+     *  converted. */
+    String apply(String ciphertext, List<Edit> edits) {
+        int[] cipher = indices(ciphertext);
+        ArrayList<Integer> result = new ArrayList<>(cipher.length);
+        Cursor before = new Cursor(), after = new Cursor();
+        int pos = 0;
+        boolean shifted = false;
+        for (Edit edit : edits) {
+            if (edit.offset < pos || edit.offset + edit.length
+                > cipher.length) {
+                throw error("edits out of order or out of range");
+            }
+            copy(cipher, pos, edit.offset, shifted, before, after, result);
+            for (int c : indices(edit.text)) {
+                result.add(after.convert(c));
+            }
+            pos = edit.offset + edit.length;
+            shifted |= edit.text.codePointCount(0, edit.text.length())
+                != edit.length;
+        }
+        copy(cipher, pos, cipher.length, shifted, before, after, result);
+
+        after.sync();
+        StringBuilder text = new StringBuilder(result.size());
+        for (int c : result) {
+            text.appendCodePoint(_alphabet.codePoint(c));
+        }
+        return text.toString();
+    }
+
+    /** Append to RESULT the encryption of the characters of the unedited
+     *  message in positions [FROM, TO), whose encryption is in CIPHER.  If
+     *  not SHIFTED, positions are unchanged by earlier edits and the
+     *  ciphertext is copied; otherwise it is decrypted with BEFORE (at its
+     *  original positions) and re-encrypted with AFTER. */
+    private void copy(int[] cipher, int from, int to, boolean shifted,
+                      Cursor before, Cursor after, ArrayList<Integer> result) {
+        if (!shifted) {
+            for (int i = from; i < to; i += 1) {
+                result.add(cipher[i]);
+            }
+            after.seek(after.at() + to - from);
+            return;
+        }
+        before.seek(from);
+        for (int i = from; i < to; i += 1) {
+            result.add(after.convert(before.convert(cipher[i])));
+        }
+    }
+
+    /** Return the alphabet indices of the characters of TEXT. */
+    private int[] indices(String text) {
+        int[] result = text.codePoints().toArray();
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = _alphabet.toIndex(result[i]);
+        }
+        return result;
+    }
+
+    /** A position in the keystream of the message, with its own copy of
+     *  the rotor settings. */
+    private class Cursor {
+        /** A cursor at the start of the message. */
+        Cursor() {
+            _posns = _start.clone();
+            _offsets = new int[_posns.length];
+        }
+
+        /** Return the number of characters before my position. */
+        long at() {
+            return _at;
+        }
+
+        /** Move forward to just before character OFFSET. */
+        void seek(long offset) {
+            for (; _at < offset; _at += 1) {
+                _tables.advance(_posns);
+            }
+        }
+
+        /** Return the conversion of C (an alphabet index) at my position,
+         *  and move past it. */
+        int convert(int c) {
+            _tables.advance(_posns);
+            _at += 1;
+            int n = _tables.size();
+            for (int k = 0; k < _posns.length; k += 1) {
+                _offsets[k] = _tables.shift(_posns[k], n - _rings[k]);
+            }
+            if (_plugboard == null) {
+                return _tables.substitute(c, _offsets);
+            }
+            return _plugboard[_tables.substitute(_plugboard[c], _offsets)];
+        }
+
+        /** Copy my rotor settings into my editor's machine. */
+        void sync() {
+            for (int k = 1; k < _posns.length; k += 1) {
+                if (_tables.rotates(k)) {
+                    _machine.rotor(k).set(_posns[k]);
+                }
+            }
+        }
+
+        /** Current rotor settings, by slot. */
+        private final int[] _posns;
+        /** Scratch settings less ring settings, by slot. */
+        private final int[] _offsets;
+        /** Number of characters before my position. */
+        private long _at;
+    }
+
+    /** The machine whose settings start each message. */
+    private final Machine _machine;
+    /** Its compiled tables. */
+    private final MachineTables _tables;
+    /** Its alphabet. */
+    private final Alphabet _alphabet;
+    /** Rotor settings at the start of the message, by slot. */
+    private final int[] _start;
+    /** Ring settings, by slot. */
+    private final int[] _rings;
+    /** Plugboard table, or null. */
+    private final int[] _plugboard;
+}
@@ -0,0 +1,115 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the MessageEditor class.
+ *  @author Truong Le
+ */
+public class MessageEditorTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Plaintext of the messages edited. */
+    private static final String PLAIN =
+        "FROMHISSHOULDERHIAWATHATOOKTHECAMERAOFROSEWOODMADEOFSLIDING";
+
+    /** Return a naval machine with rotors B Beta III IV I inserted, set
+     *  to AXLE with rings to AAAF, and plugboard (YF) (ZH). */
+    private Machine navalMachine() {
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("B", new Permutation(NAVALA.get("B"),
+                                                      UPPER)));
+        rotors.add(new FixedRotor("Beta",
+                                  new Permutation(NAVALA.get("Beta"), UPPER)));
+        rotors.add(new MovingRotor("III",
+                                   new Permutation(NAVALA.get("III"), UPPER),
+                                   "V"));
+        rotors.add(new MovingRotor("IV",
+                                   new Permutation(NAVALA.get("IV"), UPPER),
+                                   "J"));
+        rotors.add(new MovingRotor("I",
+                                   new Permutation(NAVALA.get("I"), UPPER),
+                                   "Q"));
+        Machine M = new Machine(UPPER, 5, 3, rotors);
+        M.insertRotors(new String[] {"B", "Beta", "III", "IV", "I"});
+        M.setRotors("AXLE");
+        M.setRingRotors("AAAF");
+        M.setPlugboard(new Permutation("(YF) (ZH)", UPPER));
+        return M;
+    }
+
+    /** Return PLAIN with the SPANS[i][1] characters at SPANS[i][0]
+     *  replaced by TEXTS[i]. */
+    private String edited(String plain, int[][] spans, String[] texts) {
+        StringBuilder result = new StringBuilder();
+        int pos = 0;
+        for (int i = 0; i < spans.length; i += 1) {
+            result.append(plain, pos, spans[i][0]).append(texts[i]);
+            pos = spans[i][0] + spans[i][1];
+        }
+        return result.append(plain.substring(pos)).toString();
+    }
+
+    /** Check that editing the encryption of PLAIN, replacing the
+     *  SPANS[i][1] characters at SPANS[i][0] by TEXTS[i], gives the
+     *  encryption of the edited plaintext, and leaves the machine where
+     *  encrypting it would. */
+    private void checkEdits(int[][] spans, String... texts) {
+        ArrayList<MessageEditor.Edit> edits = new ArrayList<>();
+        for (int i = 0; i < spans.length; i += 1) {
+            edits.add(new MessageEditor.Edit(spans[i][0], spans[i][1],
+                                             texts[i]));
+        }
+        String cipher = navalMachine().convert(PLAIN);
+        Machine expected = navalMachine();
+        String full = expected.convert(edited(PLAIN, spans, texts));
+
+        Machine M = navalMachine();
+        assertEquals(full, new MessageEditor(M).apply(cipher, edits));
+        for (int k = 0; k < M.numRotors(); k += 1) {
+            assertEquals(expected.rotor(k).setting(), M.rotor(k).setting());
+        }
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testNoEdits() {
+        String cipher = navalMachine().convert(PLAIN);
+        assertEquals(cipher, new MessageEditor(navalMachine())
+                     .apply(cipher, Arrays.asList()));
+    }
+
+    @Test
+    public void testSameLength() {
+        checkEdits(new int[][] {{4, 3}, {30, 5}}, "HER", "QUILL");
+    }
+
+    @Test
+    public void testInsertion() {
+        checkEdits(new int[][] {{0, 0}, {20, 2}}, "XX", "ABCD");
+    }
+
+    @Test
+    public void testDeletion() {
+        checkEdits(new int[][] {{10, 7}, {40, 1}}, "", "ZZ");
+    }
+
+    @Test
+    public void testEditAtEnd() {
+        checkEdits(new int[][] {{PLAIN.length(), 0}}, "END");
+    }
+
+}
@@ -0,0 +1,169 @@
+package enigma;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import static enigma.EnigmaException.*;
+import static enigma.EnigmaException.Kind.*;
+
+/** Live metrics of this process: characters, messages and sections
+ *  converted, message latencies and errors.  Recording only adds to
+ *  LongAdders, which stripe their counts across threads, so the many
+ *  threads of the batch and search modes may record at once without
+ *  contending.  The metrics are published through JMX as the MBean
+ *  enigma:type=Metrics once register() is called.
+ *  @author Truong Le
+ */
+class Metrics implements MetricsMBean {
+
+    /** The JMX name of the metrics MBean. */
+    static final String NAME = "enigma:type=Metrics";
+
+    /** Return the metrics of this process. */
+    static Metrics global() {
+        return GLOBAL;
+    }
+
+    /** Publish global() on the platform MBean server, if it is not
+     *  published already. */
+    static synchronized void register() {
+        try {
+            ObjectName name = new ObjectName(NAME);
+            if (!ManagementFactory.getPlatformMBeanServer()
+                .isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(GLOBAL, name);
+            }
+        } catch (JMException excp) {
+            throw error(IO,
+                        "could not register metrics: %s", excp.getMessage());
+        }
+    }
+
+    /** Record the conversion of one message of CHARS characters, which
+     *  took NANOS nanoseconds. */
+    void message(long chars, long nanos) {
+        _chars.add(chars);
+        _messages.increment();
+        _latency.record(nanos);
+    }
+
+    /** Record the start of a section. */
+    void section() {
+        _sections.increment();
+    }
+
+    /** Record the error EXCP. */
+    void reportError(EnigmaException excp) {
+        _errors.computeIfAbsent(excp.category(), k -> new LongAdder())
+            .increment();
+    }
+
+    @Override
+    public long getCharsConverted() {
+        return _chars.sum();
+    }
+
+    @Override
+    public long getMessages() {
+        return _messages.sum();
+    }
+
+    @Override
+    public long getSections() {
+        return _sections.sum();
+    }
+
+    @Override
+    public synchronized double getCharsPerSecond() {
+        long now = System.nanoTime(), chars = _chars.sum();
+        long elapsed = now - _rateTime;
+        if (elapsed >= RATE_WINDOW) {
+            _rate = (chars - _rateChars) * NANOS_PER_SECOND / elapsed;
+            _rateTime = now;
+            _rateChars = chars;
+        }
+        return _rate;
+    }
+
+    @Override
+    public long getMessageLatencyP50() {
+        return _latency.percentile(P50);
+    }
+
+    @Override
+    public long getMessageLatencyP90() {
+        return _latency.percentile(P90);
+    }
+
+    @Override
+    public long getMessageLatencyP99() {
+        return _latency.percentile(P99);
+    }
+
+    @Override
+    public long getMessageLatencyMax() {
+        return _latency.max();
+    }
+
+    @Override
+    public long getErrors() {
+        long total = 0;
+        for (LongAdder count : _errors.values()) {
+            total += count.sum();
+        }
+        return total;
+    }
+
+    @Override
+    public Map<String, Long> getErrorsByCategory() {
+        TreeMap<String, Long> result = new TreeMap<>();
+        _errors.forEach((category, count) ->
+                        result.put(category, count.sum()));
+        return result;
+    }
+
+    @Override
+    public synchronized void reset() {
+        _chars.reset();
+        _messages.reset();
+        _sections.reset();
+        _latency.reset();
+        _errors.clear();
+        _rateTime = System.nanoTime();
+        _rateChars = 0;
+        _rate = 0;
+    }
+
+    /** The metrics of this process. */
+    private static final Metrics GLOBAL = new Metrics();
+
+    /** Shortest period over which the rate is measured, in
+     *  nanoseconds. */
+    private static final long RATE_WINDOW = 1_000_000_000L;
+    /** Nanoseconds per second. */
+    private static final double NANOS_PER_SECOND = 1e9;
+    /** Percentiles published. */
+    private static final double P50 = 0.5, P90 = 0.9, P99 = 0.99;
+
+    /** Characters converted. */
+    private final LongAdder _chars = new LongAdder();
+    /** Messages converted. */
+    private final LongAdder _messages = new LongAdder();
+    /** Sections processed. */
+    private final LongAdder _sections = new LongAdder();
+    /** Time per message. */
+    private final LatencyHistogram _latency = new LatencyHistogram();
+    /** Errors, by category. */
+    private final ConcurrentHashMap<String, LongAdder> _errors =
+        new ConcurrentHashMap<>();
+    /** Time and character count when the rate was last measured. */
+    private long _rateTime = System.nanoTime(), _rateChars;
+    /** Rate last measured. */
+    private double _rate;
+}
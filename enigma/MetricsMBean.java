@@ -0,0 +1,50 @@
+package enigma;
+
+import java.util.Map;
+
+/** The management interface of the simulator's live metrics (see
+ *  Metrics).  JMX requires management interfaces to be public.
+ *  @author Truong Le
+ */
+public interface MetricsMBean {
+
+    /** Returns the total number of characters converted. */
+    long getCharsConverted();
+
+    /** Returns the number of messages (message lines, or binary
+     *  transfers) converted. */
+    long getMessages();
+
+    /** Returns the number of sections (settings lines) processed. */
+    long getSections();
+
+    /** Returns the number of characters converted per second, averaged
+     *  since this value was last read (or over the last second, if it
+     *  was read more recently than that). */
+    double getCharsPerSecond();
+
+    /** Returns the median time to convert a message, in nanoseconds. */
+    long getMessageLatencyP50();
+
+    /** Returns the 90th percentile time to convert a message, in
+     *  nanoseconds. */
+    long getMessageLatencyP90();
+
+    /** Returns the 99th percentile time to convert a message, in
+     *  nanoseconds. */
+    long getMessageLatencyP99();
+
+    /** Returns the longest time taken to convert a message, in
+     *  nanoseconds. */
+    long getMessageLatencyMax();
+
+    /** Returns the total number of errors reported. */
+    long getErrors();
+
+    /** Returns the number of errors reported, by category (see
+     *  EnigmaException.category). */
+    Map<String, Long> getErrorsByCategory();
+
+    /** Set every count to 0. */
+    void reset();
+}
@@ -0,0 +1,65 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/** The suite of all JUnit tests for Metrics and LatencyHistogram.
+ *  @author Truong Le
+ */
+public class MetricsTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    @Test
+    public void testBuckets() {
+        for (long v : new long[] {0, 1, 7, 8, 9, 15, 16, 1000, 123456789,
+                                  Long.MAX_VALUE}) {
+            int b = LatencyHistogram.bucket(v);
+            assertTrue(v <= LatencyHistogram.upperBound(b));
+            assertTrue(b == 0 || v > LatencyHistogram.upperBound(b - 1));
+            assertTrue(LatencyHistogram.upperBound(b) - v <= v / 8);
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.percentile(0.5));
+        for (long v = 1; v <= 1000; v += 1) {
+            h.record(v * 1000);
+        }
+        assertEquals(1000, h.count());
+        assertEquals(1000000, h.max());
+        long p50 = h.percentile(0.5), p99 = h.percentile(0.99);
+        assertTrue(p50 >= 500000 && p50 <= 500000 * 9 / 8);
+        assertTrue(p99 >= 990000 && p99 <= 1000000);
+        h.reset();
+        assertEquals(0, h.count());
+    }
+
+    @Test
+    public void testMBean() throws Exception {
+        Metrics.register();
+        Metrics.register();
+        Metrics.global().reset();
+        Metrics.global().message(4, 1000);
+        Metrics.global().reportError(EnigmaException.error("test"));
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(Metrics.NAME);
+        assertEquals(4L, server.getAttribute(name, "CharsConverted"));
+        assertEquals(1L, server.getAttribute(name, "Messages"));
+        assertEquals(1L, server.getAttribute(name, "Errors"));
+        assertEquals(1L, Metrics.global().getErrorsByCategory()
+                     .get("data").longValue());
+    }
+
+}
@@ -14,8 +14,14 @@ class MovingRotor extends Rotor {
      */
     MovingRotor(String name, Permutation perm, String notches) {
         super(name, perm);
-        _notches = notches;
+        _notches = new boolean[perm.size()];
         _perm = perm;
+        notches.codePoints().forEach(c -> {
+            int posn = perm.alphabet().indexOf(c);
+            if (posn >= 0) {
+                _notches[posn] = true;
+            }
+        });
     }
 
     @Override
@@ -24,8 +30,8 @@ class MovingRotor extends Rotor {
     }
 
     @Override
-    boolean atNotch() {
-        return _notches.indexOf(alphabet().toChar(this.setting())) != -1;
+    boolean notchAt(int posn) {
+        return _notches[posn];
     }
 
     @Override
@@ -34,8 +40,8 @@ class MovingRotor extends Rotor {
 
     }
 
-    /** All the notches of the Rotor. */
-    private String _notches;
+    /** Notch flags of the Rotor, indexed by setting. */
+    private boolean[] _notches;
     /** Permutation of rotor. */
     private Permutation _perm;
 }
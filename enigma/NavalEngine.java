@@ -0,0 +1,107 @@
+package enigma;
+
+/** The engine for the shape of the naval machine: 26 letters, 5 slots
+ *  (a reflector, a fixed rotor and 3 rotors with pawls).  The stepping
+ *  rule and the nine substitution stages are written out over the packed
+ *  byte tables of MachineTables, and the alphabet size is a constant, so
+ *  the loop has no inner loops, no virtual calls and no division, and
+ *  its tables fit in four cache lines.
+ *  @author Truong Le
+ */
+class NavalEngine extends Engine {
+
+    /** Return true iff TABLES has the shape this engine handles. */
+    static boolean fits(MachineTables tables) {
+        return tables.size() == N && tables.numRotors() == SLOTS
+            && tables.numPawls() == PAWLS && !tables.rotates(1)
+            && !tables.reflecting(1);
+    }
+
+    /** An engine for the rotor order compiled in TABLES, which must fit
+     *  (see fits). */
+    NavalEngine(MachineTables tables) {
+        _tables = tables.packedBytes();
+        _notches2 = tables.notches(2);
+        _notches3 = tables.notches(3);
+        _notches4 = tables.notches(4);
+    }
+
+    @Override
+    String name() {
+        return "naval 26x5/3";
+    }
+
+    @Override
+    void run(int[] posns, int[] rings, int[] plugs, int[] chars,
+             int count) {
+        byte[] t = _tables;
+        boolean[] n2 = _notches2, n3 = _notches3, n4 = _notches4;
+        int p2 = posns[2], p3 = posns[3], p4 = posns[4];
+        int r2 = rings[2], r3 = rings[3], r4 = rings[4];
+        int o1 = sub(posns[1], rings[1]);
+        for (int i = 0; i < count; i += 1) {
+            boolean at2 = n2[p2], at3 = n3[p3], at4 = n4[p4];
+            if (at2 || at3) {
+                p2 = inc(p2);
+            }
+            if (at3 || at4) {
+                p3 = inc(p3);
+            }
+            p4 = inc(p4);
+            int o2 = sub(p2, r2), o3 = sub(p3, r3), o4 = sub(p4, r4);
+
+            int c = chars[i];
+            if (plugs != null) {
+                c = plugs[c];
+            }
+            c = stage(t, 0, c, o4);
+            c = stage(t, N, c, o3);
+            c = stage(t, 2 * N, c, o2);
+            c = stage(t, 3 * N, c, o1);
+            c = t[4 * N + c];
+            c = stage(t, 5 * N, c, o1);
+            c = stage(t, 6 * N, c, o2);
+            c = stage(t, 7 * N, c, o3);
+            c = stage(t, 8 * N, c, o4);
+            if (plugs != null) {
+                c = plugs[c];
+            }
+            chars[i] = c;
+        }
+        posns[2] = p2;
+        posns[3] = p3;
+        posns[4] = p4;
+    }
+
+    /** Return the conversion of C by the stage of TABLES starting at
+     *  BASE, in a slot whose setting less ring setting is OFFSET.  With
+     *  26 letters, entries are never negative, so they need no mask. */
+    private static int stage(byte[] tables, int base, int c, int offset) {
+        int i = c + offset;
+        int r = tables[base + (i >= N ? i - N : i)] - offset;
+        return r < 0 ? r + N : r;
+    }
+
+    /** Return P + 1 modulo N, for 0 <= P < N. */
+    private static int inc(int p) {
+        return p + 1 == N ? 0 : p + 1;
+    }
+
+    /** Return A - B modulo N, for 0 <= A, B < N. */
+    private static int sub(int a, int b) {
+        int r = a - b;
+        return r < 0 ? r + N : r;
+    }
+
+    /** Alphabet size. */
+    private static final int N = 26;
+    /** Number of slots. */
+    private static final int SLOTS = 5;
+    /** Number of pawls. */
+    private static final int PAWLS = 3;
+
+    /** Packed tables of the nine stages. */
+    private final byte[] _tables;
+    /** Notch flags of slots 2 to 4. */
+    private final boolean[] _notches2, _notches3, _notches4;
+}
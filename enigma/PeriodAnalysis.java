@@ -0,0 +1,316 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static enigma.EnigmaException.*;
+import static enigma.EnigmaException.Kind.*;
+
+/** The stepping structure of every rotor order of a configuration.  A
+ *  machine's rotor settings evolve by a fixed function of its settings
+ *  alone (its state), so from any state they eventually enter a cycle.
+ *  For each rotor order, the analysis steps every state once, as
+ *  MachineTables.advance does, and finds the cycles of the resulting
+ *  function (the periods), the states some state steps to (reached) and
+ *  the states no state steps to (never reached: they occur only as
+ *  starting settings).  With notches that make rotors double-step, or
+ *  rotors with several notches, there are states of both kinds.
+ *
+ *  A state is the settings of the rotors that can move: those with pawls
+ *  and, where the stepping rule lets a rotating rotor move there, the one
+ *  to their left.  Rotor orders place reflectors in slot 0, rotating
+ *  rotors in the slots with pawls and fixed rotors in the others (or any
+ *  rotor that does not reflect, if there are too few fixed rotors).
+ *  Orders whose moving slots have the same notches step alike, so each
+ *  such layout is analysed once; layouts are analysed in parallel.
+ *  @author Truong Le
+ */
+class PeriodAnalysis {
+
+    /** The stepping structure of one rotor order. */
+    static class Result {
+
+        /** The result for the rotor order NAMES, whose moving slots (by
+         *  slot number) are SLOTS, with cycle lengths CYCLES, where
+         *  REACHED holds the states some state steps to, among STATES
+         *  states, and ALPHABET is the alphabet. */
+        Result(String[] names, int[] slots, int[] cycles, BitSet reached,
+               int states, Alphabet alphabet) {
+            _names = names;
+            _slots = slots;
+            _cycles = cycles;
+            _reached = reached;
+            _states = states;
+            _alphabet = alphabet;
+        }
+
+        /** Return the names of the rotors of the order, reflector
+         *  first. */
+        String[] names() {
+            return _names;
+        }
+
+        /** Return the number of states. */
+        int states() {
+            return _states;
+        }
+
+        /** Return the lengths of the cycles of the stepping function, in
+         *  increasing order. */
+        int[] cycles() {
+            return _cycles;
+        }
+
+        /** Return the states that some state steps to. */
+        BitSet reached() {
+            return _reached;
+        }
+
+        /** Return the number of states no state steps to. */
+        int neverReached() {
+            return _states - _reached.cardinality();
+        }
+
+        /** Return STATE as the settings of my moving slots, from left to
+         *  right, as characters of the alphabet. */
+        String state(int state) {
+            char[] result = new char[_slots.length];
+            int n = _alphabet.size();
+            for (int i = _slots.length - 1; i >= 0; i -= 1) {
+                result[i] = _alphabet.toChar(state % n);
+                state /= n;
+            }
+            return new String(result);
+        }
+
+        /** Return a one-line summary: the order, its distinct periods,
+         *  and the numbers of reached and never reached states. */
+        @Override
+        public String toString() {
+            StringBuilder periods = new StringBuilder();
+            int count = 0;
+            for (int i = 0; i < _cycles.length; i += 1) {
+                count += 1;
+                if (i + 1 == _cycles.length || _cycles[i + 1] != _cycles[i]) {
+                    if (periods.length() > 0) {
+                        periods.append(' ');
+                    }
+                    periods.append(_cycles[i]);
+                    if (count > 1) {
+                        periods.append('x').append(count);
+                    }
+                    count = 0;
+                }
+            }
+            return String.format("%s: period %s; %d of %d states reached, "
+                                 + "%d never reached",
+                                 String.join(" ", _names), periods,
+                                 _reached.cardinality(), _states,
+                                 neverReached());
+        }
+
+        /** Rotor names. */
+        private final String[] _names;
+        /** Moving slots. */
+        private final int[] _slots;
+        /** Cycle lengths. */
+        private final int[] _cycles;
+        /** Reached states. */
+        private final BitSet _reached;
+        /** Number of states. */
+        private final int _states;
+        /** The alphabet. */
+        private final Alphabet _alphabet;
+    }
+
+    /** Return the analysis of every rotor order of configuration SPEC, in
+     *  order of rotor ids, using THREADS threads. */
+    static List<Result> analyse(MachineSpec spec, int threads) {
+        List<int[]> orders = orders(spec);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            HashMap<String, Future<Layout>> layouts = new HashMap<>();
+            ArrayList<Future<Layout>> pending = new ArrayList<>();
+            for (int[] ids : orders) {
+                Machine M = spec.newMachine();
+                M.insertRotors(ids);
+                MachineTables tables = new MachineTables(M);
+                pending.add(layouts.computeIfAbsent(
+                    layoutKey(tables), key -> pool.submit(() ->
+                        new Layout(tables))));
+            }
+            ArrayList<Result> results = new ArrayList<>();
+            for (int i = 0; i < orders.size(); i += 1) {
+                int[] ids = orders.get(i);
+                String[] names = new String[ids.length];
+                for (int k = 0; k < ids.length; k += 1) {
+                    names[k] = spec.registry().name(ids[k]);
+                }
+                Layout layout = pending.get(i).get();
+                results.add(new Result(names, layout._slots, layout._cycles,
+                                       layout._reached, layout._states,
+                                       spec.alphabet()));
+            }
+            return results;
+        } catch (InterruptedException excp) {
+            throw error(INTERNAL, "period analysis interrupted");
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof EnigmaException) {
+                throw (EnigmaException) excp.getCause();
+            }
+            throw error(INTERNAL,
+                        "period analysis failed: %s", excp.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** Return the rotor orders of SPEC, as arrays of rotor ids, in
+     *  lexicographic order of ids. */
+    static List<int[]> orders(MachineSpec spec) {
+        RotorRegistry registry = spec.registry();
+        int numRotors = spec.numRotors(),
+            first = numRotors - spec.numPawls();
+        int fixed = 0;
+        for (int id = 0; id < registry.size(); id += 1) {
+            fixed += registry.type(id) == 'N' ? 1 : 0;
+        }
+        boolean anyFixed = fixed < first - 1;
+        List<int[]> result = new ArrayList<>();
+        fill(registry, new int[numRotors], 0, first, anyFixed, result);
+        return result;
+    }
+
+    /** Add to RESULT every order that completes the first K slots of
+     *  IDS, where slots FIRST and up have pawls, and other slots but the
+     *  reflector's hold fixed rotors, or any that do not reflect if
+     *  ANYFIXED. */
+    private static void fill(RotorRegistry registry, int[] ids, int k,
+                             int first, boolean anyFixed,
+                             List<int[]> result) {
+        if (k == ids.length) {
+            result.add(ids.clone());
+            return;
+        }
+        for (int id = 0; id < registry.size(); id += 1) {
+            char type = registry.type(id);
+            boolean fits = k == 0 ? type == 'R'
+                : k >= first ? type == 'M'
+                : type == 'N' || (anyFixed && type == 'M');
+            boolean used = false;
+            for (int j = 0; j < k; j += 1) {
+                used |= ids[j] == id;
+            }
+            if (fits && !used) {
+                ids[k] = id;
+                fill(registry, ids, k + 1, first, anyFixed, result);
+            }
+        }
+    }
+
+    /** Return a key that is equal for rotor orders whose tables TABLES
+     *  step alike: the same rotation, reflection and notches in the
+     *  slots the stepping rule consults. */
+    private static String layoutKey(MachineTables tables) {
+        StringBuilder key = new StringBuilder();
+        int first = tables.numRotors() - tables.numPawls();
+        for (int k = Math.max(0, first - 1); k < tables.numRotors();
+             k += 1) {
+            key.append(tables.rotates(k) ? 'M' : 'N')
+                .append(tables.reflecting(k) ? 'R' : '-')
+                .append(Arrays.toString(tables.notches(k)));
+        }
+        return key.toString();
+    }
+
+    /** The stepping structure shared by the rotor orders of one
+     *  layout. */
+    private static class Layout {
+
+        /** Analyse the stepping of TABLES. */
+        Layout(MachineTables tables) {
+            int n = tables.size(), numRotors = tables.numRotors(),
+                first = numRotors - tables.numPawls();
+            int[] posns = new int[numRotors];
+            ArrayList<Integer> slots = new ArrayList<>();
+            for (int k = Math.max(1, first - 1);
+                 tables.numPawls() > 0 && k < numRotors; k += 1) {
+                if (tables.rotates(k)
+                    && (k >= first || tables.advances(k, false, true))) {
+                    slots.add(k);
+                }
+            }
+            _slots = slots.stream().mapToInt(Integer::intValue).toArray();
+            long states = 1;
+            for (int i = 0; i < _slots.length; i += 1) {
+                states *= n;
+                if (states > MAX_STATES) {
+                    throw error("too many states to analyse");
+                }
+            }
+            _states = (int) states;
+
+            int[] next = new int[_states];
+            _reached = new BitSet(_states);
+            for (int s = 0; s < _states; s += 1) {
+                for (int i = _slots.length - 1, v = s; i >= 0; i -= 1) {
+                    posns[_slots[i]] = v % n;
+                    v /= n;
+                }
+                tables.advance(posns);
+                int t = 0;
+                for (int slot : _slots) {
+                    t = t * n + posns[slot];
+                }
+                next[s] = t;
+                _reached.set(t);
+            }
+            _cycles = cycles(next);
+        }
+
+        /** Return the lengths of the cycles of the function NEXT on
+         *  0 .. NEXT.length - 1, in increasing order. */
+        private static int[] cycles(int[] next) {
+            int[] visit = new int[next.length];
+            ArrayList<Integer> lengths = new ArrayList<>();
+            for (int s = 0; s < next.length; s += 1) {
+                if (visit[s] != 0) {
+                    continue;
+                }
+                int stamp = s + 1, t = s;
+                while (visit[t] == 0) {
+                    visit[t] = stamp;
+                    t = next[t];
+                }
+                if (visit[t] == stamp) {
+                    int length = 1;
+                    for (int u = next[t]; u != t; u = next[u]) {
+                        length += 1;
+                    }
+                    lengths.add(length);
+                }
+            }
+            return lengths.stream().mapToInt(Integer::intValue)
+                .sorted().toArray();
+        }
+
+        /** Moving slots. */
+        private final int[] _slots;
+        /** Number of states. */
+        private final int _states;
+        /** Reached states. */
+        private final BitSet _reached;
+        /** Cycle lengths. */
+        private final int[] _cycles;
+    }
+
+    /** Largest number of states analysed for one layout. */
+    private static final long MAX_STATES = 1 << 26;
+}
@@ -0,0 +1,138 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the period analysis.
+ *  @author Truong Le
+ */
+public class PeriodAnalysisTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** The rotors of the configuration analysed. */
+    private static final String[] ROTORS = {"I", "II", "III", "VI", "Beta",
+                                            "B"};
+
+    /** Return the result for the order NAMES among RESULTS. */
+    private static PeriodAnalysis.Result find(
+        List<PeriodAnalysis.Result> results, String names) {
+        for (PeriodAnalysis.Result result : results) {
+            if (String.join(" ", result.names()).equals(names)) {
+                return result;
+            }
+        }
+        fail("no order " + names);
+        return null;
+    }
+
+    /** Return the successor of every state (the settings of the last
+     *  three slots) of a machine of configuration SPEC with the rotors
+     *  NAMES, found by stepping a Machine once from each. */
+    private static int[] stepped(MachineSpec spec, String names) {
+        Machine M = spec.newMachine();
+        M.insertRotors(names.split(" "));
+        int[] next = new int[26 * 26 * 26];
+        for (int s = 0; s < next.length; s += 1) {
+            char[] setting = {'A', 'A', 'A', 'A'};
+            for (int i = 3, v = s; i > 0; i -= 1, v /= 26) {
+                setting[i] = UPPER_STRING.charAt(v % 26);
+            }
+            M.setRotors(new String(setting));
+            M.convert(0);
+            int t = 0;
+            for (int k = 2; k < 5; k += 1) {
+                t = t * 26 + M.rotor(k).setting();
+            }
+            next[s] = t;
+        }
+        return next;
+    }
+
+    /** Return the lengths of the cycles of NEXT, in increasing order,
+     *  found by shrinking the set of all states to its image until it no
+     *  longer changes, which leaves the states on cycles. */
+    private static int[] cycles(int[] next) {
+        BitSet on = new BitSet();
+        on.set(0, next.length);
+        while (true) {
+            BitSet image = new BitSet();
+            for (int s = on.nextSetBit(0); s >= 0; s = on.nextSetBit(s + 1)) {
+                image.set(next[s]);
+            }
+            if (image.equals(on)) {
+                break;
+            }
+            on = image;
+        }
+        ArrayList<Integer> lengths = new ArrayList<>();
+        for (int s = on.nextSetBit(0); s >= 0; s = on.nextSetBit(s + 1)) {
+            int length = 0;
+            for (int t = s; on.get(t); t = next[t]) {
+                on.clear(t);
+                length += 1;
+            }
+            lengths.add(length);
+        }
+        return lengths.stream().mapToInt(Integer::intValue).sorted()
+            .toArray();
+    }
+
+    /** Assert that the analysis of NAMES among RESULTS, for configuration
+     *  SPEC, has exactly the cycles and reached states of a Machine. */
+    private static void assertStepping(MachineSpec spec,
+                                       List<PeriodAnalysis.Result> results,
+                                       String names) {
+        PeriodAnalysis.Result result = find(results, names);
+        int[] next = stepped(spec, names);
+        BitSet reached = new BitSet();
+        for (int t : next) {
+            reached.set(t);
+        }
+        assertEquals(next.length, result.states());
+        assertArrayEquals(names, cycles(next), result.cycles());
+        assertEquals(names, reached, result.reached());
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testOrders() {
+        List<PeriodAnalysis.Result> results =
+            PeriodAnalysis.analyse(naval(ROTORS), 2);
+        assertEquals(4 * 3 * 2, results.size());
+    }
+
+    @Test
+    public void testSingleNotches() {
+        MachineSpec spec = naval(ROTORS);
+        List<PeriodAnalysis.Result> results = PeriodAnalysis.analyse(spec, 2);
+        assertStepping(spec, results, "B Beta I II III");
+        assertStepping(spec, results, "B Beta III I II");
+        PeriodAnalysis.Result result = find(results, "B Beta I II III");
+        assertEquals(1, result.cycles().length);
+        assertEquals("AAA", result.state(0));
+    }
+
+    @Test
+    public void testDoubleNotches() {
+        MachineSpec spec = naval(ROTORS);
+        List<PeriodAnalysis.Result> results = PeriodAnalysis.analyse(spec, 2);
+        assertStepping(spec, results, "B Beta I VI II");
+        assertStepping(spec, results, "B Beta VI I II");
+        assertStepping(spec, results, "B Beta II III VI");
+    }
+
+}
@@ -1,10 +1,12 @@
 package enigma;
 import static enigma.EnigmaException.*;
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
+import static enigma.EnigmaException.Kind.*;
+import java.util.Arrays;
 
 /** Represents a permutation of a range of integers starting at 0 corresponding
- *  to the characters of an alphabet.
+ *  to the characters of an alphabet.  The permutation is stored as a pair
+ *  of lookup tables (forward and inverse), built in a single pass over the
+ *  cycle notation.
  *  @author Truong Le
  */
 class Permutation {
@@ -15,37 +17,122 @@ class Permutation {
      *  alphabet that are not included in any cycle map to themselves.
      *  Whitespace is ignored. */
     Permutation(String cycles, Alphabet alphabet) {
-        boolean invalidCy1, invalidCy2, invalidCy3;
-        for (int i = 0; i < cycles.length() - 1; i++) {
-            invalidCy1 = cycles.charAt(i) == '(' && cycles.charAt(i + 1) == ')';
-            invalidCy2 = cycles.charAt(i) == '(' && cycles.charAt(i + 1) == '(';
-            invalidCy3 = cycles.charAt(i) == ')' && cycles.charAt(i + 1) == ')';
-            if (invalidCy1 || invalidCy2 || invalidCy3) {
-                throw error("Cycle cannot be empty. Or invalid syntax");
-            }
-        }
         boolean invalidAlpha = alphabet.contains('(') || alphabet.contains(')')
                 || alphabet.contains(' ');
         if (invalidAlpha) {
-            throw error("Alphabet cannot contain ), ( or space");
+            throw error(CONFIG, "Alphabet cannot contain ), ( or space");
         }
+        _alphabet = alphabet;
+        start();
 
-        _cycles = cycles;
+        int[] members = new int[alphabet.size()];
+        int count = 0, prev = -1;
+        boolean inCycle = false;
+        for (int i = 0; i < cycles.length(); ) {
+            int c = cycles.codePointAt(i);
+            i += Character.charCount(c);
+            if (Character.isWhitespace(c)) {
+                continue;
+            }
+            if ((c == '(' || c == ')') && c == prev) {
+                throw error(CONFIG,
+                            "Cycle cannot be empty. Or invalid syntax");
+            }
+            prev = c;
+            if (c == '(') {
+                if (inCycle) {
+                    throw error(CONFIG,
+                                "Cycle cannot be empty. Or invalid syntax");
+                }
+                inCycle = true;
+                count = 0;
+            } else if (c == ')') {
+                if (!inCycle || count == 0) {
+                    throw error(CONFIG,
+                                "Cycle cannot be empty. Or invalid syntax");
+                }
+                addCycle(members, count);
+                inCycle = false;
+            } else if (!inCycle) {
+                throw error(CONFIG, "Characters must be inside cycles");
+            } else {
+                if (count == members.length) {
+                    throw error(CONFIG,
+                                "Character appears in more than one cycle");
+                }
+                members[count] = alphabet.toIndex(c);
+                count += 1;
+            }
+        }
+        if (inCycle) {
+            throw error(CONFIG, "Cycle cannot be empty. Or invalid syntax");
+        }
+        _placed = null;
+    }
+
+    /** Return the Permutation specified by CYCLES over ALPHABET, as for
+     *  the constructor, shared with any equal permutation already in use
+     *  (see PermutationInterner). */
+    static Permutation intern(String cycles, Alphabet alphabet) {
+        return PermutationInterner.global()
+            .intern(new Permutation(cycles, alphabet));
+    }
+
+    /** Set this Permutation to the one over ALPHABET whose cycles are
+     *  CYCLES, each given as an array of alphabet indices. */
+    Permutation(int[][] cycles, Alphabet alphabet) {
         _alphabet = alphabet;
-        _cyclesArr = cyclesArr();
-    }
-
-    /** Add the cycle c0->c1->...->cm->c0 to the permutation, where CYCLE is
-     *  c0c1...cm. */
-    private void addCycle(String cycle) {
-        Pattern pat = Pattern.compile("\\s");
-        Matcher mat = pat.matcher(cycle);
-        boolean found = mat.find();
-        if (found) {
-            throw error("Cycle cannot contain whitespace");
-        } else {
-            this._cycles += cycle;
+        start();
+        for (int[] cycle : cycles) {
+            if (cycle.length == 0) {
+                throw error(CONFIG,
+                            "Cycle cannot be empty. Or invalid syntax");
+            }
+            for (int c : cycle) {
+                if (c < 0 || c >= size()) {
+                    throw error(INTERNAL, "Character index out of range");
+                }
+            }
+            addCycle(cycle, cycle.length);
         }
+        _placed = null;
+    }
+
+    /** Initialize my tables to the identity. */
+    private void start() {
+        int n = _alphabet.size();
+        _forward = new int[n];
+        _inverse = new int[n];
+        _placed = new boolean[n];
+        for (int k = 0; k < n; k += 1) {
+            _forward[k] = _inverse[k] = k;
+        }
+        _cycleLengths = new int[0];
+    }
+
+    /** Add the cycle MEMBERS[0]->MEMBERS[1]->...->MEMBERS[COUNT-1]->
+     *  MEMBERS[0] to the permutation, where the members are alphabet
+     *  indices. */
+    private void addCycle(int[] members, int count) {
+        for (int j = 0; j < count; j += 1) {
+            if (_placed[members[j]]) {
+                throw error(CONFIG,
+                            "Character appears in more than one cycle");
+            }
+            _placed[members[j]] = true;
+        }
+        for (int j = 0; j < count; j += 1) {
+            int from = members[j], to = members[j + 1 == count ? 0 : j + 1];
+            _forward[from] = to;
+            _inverse[to] = from;
+        }
+        int n = _cycleLengths.length;
+        if (n == _numCycles) {
+            _cycleLengths = Arrays.copyOf(_cycleLengths, 2 * n + 1);
+        }
+        _cycleLengths[_numCycles] = count;
+        _numCycles += 1;
+        _cycled += count;
     }
 
     /** Return the value of P modulo the size of this permutation. */
@@ -57,23 +144,11 @@ class Permutation {
         return r;
     }
 
-    /**
-     * Put all cycles into String Array in order to
-     * facilitate cycles manipulation (permute/invert).
-     * @return all cycles as String Array
-     */
-    public String[] cyclesArr() {
-        String cycNoSpace = _cycles.replaceAll(" ", "");
-        String[] cyclesArr = cycNoSpace.split("\\)");
-        for (int i = 0; i < cyclesArr.length; i++) {
-            if (cyclesArr[i].length() > 0) {
-                cyclesArr[i] = cyclesArr[i].substring(1);
-            }
-        }
-        return cyclesArr;
+    /** Return the lengths of my cycles, in the order given. */
+    int[] cycleLengths() {
+        return Arrays.copyOf(_cycleLengths, _numCycles);
     }
 
-
     /** Returns the size of the alphabet I permute. */
     int size() {
         return _alphabet.size();
@@ -83,73 +158,41 @@ class Permutation {
      *  alphabet size. */
     int permute(int p) {
         if (p < 0 || p > this.size() - 1) {
-            throw error("Character index out of range");
-        }
-        char chFr = _alphabet.toChar(wrap(p));
-        char chTo = '\0';
-        for (String cycle: _cyclesArr) {
-            if (cycle.indexOf(chFr) != -1) {
-                if (cycle.length() == 1) {
-                    chTo = chFr;
-                } else if (cycle.indexOf(chFr) == cycle.length() - 1) {
-                    chTo = cycle.charAt(0);
-                } else {
-                    chTo = cycle.charAt(cycle.indexOf(chFr) + 1);
-                }
-            }
-        }
-        if (chTo == '\0') {
-            return _alphabet.toInt(chFr);
-        } else {
-            return _alphabet.toInt(chTo);
+            throw error(INTERNAL, "Character index out of range");
         }
+        return _forward[p];
     }
 
     /** Return the result of applying the inverse of this permutation
      *  to  C modulo the alphabet size. */
     int invert(int c) {
         if (c < 0 || c > this.size() - 1) {
-            throw error("Character index out of range");
-        }
-        char chFr = _alphabet.toChar(wrap(c));
-        char chTo = '\0';
-        for (String cycle: _cyclesArr) {
-            if (cycle.indexOf(chFr) != -1) {
-                if (cycle.length() == 1) {
-                    chTo = chFr;
-                } else if (cycle.indexOf(chFr) == 0) {
-                    chTo = cycle.charAt(cycle.length() - 1);
-                } else {
-                    chTo = cycle.charAt(cycle.indexOf(chFr) - 1);
-                }
-            }
-        }
-        if (chTo == '\0') {
-            return _alphabet.toInt(chFr);
-        } else {
-            return _alphabet.toInt(chTo);
+            throw error(INTERNAL, "Character index out of range");
         }
+        return _inverse[c];
     }
 
     /** Return the result of applying this permutation to the index of P
      *  in ALPHABET, and converting the result to a character of ALPHABET. */
     char permute(char p) {
-        if (!_alphabet.contains(p)) {
-            throw error("Character not in Alphabet");
-        }
-        int indexFr = _alphabet.toInt(p);
-        int indexTo = permute(indexFr);
-        return _alphabet.toChar(indexTo);
+        return _alphabet.toChar(_forward[_alphabet.toInt(p)]);
     }
 
     /** Return the result of applying the inverse of this permutation to C. */
     char invert(char c) {
-        if (!_alphabet.contains(c)) {
-            throw error("Character not in Alphabet");
-        }
-        int indexFr = _alphabet.toInt(c);
-        int indexTo = invert(indexFr);
-        return _alphabet.toChar(indexTo);
+        return _alphabet.toChar(_inverse[_alphabet.toInt(c)]);
+    }
+
+    /** Return a table whose entry #K is permute(K).  The table is shared,
+     *  so callers must not modify it. */
+    int[] forwardTable() {
+        return _forward;
+    }
+
+    /** Return a table whose entry #K is invert(K), shared as for
+     *  forwardTable(). */
+    int[] inverseTable() {
+        return _inverse;
     }
 
     /** Return the alphabet used to initialize this Permutation. */
@@ -163,17 +206,21 @@ class Permutation {
         if (this.size() == 1) {
             return false;
         }
-        int cyclesLength = 0;
-        for (String cycle: _cyclesArr) {
-            cyclesLength += cycle.length();
-        }
-        return cyclesLength == this.size();
+        return _cycled == this.size();
     }
 
     /** Alphabet of this permutation. */
     private Alphabet _alphabet;
-    /** Cycles represented as string of this permutation. */
-    private String _cycles;
-    /** Array of cycles of this permutation. */
-    private String[] _cyclesArr;
+    /** Forward lookup table. */
+    private int[] _forward;
+    /** Inverse lookup table. */
+    private int[] _inverse;
+    /** Lengths of my cycles; only the first _numCycles are used. */
+    private int[] _cycleLengths;
+    /** Number of cycles. */
+    private int _numCycles;
+    /** Total number of characters in my cycles. */
+    private int _cycled;
+    /** Marks characters already placed in a cycle, while building. */
+    private boolean[] _placed;
 }
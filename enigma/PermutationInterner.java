@@ -0,0 +1,140 @@
+package enigma;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** A process-wide set of permutations, holding one copy of each distinct
+ *  permutation in use.  Permutations are keyed by the characters of their
+ *  alphabet, their forward table and their number of cycles, which
+ *  together are the canonical form of their cycles: "(AB) (CD)", "(DC)(BA)"
+ *  and "(BA) (CD)" all intern to the same Permutation, but "(AB) (CD) (E)"
+ *  does not, since its fixed point (E) is written out and plugboards
+ *  reject such cycles.  Since a Permutation is never modified once built,
+ *  the rotors and plugboards of any number of configurations, machines
+ *  and threads may share it, along with its lookup tables.
+ *
+ *  The set holds its permutations weakly, so a permutation no longer used
+ *  by any rotor or plugboard may be collected; the entries of collected
+ *  permutations are dropped on the next call to intern().
+ *  @author Truong Le
+ */
+class PermutationInterner {
+
+    /** Return the interner shared by the whole process. */
+    static PermutationInterner global() {
+        return GLOBAL;
+    }
+
+    /** Return the permutation equal to PERM in this set, adding PERM if
+     *  there is none. */
+    Permutation intern(Permutation perm) {
+        expunge();
+        Key key = new Key(perm);
+        while (true) {
+            Entry entry = _entries.computeIfAbsent(key,
+                k -> new Entry(k, perm, _collected));
+            Permutation result = entry.get();
+            if (result != null) {
+                return result;
+            }
+            _entries.remove(key, entry);
+        }
+    }
+
+    /** Return the number of distinct permutations in this set, including
+     *  any collected since the last call to intern(). */
+    int size() {
+        return _entries.size();
+    }
+
+    /** Drop the entries of collected permutations. */
+    private void expunge() {
+        for (Object ref = _collected.poll(); ref != null;
+             ref = _collected.poll()) {
+            Entry entry = (Entry) ref;
+            _entries.remove(entry._key, entry);
+        }
+    }
+
+    /** The lookup key of a permutation: its alphabet's characters, its
+     *  forward table and its number of cycles, compared by content.  A key
+     *  refers to the tables of its permutation rather than copying them. */
+    private static final class Key {
+
+        /** The key of PERM. */
+        Key(Permutation perm) {
+            _alphabet = perm.alphabet();
+            _forward = perm.forwardTable();
+            _cycles = perm.cycleLengths().length;
+            int hash = 31 * Arrays.hashCode(_forward) + _cycles;
+            for (int k = 0; k < _alphabet.size(); k += 1) {
+                hash = 31 * hash + _alphabet.codePoint(k);
+            }
+            _hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            if (_hash != other._hash || _cycles != other._cycles
+                || !Arrays.equals(_forward, other._forward)) {
+                return false;
+            }
+            if (_alphabet == other._alphabet) {
+                return true;
+            }
+            for (int k = 0; k < _alphabet.size(); k += 1) {
+                if (_alphabet.codePoint(k) != other._alphabet.codePoint(k)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return _hash;
+        }
+
+        /** The alphabet of the permutation. */
+        private final Alphabet _alphabet;
+        /** The forward table of the permutation. */
+        private final int[] _forward;
+        /** The number of cycles of the permutation. */
+        private final int _cycles;
+        /** My hash code. */
+        private final int _hash;
+    }
+
+    /** A weak reference to an interned permutation, which remembers its
+     *  key so that it can be dropped once the permutation is collected. */
+    private static final class Entry extends WeakReference<Permutation> {
+
+        /** A reference to PERM, whose key is KEY, enqueued on QUEUE once
+         *  PERM is collected. */
+        Entry(Key key, Permutation perm,
+              ReferenceQueue<Permutation> queue) {
+            super(perm, queue);
+            _key = key;
+        }
+
+        /** The key of my permutation. */
+        private final Key _key;
+    }
+
+    /** The interner shared by the whole process. */
+    private static final PermutationInterner GLOBAL =
+        new PermutationInterner();
+
+    /** Interned permutations by key. */
+    private final ConcurrentHashMap<Key, Entry> _entries =
+        new ConcurrentHashMap<>();
+    /** Entries whose permutations have been collected. */
+    private final ReferenceQueue<Permutation> _collected =
+        new ReferenceQueue<>();
+}
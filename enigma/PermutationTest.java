@@ -188,4 +188,61 @@ public class PermutationTest {
         Permutation p3 = new Permutation("(A)", new Alphabet("A"));
         assertEquals(false, p3.derangement());
     }
+
+    @Test
+    public void testSupplementaryCodePoints() {
+        Alphabet a = new Alphabet("\u7532\ud840\udc00\u4e59\ud840\udc01");
+        assertEquals(4, a.size());
+        Permutation p = new Permutation("(\ud840\udc00\u4e59 \u7532)", a);
+        assertEquals(2, p.permute(1));
+        assertEquals(0, p.permute(2));
+        assertEquals(1, p.permute(0));
+        assertEquals(3, p.permute(3));
+        assertEquals(2, p.invert(0));
+        assertEquals(0x20000, a.codePoint(p.permute(0)));
+    }
+
+    @Test
+    public void testSparseAlphabet() {
+        Alphabet a = new Alphabet(new int[] {0x41, 0x10ffff, 0x3000, 0x20001});
+        assertEquals(1, a.toIndex(0x10ffff));
+        assertEquals(3, a.toIndex(0x20001));
+        assertEquals(-1, a.indexOf(0x42));
+        Permutation p = new Permutation(new int[][] {{0, 3}, {1, 2}}, a);
+        assertEquals(3, p.permute(0));
+        assertEquals(1, p.invert(2));
+        assertEquals(true, p.derangement());
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testRepeatedInCycles() {
+        new Permutation("(AB) (CA)", new Alphabet("ABCD"));
+    }
+
+    @Test
+    public void testNestedCycles() {
+        for (String cycles : new String[] {"(AB(CD)", "(A(B)"}) {
+            try {
+                new Permutation(cycles, new Alphabet("ABCD"));
+                fail(cycles + " accepted");
+            } catch (EnigmaException excp) {
+                assertEquals("Cycle cannot be empty. Or invalid syntax",
+                             excp.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testIntern() {
+        Permutation p = Permutation.intern("(AB) (CD)", new Alphabet("ABCDE")),
+            q = Permutation.intern("(DC)(BA)", new Alphabet("ABCDE")),
+            r = Permutation.intern("(AB) (CD)", new Alphabet("ABCDF")),
+            s = Permutation.intern("(AB) (CE)", new Alphabet("ABCDE"));
+        assertSame(p, q);
+        assertNotSame(p, r);
+        assertNotSame(p, s);
+        assertSame(p.forwardTable(), q.forwardTable());
+        assertNotSame(p, Permutation.intern("(AB) (CD) (E)",
+                                            new Alphabet("ABCDE")));
+    }
 }
@@ -1,6 +1,7 @@
 package enigma;
 
 import static enigma.EnigmaException.*;
+import static enigma.EnigmaException.Kind.*;
 
 /** Class that represents a reflector in the enigma.
  *  @author Truong Le
@@ -12,7 +13,7 @@ class Reflector extends FixedRotor {
     Reflector(String name, Permutation perm) {
         super(name, perm);
         if (!perm.derangement()) {
-            throw error("Reflector must be a derangement");
+            throw error(CONFIG, "Reflector must be a derangement");
         }
     }
 
@@ -23,13 +24,13 @@ class Reflector extends FixedRotor {
 
     @Override
     int convertBackward(int e) {
-        throw error("Reflector does not convert backward");
+        throw error(CONFIG, "Reflector does not convert backward");
     }
 
     @Override
     void set(int posn) {
         if (posn != 0) {
-            throw error("Reflector has only one position");
+            throw error(CONFIG, "Reflector has only one position");
         }
     }
 
@@ -0,0 +1,178 @@
+package enigma;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/** A bounded cache of converted sections, so that a message repeated
+ *  under the same key (a retransmission) is converted once.  Entries are
+ *  addressed by their content: the configuration, the machine state the
+ *  settings line produced and the text of the message.  The cache holds
+ *  at most a given number of bytes of keys and results, estimated from
+ *  their lengths, discarding the least recently used entries beyond
+ *  that, and counts its hits and misses.  All methods are synchronized,
+ *  so one cache may serve any number of threads.
+ *  @author Truong Le
+ */
+class ResultCache {
+
+    /** An empty cache holding at most MAXBYTES bytes of entries. */
+    ResultCache(long maxBytes) {
+        _maxBytes = maxBytes;
+    }
+
+    /** Return the key of the message BODY converted with configuration
+     *  SPEC, after a settings line whose canonical form is SETTINGS left
+     *  the ring settings STATE (or any other part of the machine's state
+     *  that the line does not itself determine) and plugboard PLUGBOARD
+     *  (interned, or null). */
+    static Key key(MachineSpec spec, String settings, String state,
+                   Permutation plugboard, Iterable<String> body) {
+        StringBuilder text = new StringBuilder(settings);
+        text.append('\0').append(state);
+        for (String line : body) {
+            text.append('\n').append(line);
+        }
+        return new Key(spec, plugboard, text.toString());
+    }
+
+    /** Return the result cached for KEY, or null if there is none. */
+    synchronized Entry get(Key key) {
+        Entry result = _entries.get(key);
+        if (result == null) {
+            _misses += 1;
+        } else {
+            _hits += 1;
+        }
+        return result;
+    }
+
+    /** Cache RESULT, the conversion of CHARS characters, for KEY, unless
+     *  it is too large (see maxEntryChars), discarding old entries as
+     *  needed. */
+    synchronized void put(Key key, String result, long chars) {
+        long size = size(key, result);
+        if (size > _maxBytes / MIN_ENTRIES) {
+            return;
+        }
+        Entry old = _entries.put(key, new Entry(result, chars));
+        if (old != null) {
+            _bytes -= size(key, old._text);
+        }
+        _bytes += size;
+        Iterator<Map.Entry<Key, Entry>> oldest =
+            _entries.entrySet().iterator();
+        while (_bytes > _maxBytes) {
+            Map.Entry<Key, Entry> entry = oldest.next();
+            _bytes -= size(entry.getKey(), entry.getValue()._text);
+            oldest.remove();
+        }
+    }
+
+    /** Return the length of the longest message text worth collecting
+     *  for the cache, in characters. */
+    int maxEntryChars() {
+        return (int) Math.min(Integer.MAX_VALUE,
+                              _maxBytes / MIN_ENTRIES / Character.BYTES);
+    }
+
+    /** Return the fraction of lookups that hit, or 0 if there were
+     *  none. */
+    synchronized double hitRate() {
+        long lookups = _hits + _misses;
+        return lookups == 0 ? 0 : (double) _hits / lookups;
+    }
+
+    /** Return a one-line report of my use and bounds. */
+    synchronized String summary() {
+        return String.format("cache: %d hits, %d misses (%.1f%% hit rate), "
+                             + "%d entries, %.1f of %.1f MiB", _hits,
+                             _misses, 100 * hitRate(), _entries.size(),
+                             _bytes / MIB, _maxBytes / MIB);
+    }
+
+    /** Return the estimated bytes used by an entry mapping KEY to
+     *  RESULT. */
+    private static long size(Key key, String result) {
+        return ENTRY_OVERHEAD
+            + (long) Character.BYTES * (key._text.length()
+                                        + result.length());
+    }
+
+    /** A cached result. */
+    static final class Entry {
+
+        /** The result TEXT, the conversion of CHARS characters. */
+        Entry(String text, long chars) {
+            _text = text;
+            _chars = chars;
+        }
+
+        /** Return the converted text, as printed. */
+        String text() {
+            return _text;
+        }
+
+        /** Return the number of characters converted. */
+        long chars() {
+            return _chars;
+        }
+
+        /** The converted text. */
+        private final String _text;
+        /** Characters converted. */
+        private final long _chars;
+    }
+
+    /** A cache key, made by key(). */
+    static final class Key {
+
+        /** The key of TEXT converted with SPEC and PLUGBOARD. */
+        Key(MachineSpec spec, Permutation plugboard, String text) {
+            _spec = spec;
+            _plugboard = plugboard;
+            _text = text;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return _spec == other._spec && _plugboard == other._plugboard
+                && _text.equals(other._text);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 31 * System.identityHashCode(_spec)
+                + System.identityHashCode(_plugboard);
+            return 31 * hash + _text.hashCode();
+        }
+
+        /** The configuration. */
+        private final MachineSpec _spec;
+        /** The interned plugboard, or null. */
+        private final Permutation _plugboard;
+        /** The settings, machine state and message text. */
+        private final String _text;
+    }
+
+    /** Bytes in a mebibyte. */
+    private static final double MIB = 1 << 20;
+    /** Estimated bytes of an entry besides its characters. */
+    private static final long ENTRY_OVERHEAD = 160;
+    /** Minimum number of entries of the largest size the cache holds. */
+    private static final int MIN_ENTRIES = 8;
+
+    /** Cached results, least recently used first.  Its own bound on the
+     *  number of entries is never reached; put() bounds the bytes. */
+    private final LruCache<Key, Entry> _entries =
+        new LruCache<>(Integer.MAX_VALUE);
+    /** Maximum estimated bytes of all entries. */
+    private final long _maxBytes;
+    /** Estimated bytes of all entries. */
+    private long _bytes;
+    /** Numbers of lookups that hit and missed. */
+    private long _hits, _misses;
+}
@@ -0,0 +1,65 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+/** The suite of all JUnit tests for the ResultCache class.
+ *  @author Truong Le
+ */
+public class ResultCacheTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    @Test
+    public void testHitsAndKeys() {
+        ResultCache cache = new ResultCache(1 << 20);
+        List<String> body = Arrays.asList("HELLO", "", "WORLD");
+        ResultCache.Key key =
+            ResultCache.key(null, "* B I II AA", "0 0 ", null, body);
+        assertNull(cache.get(key));
+        cache.put(key, "ABCDE\n\nFGHIJ\n", 10);
+        ResultCache.Entry hit =
+            cache.get(ResultCache.key(null, "* B I II AA", "0 0 ", null,
+                                      body));
+        assertEquals("ABCDE\n\nFGHIJ\n", hit.text());
+        assertEquals(10, hit.chars());
+        assertNull(cache.get(ResultCache.key(null, "* B I II AA", "0 1 ",
+                                             null, body)));
+        assertNull(cache.get(ResultCache.key(null, "* B I II AA", "0 0 ",
+                                             null, body.subList(0, 2))));
+        assertEquals(0.25, cache.hitRate(), 1e-9);
+    }
+
+    @Test
+    public void testBound() {
+        ResultCache cache = new ResultCache(16 * 1024);
+        char[] text = new char[cache.maxEntryChars() / 4];
+        Arrays.fill(text, 'A');
+        String result = new String(text);
+        for (int i = 0; i < 100; i += 1) {
+            cache.put(ResultCache.key(null, "* " + i, "", null,
+                                      Arrays.asList(result)), result,
+                      result.length());
+        }
+        assertNotNull(cache.get(ResultCache.key(null, "* 99", "", null,
+                                                Arrays.asList(result))));
+        assertNull(cache.get(ResultCache.key(null, "* 0", "", null,
+                                             Arrays.asList(result))));
+        assertTrue(cache.summary().contains("of 0.0 MiB"));
+
+        char[] big = new char[cache.maxEntryChars() * 2];
+        String huge = new String(big);
+        ResultCache.Key key =
+            ResultCache.key(null, "* big", "", null, Arrays.asList(huge));
+        cache.put(key, huge, huge.length());
+        assertNull(cache.get(key));
+    }
+
+}
@@ -49,10 +49,25 @@ class Rotor {
         return _setting;
     }
 
+    /** Return my ring setting. */
+    int ring() {
+        return _ring;
+    }
+
     /** Set ring.
      * @param cposn Position in alphabet*/
     void setRing(char cposn) {
-        _ring = this.alphabet().toInt(cposn);
+        setRingCodePoint(cposn);
+    }
+
+    /** Set my ring setting to the character with code point CPOSN. */
+    void setRingCodePoint(int cposn) {
+        setRing(this.alphabet().toIndex(cposn));
+    }
+
+    /** Set my ring setting to RING, an index in my alphabet. */
+    void setRing(int ring) {
+        _ring = ring;
     }
 
     /** Set setting() to POSN.  */
@@ -62,7 +77,12 @@ class Rotor {
 
     /** Set setting() to character CPOSN. */
     void set(char cposn) {
-        _setting = this.alphabet().toInt(cposn);
+        setCodePoint(cposn);
+    }
+
+    /** Set setting() to the character with code point CPOSN. */
+    void setCodePoint(int cposn) {
+        _setting = this.alphabet().toIndex(cposn);
     }
 
     /** Return the conversion of P (an integer in the range 0..size()-1)
@@ -86,6 +106,11 @@ class Rotor {
     /** Returns true iff I am positioned to allow the rotor to my left
      *  to advance. */
     boolean atNotch() {
+        return notchAt(setting());
+    }
+
+    /** Returns true iff I would be at a notch in setting POSN. */
+    boolean notchAt(int posn) {
         return false;
     }
 
@@ -0,0 +1,177 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.function.Function;
+
+import static enigma.EnigmaException.*;
+import static enigma.EnigmaException.Kind.*;
+
+/** The catalogue of rotors defined by a configuration.  Each rotor name is
+ *  assigned a dense integer id when the configuration is read, so that
+ *  machines select rotors by id with array indexing.  A rotor's
+ *  permutation is compiled only when the rotor is first used, and is then
+ *  shared by every machine built on this registry; each machine gets its
+ *  own Rotor objects, which hold its settings.
+ *  @author Truong Le
+ */
+class RotorRegistry {
+
+    /** An empty registry whose rotor cycles are compiled by COMPILER. */
+    RotorRegistry(Function<String, Permutation> compiler) {
+        _compiler = compiler;
+    }
+
+    /** A registry containing the already-built ROTORS.  Machines on this
+     *  registry use the given Rotor objects themselves. */
+    RotorRegistry(Collection<Rotor> rotors) {
+        this((Function<String, Permutation>) null);
+        for (Rotor r : rotors) {
+            add(r);
+        }
+    }
+
+    /** Add a rotor named NAME of type TYPE ('M' moving, 'N' fixed, 'R'
+     *  reflector) with NOTCHES (for moving rotors) and cycles CYCLES,
+     *  which are compiled on first use.  A later rotor with the same name
+     *  replaces an earlier one.  Returns the rotor's id. */
+    int add(String name, char type, String notches, String cycles) {
+        if (type != 'M' && type != 'N' && type != 'R') {
+            throw error(CONFIG, "Wrong type of Rotor");
+        }
+        return add(name, new Entry(name, type, notches, cycles, null));
+    }
+
+    /** Add the already-built ROTOR, replacing any earlier rotor with the
+     *  same name.  Returns its id. */
+    int add(Rotor rotor) {
+        return add(rotor.name(),
+                   new Entry(rotor.name(), ' ', null, null, rotor));
+    }
+
+    /** Record ENTRY under NAME and return its id. */
+    private int add(String name, Entry entry) {
+        Integer id = _ids.get(name);
+        if (id == null) {
+            id = _entries.size();
+            _ids.put(name, id);
+            _entries.add(entry);
+        } else {
+            _entries.set(id, entry);
+        }
+        return id;
+    }
+
+    /** Return the number of rotors. */
+    int size() {
+        return _entries.size();
+    }
+
+    /** Return the id of the rotor named NAME, or -1 if there is none. */
+    int id(String name) {
+        Integer id = _ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    /** Return the ids of the rotors named NAMES. */
+    int[] ids(String[] names) {
+        int[] result = new int[names.length];
+        for (int i = 0; i < names.length; i += 1) {
+            result[i] = id(names[i]);
+            if (result[i] < 0) {
+                throw error(CONFIG, "Rotor's name not in list of all rotors");
+            }
+        }
+        return result;
+    }
+
+    /** Return the name of rotor ID. */
+    String name(int id) {
+        return _entries.get(id).name;
+    }
+
+    /** Return the type of rotor ID: 'M' (moving), 'N' (fixed) or 'R'
+     *  (reflector). */
+    char type(int id) {
+        Entry entry = _entries.get(id);
+        if (entry.rotor == null) {
+            return entry.type;
+        } else if (entry.rotor.reflecting()) {
+            return 'R';
+        } else {
+            return entry.rotor.rotates() ? 'M' : 'N';
+        }
+    }
+
+    /** Return the permutation of rotor ID, compiling it if need be. */
+    Permutation permutation(int id) {
+        Entry entry = _entries.get(id);
+        if (entry.rotor != null) {
+            return entry.rotor.permutation();
+        }
+        Permutation perm = entry.perm;
+        if (perm == null) {
+            synchronized (entry) {
+                perm = entry.perm;
+                if (perm == null) {
+                    perm = entry.perm = _compiler.apply(entry.cycles);
+                }
+            }
+        }
+        return perm;
+    }
+
+    /** Return a rotor for ID, in its 0 setting, for the exclusive use
+     *  of one machine (or the already-built rotor, if ID was added as
+     *  one). */
+    Rotor newRotor(int id) {
+        Entry entry = _entries.get(id);
+        if (entry.rotor != null) {
+            return entry.rotor;
+        }
+        Permutation perm = permutation(id);
+        switch (entry.type) {
+        case 'M':
+            return new MovingRotor(entry.name, perm, entry.notches);
+        case 'N':
+            return new FixedRotor(entry.name, perm);
+        default:
+            return new Reflector(entry.name, perm);
+        }
+    }
+
+    /** The description of one rotor. */
+    private static class Entry {
+        /** An entry for a rotor named NAME of type TYPE with NOTCHES and
+         *  CYCLES, or for the already-built ROTOR if it is not null. */
+        Entry(String name, char type, String notches, String cycles,
+              Rotor rotor) {
+            this.name = name;
+            this.type = type;
+            this.notches = notches;
+            this.cycles = cycles;
+            this.rotor = rotor;
+        }
+
+        /** Rotor name. */
+        private final String name;
+        /** Rotor type: 'M', 'N' or 'R'. */
+        private final char type;
+        /** Notches of a moving rotor. */
+        private final String notches;
+        /** Cycles, as written in the configuration. */
+        private final String cycles;
+        /** Already-built rotor, or null. */
+        private final Rotor rotor;
+        /** Compiled permutation, or null until first used. */
+        private volatile Permutation perm;
+    }
+
+    /** Compiles cycle strings into permutations. */
+    private final Function<String, Permutation> _compiler;
+    /** Rotor descriptions, by id. */
+    private final ArrayList<Entry> _entries = new ArrayList<>();
+    /** Rotor ids, by name. */
+    private final HashMap<String, Integer> _ids = new HashMap<>();
+}
@@ -0,0 +1,343 @@
+package enigma;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Scanner;
+import java.util.TreeSet;
+
+import static enigma.EnigmaException.*;
+import static enigma.EnigmaException.Kind.*;
+
+/** The coordinator of a key search (see KeySearch) carried out by worker
+ *  processes connected over sockets (see SearchWorker).  The key space is
+ *  split into ranges of initial settings of each rotor order.  Workers
+ *  pull ranges, report progress after every chunk of trials, and report
+ *  hits as they find them.  When no unassigned range is left, a worker
+ *  asking for work steals the upper half of the largest range still in
+ *  progress; its owner learns of its new end in the reply to its next
+ *  progress report.  If a worker disconnects, or falls silent for much
+ *  longer than it has ever taken to report progress (its host may have
+ *  crashed), whatever it had not finished of its range is put back to be
+ *  handed out again.
+ *
+ *  The protocol consists of ints and longs in network byte order, and
+ *  strings as an int length followed by that many UTF-8 bytes.  On
+ *  connecting, a worker receives the configuration text, the ciphertext,
+ *  the crib, and the int number of trials between progress reports.  It
+ *  then sends REQUEST, and receives either WORK, an int rotor order and
+ *  long start and end settings, or DONE.  While working
+ *  it sends PROGRESS and a long, the first setting not yet tried, and
+ *  receives a long, the (possibly reduced) end of its range; and it sends
+ *  HIT with an int order and long setting for each hit.
+ *  @author Truong Le
+ */
+class SearchCoordinator {
+
+    /** Message: a worker asks for a range. */
+    static final int REQUEST = 1;
+    /** Message: a worker reports progress. */
+    static final int PROGRESS = 2;
+    /** Message: a worker reports a hit. */
+    static final int HIT = 3;
+    /** Reply: a range follows. */
+    static final int WORK = 1;
+    /** Reply: there is no more work. */
+    static final int DONE = 0;
+
+    /** A coordinator for the search of the configuration CONFIG (the text
+     *  of a configuration file) for keys that decrypt CIPHERTEXT into text
+     *  containing CRIB, in which workers report progress every CHUNK
+     *  trials. */
+    SearchCoordinator(String config, String ciphertext, String crib,
+                      int chunk) {
+        _config = config;
+        _ciphertext = ciphertext;
+        _crib = crib;
+        _chunk = chunk;
+        _search = new KeySearch(MachineSpec.read(new Scanner(config)),
+                                ciphertext, crib);
+        long rangeSize = (long) chunk * RANGE_CHUNKS;
+        for (int order = 0; order < _search.orders(); order += 1) {
+            for (long p = 0; p < _search.positions(); p += rangeSize) {
+                _pending.add(new Range(order, p,
+                    Math.min(_search.positions(), p + rangeSize)));
+            }
+        }
+    }
+
+    /** Allow a worker to go MILLIS milliseconds without a message before
+     *  it is given up for dead, or TIMEOUT_FACTOR times the longest it
+     *  has taken between messages so far, if that is longer.  Affects
+     *  only workers that connect later. */
+    void setWorkerTimeout(int millis) {
+        if (millis <= 0) {
+            throw error(INTERNAL, "bad worker timeout");
+        }
+        _timeout = millis;
+    }
+
+    /** Start accepting workers on PORT of the loopback address (0 for any
+     *  free port) and return the port. */
+    int start(int port) {
+        return start(port, InetAddress.getLoopbackAddress());
+    }
+
+    /** Start accepting workers on PORT of ADDRESS (null for all
+     *  addresses; PORT 0 for any free port) and return the port. */
+    int start(int port, InetAddress address) {
+        try {
+            _server = new ServerSocket(port, BACKLOG, address);
+        } catch (IOException excp) {
+            throw error(IO, "could not listen on port %d", port);
+        }
+        Thread acceptor = new Thread(this::accept, "search-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return _server.getLocalPort();
+    }
+
+    /** Wait until the whole key space has been searched, stop accepting
+     *  workers, and return the settings lines of all hits, in order. */
+    ArrayList<String> await() {
+        synchronized (this) {
+            while (!finished()) {
+                try {
+                    wait();
+                } catch (InterruptedException excp) {
+                    throw error(INTERNAL, "search interrupted");
+                }
+            }
+        }
+        close();
+        ArrayList<String> result = new ArrayList<>();
+        for (long[] hit : _hits) {
+            result.add(_search.settings((int) hit[0], hit[1]));
+        }
+        return result;
+    }
+
+    /** Stop accepting workers. */
+    void close() {
+        try {
+            if (_server != null) {
+                _server.close();
+            }
+        } catch (IOException excp) {
+            /* Ignore. */
+        }
+    }
+
+    /** Accept workers until closed, serving each on its own thread. */
+    private void accept() {
+        while (!_server.isClosed()) {
+            try {
+                Socket socket = _server.accept();
+                Thread t = new Thread(() -> serve(socket), "search-worker");
+                t.setDaemon(true);
+                t.start();
+            } catch (IOException excp) {
+                return;
+            }
+        }
+    }
+
+    /** Serve the worker connected through SOCKET until it is done,
+     *  disconnects or times out. */
+    private void serve(Socket socket) {
+        Range current = null;
+        try (Socket s = socket) {
+            int timeout = _timeout;
+            s.setSoTimeout(timeout);
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(s.getInputStream()));
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(s.getOutputStream()));
+            writeString(out, _config);
+            writeString(out, _ciphertext);
+            writeString(out, _crib);
+            out.writeInt(_chunk);
+            out.flush();
+            long last = System.nanoTime();
+            while (true) {
+                int msg = in.readInt();
+                long now = System.nanoTime(),
+                    allowed = TIMEOUT_FACTOR
+                    * TimeUnit.NANOSECONDS.toMillis(now - last);
+                if (allowed > timeout) {
+                    timeout = (int) Math.min(Integer.MAX_VALUE, allowed);
+                    s.setSoTimeout(timeout);
+                }
+                if (msg == REQUEST) {
+                    current = take();
+                    if (current == null) {
+                        out.writeInt(DONE);
+                        out.flush();
+                        return;
+                    }
+                    out.writeInt(WORK);
+                    out.writeInt(current.order);
+                    out.writeLong(current.start);
+                    out.writeLong(current.end);
+                    last = System.nanoTime();
+                } else if (msg == PROGRESS) {
+                    out.writeLong(progress(current, in.readLong()));
+                    last = now;
+                } else if (msg == HIT) {
+                    int order = in.readInt();
+                    long pos = in.readLong();
+                    synchronized (this) {
+                        _hits.add(new long[] {order, pos});
+                    }
+                    continue;
+                } else {
+                    throw new IOException("bad message");
+                }
+                out.flush();
+            }
+        } catch (IOException excp) {
+            synchronized (this) {
+                if (current != null && _active.remove(current)) {
+                    _pending.add(current);
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /** Return a range for a worker to search, waiting for one if all
+     *  remaining work is in progress but too small to split, or null if
+     *  the search is finished. */
+    private synchronized Range take() throws IOException {
+        while (true) {
+            if (!_pending.isEmpty()) {
+                Range r = _pending.remove();
+                _active.add(r);
+                return r;
+            }
+            if (finished()) {
+                return null;
+            }
+            Range victim = null;
+            for (Range r : _active) {
+                if (victim == null
+                    || r.end - r.start > victim.end - victim.start) {
+                    victim = r;
+                }
+            }
+            if (victim != null && victim.end - victim.start >= 2L * _chunk) {
+                long mid = victim.start + (victim.end - victim.start) / 2;
+                Range stolen = new Range(victim.order, mid, victim.end);
+                victim.end = mid;
+                _steals += 1;
+                _active.add(stolen);
+                return stolen;
+            }
+            try {
+                wait();
+            } catch (InterruptedException excp) {
+                throw new IOException("interrupted");
+            }
+        }
+    }
+
+    /** Record that the worker searching RANGE has tried every setting
+     *  before NEXT, and return the current end of RANGE. */
+    private synchronized long progress(Range range, long next) {
+        if (range == null) {
+            return next;
+        }
+        range.start = next;
+        if (next >= range.end) {
+            _active.remove(range);
+            notifyAll();
+        }
+        return range.end;
+    }
+
+    /** Return true iff every range has been searched. */
+    private synchronized boolean finished() {
+        return _pending.isEmpty() && _active.isEmpty();
+    }
+
+    /** Return the number of ranges split so far to balance work. */
+    synchronized int steals() {
+        return _steals;
+    }
+
+    /** Write S to OUT as an int length and UTF-8 bytes. */
+    static void writeString(DataOutputStream out, String s)
+        throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /** Read a string written by writeString from IN. */
+    static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** A range of initial settings [start, end) of one rotor order. */
+    private static class Range {
+        /** The range [START, END) of rotor order ORDER. */
+        Range(int order, long start, long end) {
+            this.order = order;
+            this.start = start;
+            this.end = end;
+        }
+
+        /** Rotor order. */
+        private final int order;
+        /** First setting not yet tried. */
+        private long start;
+        /** End of the range (exclusive). */
+        private long end;
+    }
+
+    /** Chunks per range when the key space is first split. */
+    private static final int RANGE_CHUNKS = 64;
+    /** Connection backlog. */
+    private static final int BACKLOG = 50;
+    /** Default least time a worker may be silent, in milliseconds. */
+    private static final int WORKER_TIMEOUT = 60_000;
+    /** Multiple of a worker's longest time between messages that it may
+     *  be silent. */
+    private static final int TIMEOUT_FACTOR = 10;
+
+    /** Configuration text sent to workers. */
+    private final String _config;
+    /** Ciphertext sent to workers. */
+    private final String _ciphertext;
+    /** Crib sent to workers. */
+    private final String _crib;
+    /** Trials per progress report. */
+    private final int _chunk;
+    /** Key space, used for splitting and for naming hits. */
+    private final KeySearch _search;
+    /** Ranges not yet handed out. */
+    private final ArrayDeque<Range> _pending = new ArrayDeque<>();
+    /** Ranges being searched. */
+    private final HashSet<Range> _active = new HashSet<>();
+    /** Hits found, as (order, setting), in order. */
+    private final TreeSet<long[]> _hits = new TreeSet<>((a, b) ->
+        a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+    /** Least time a worker may be silent, in milliseconds. */
+    private volatile int _timeout = WORKER_TIMEOUT;
+    /** Number of ranges split by stealing. */
+    private int _steals;
+    /** The listening socket. */
+    private ServerSocket _server;
+}
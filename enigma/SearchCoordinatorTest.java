@@ -0,0 +1,130 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+
+/** The suite of all JUnit tests for the distributed key search.
+ *  @author Truong Le
+ */
+public class SearchCoordinatorTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** A small configuration, with 6 rotor orders of 36 settings. */
+    private static final String CONFIG =
+        "ABCDEF\n3 1\n"
+        + " I MA (ABC)(DEF)\n"
+        + " II MC (AEBD)(CF)\n"
+        + " III MF (ACE)(BDF)\n"
+        + " B R (AB)(CD)(EF)\n"
+        + " C R (AF)(BE)(CD)\n"
+        + " G N (AEC)(BF)\n";
+
+    /** Return the encryption of PLAIN with the key in SETTINGS. */
+    private String encrypt(String settings, String plain) {
+        Machine M = MachineSpec.read(new Scanner(CONFIG)).newMachine();
+        MachineKey.compile(M, settings).apply(M);
+        return M.convert(plain);
+    }
+
+    /** Return the hits found by searching for CRIB in CIPHERTEXT with
+     *  WORKERS worker threads, each reporting after every CHUNK trials. */
+    private List<String> search(String ciphertext, String crib,
+                                int workers, int chunk) throws Exception {
+        SearchCoordinator coordinator =
+            new SearchCoordinator(CONFIG, ciphertext, crib, chunk);
+        return search(coordinator, coordinator.start(0), workers);
+    }
+
+    /** Return the hits found by COORDINATOR, listening on PORT, with
+     *  WORKERS worker threads. */
+    private List<String> search(SearchCoordinator coordinator, int port,
+                                int workers) throws Exception {
+        ArrayList<Thread> threads = new ArrayList<>();
+        long[] tried = new long[workers];
+        for (int i = 0; i < workers; i += 1) {
+            int w = i;
+            Thread t = new Thread(() ->
+                tried[w] = new SearchWorker("localhost", port).run());
+            threads.add(t);
+            t.start();
+        }
+        List<String> hits = coordinator.await();
+        long total = 0;
+        for (int i = 0; i < workers; i += 1) {
+            threads.get(i).join();
+            total += tried[i];
+        }
+        assertEquals("every key tried once", 6 * 36, total);
+        return hits;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testKeySpace() {
+        KeySearch search = new KeySearch(MachineSpec.read(new Scanner(CONFIG)),
+                                         "", "");
+        assertEquals(6, search.orders());
+        assertEquals(36, search.positions());
+    }
+
+    @Test
+    public void testFindsKey() throws Exception {
+        String cipher = encrypt("* C G II DE", "FACADEBED");
+        List<String> hits = search(cipher, "FACADE", 3, 4);
+        assertTrue(hits.contains("* C G II DE"));
+        for (String hit : hits) {
+            assertTrue(encrypt(hit, cipher).contains("FACADE"));
+        }
+    }
+
+    @Test
+    public void testSingleWorker() throws Exception {
+        String cipher = encrypt("* B G III AF", "BADCAFE");
+        List<String> hits = search(cipher, "BADCAFE", 1, 1);
+        assertTrue(hits.contains("* B G III AF"));
+    }
+
+    @Test
+    public void testSilentWorker() throws Exception {
+        String cipher = encrypt("* C G II DE", "FACADEBED");
+        SearchCoordinator coordinator =
+            new SearchCoordinator(CONFIG, cipher, "FACADE", 4);
+        coordinator.setWorkerTimeout(200);
+        int port = coordinator.start(0);
+        try (Socket dead = new Socket("localhost", port)) {
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(dead.getInputStream()));
+            DataOutputStream out =
+                new DataOutputStream(dead.getOutputStream());
+            SearchCoordinator.readString(in);
+            SearchCoordinator.readString(in);
+            SearchCoordinator.readString(in);
+            in.readInt();
+            out.writeInt(SearchCoordinator.REQUEST);
+            out.flush();
+            assertEquals(SearchCoordinator.WORK, in.readInt());
+            in.readInt();
+            assertEquals(0, in.readLong());
+            in.readLong();
+            List<String> hits = search(coordinator, port, 2);
+            assertTrue(hits.contains("* C G II DE"));
+        }
+    }
+
+}
@@ -0,0 +1,76 @@
+package enigma;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Scanner;
+
+import static enigma.EnigmaException.*;
+import static enigma.EnigmaException.Kind.*;
+import static enigma.SearchCoordinator.*;
+
+/** A worker in a key search: connects to a SearchCoordinator, receives
+ *  the job, and tries the keys of the ranges it is given until told that
+ *  the search is done.
+ *  @author Truong Le
+ */
+class SearchWorker {
+
+    /** A worker for the coordinator listening on PORT of HOST. */
+    SearchWorker(String host, int port) {
+        _host = host;
+        _port = port;
+    }
+
+    /** Search ranges until the coordinator has no more work, and return
+     *  the number of keys tried. */
+    long run() {
+        try (Socket socket = new Socket(_host, _port)) {
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream()));
+            String config = readString(in);
+            String ciphertext = readString(in);
+            String crib = readString(in);
+            int chunk = in.readInt();
+            KeySearch search = new KeySearch(
+                MachineSpec.read(new Scanner(config)), ciphertext, crib);
+            long tried = 0;
+            while (true) {
+                out.writeInt(REQUEST);
+                out.flush();
+                if (in.readInt() == DONE) {
+                    return tried;
+                }
+                int order = in.readInt();
+                long pos = in.readLong(), end = in.readLong();
+                while (pos < end) {
+                    long limit = Math.min(end, pos + chunk);
+                    for (; pos < limit; pos += 1) {
+                        if (search.trial(order, pos)) {
+                            out.writeInt(HIT);
+                            out.writeInt(order);
+                            out.writeLong(pos);
+                        }
+                        tried += 1;
+                    }
+                    out.writeInt(PROGRESS);
+                    out.writeLong(pos);
+                    out.flush();
+                    end = in.readLong();
+                }
+            }
+        } catch (IOException excp) {
+            throw error(IO, "lost connection to %s:%d", _host, _port);
+        }
+    }
+
+    /** Coordinator host. */
+    private final String _host;
+    /** Coordinator port. */
+    private final int _port;
+}
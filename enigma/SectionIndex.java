@@ -0,0 +1,606 @@
+package enigma;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.zip.CRC32C;
+
+import static enigma.EnigmaException.*;
+import static enigma.EnigmaException.Kind.*;
+
+/** An index of the sections of an archive of messages (a file in the
+ *  format of Main's input), so that any section, or any part of one, can
+ *  be decrypted without converting the archive before it.
+ *
+ *  For each section the index records the offset of its settings line,
+ *  the line itself and the machine it sets up: rotor order, ring settings
+ *  and plugboard, including those inherited from earlier settings lines.
+ *  For each message line it records the offset of the line, the number
+ *  of characters of its section before it and the rotor settings at its
+ *  start.  All records of a kind have the same size, so finding any
+ *  section or line takes the same time however large the archive, and
+ *  decrypting a character steps the rotors at most from the start of its
+ *  line.  Sections and lines are numbered from 0.
+ *
+ *  The index divides the archive into lines at "\n" (or "\r\n") alone,
+ *  and is read through a read-only memory mapping.  It records the
+ *  archive's size, modification time and CRC-32C, and the CRC-32C of
+ *  its first and last WINDOW bytes.  It is only used with an archive of
+ *  the same size, time and window CRC, which takes the same time however
+ *  large the archive; a view of a section also checks that section's
+ *  settings line.  An edit that keeps all of these can only be found by
+ *  checking the CRC of the whole archive, which verify() does.
+ *  @author Truong Le
+ */
+class SectionIndex {
+
+    /** Write the index of the archive ARCHIVE, whose messages are for
+     *  machines of configuration SPEC, to INDEX.  Settings lines and
+     *  message characters are checked as Main checks them. */
+    static void write(MachineSpec spec, File archive, File index) {
+        MappedSections input = new MappedSections(archive);
+        Writer writer = new Writer(spec);
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(index)))) {
+            out.write(new byte[HEADER_BYTES]);
+            for (long pos = 0; pos < input.size(); ) {
+                long end = input.lineEnd(pos);
+                String line = input.decode(pos, end);
+                if (line.endsWith("\r")) {
+                    line = line.substring(0, line.length() - 1);
+                }
+                writer.add(pos, line, out);
+                pos = end + 1;
+            }
+            writer.finish(out);
+        } catch (IOException excp) {
+            throw error(IO, "could not write %s", index);
+        }
+        try (RandomAccessFile out = new RandomAccessFile(index, "rw")) {
+            out.writeInt(MAGIC);
+            out.writeInt(spec.alphabet().size());
+            out.writeInt(spec.numRotors());
+            out.writeInt(writer._plugboards.size());
+            out.writeLong(input.size());
+            out.writeLong(writer._sections);
+            out.writeLong(writer._lines);
+            out.writeLong(writer._sectionStart);
+            out.writeLong(writer._plugboardStart);
+            out.writeLong(writer._stringStart);
+            out.writeLong(archive.lastModified());
+            out.writeLong(input.checksum());
+            out.writeLong(window(input));
+        } catch (IOException excp) {
+            throw error(IO, "could not write %s", index);
+        }
+    }
+
+    /** Return the index stored in INDEX of the archive ARCHIVE, both
+     *  mapped read-only. */
+    static SectionIndex map(File index, File archive) {
+        try (RandomAccessFile in = new RandomAccessFile(index, "r");
+             FileChannel channel = in.getChannel()) {
+            long size = channel.size();
+            int count = (int) ((size + SEGMENT - 1) / SEGMENT);
+            MappedByteBuffer[] segments = new MappedByteBuffer[count];
+            for (int i = 0; i < count; i += 1) {
+                long start = (long) i * SEGMENT;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                    start, Math.min(SEGMENT + OVERLAP, size - start));
+            }
+            if (size < HEADER_BYTES || segments[0].getInt(0) != MAGIC) {
+                throw error("not a section index");
+            }
+            SectionIndex result =
+                new SectionIndex(segments, new MappedSections(archive));
+            result.check(archive);
+            return result;
+        } catch (IOException excp) {
+            throw error(IO, "could not open %s", index);
+        }
+    }
+
+    /** An index read from SEGMENTS, for the archive ARCHIVE. */
+    private SectionIndex(MappedByteBuffer[] segments,
+                         MappedSections archive) {
+        _segments = segments;
+        _archive = archive;
+        _size = getInt(4);
+        _numRotors = getInt(8);
+        _sectionCount = getLong(24);
+        _lineCount = getLong(32);
+        _sectionStart = getLong(40);
+        _plugboardStart = getLong(48);
+        _stringStart = getLong(56);
+        _sectionEntry = SECTION_LONGS * 8 + (2 + 2 * _numRotors) * 4;
+    }
+
+    /** Check that ARCHIVE, my mapped archive, has the size, modification
+     *  time and window CRC I was written for. */
+    private void check(File archive) {
+        if (getLong(16) != _archive.size()
+            || getLong(64) != archive.lastModified()
+            || getLong(80) != window(_archive)) {
+            throw error("index does not match its archive");
+        }
+    }
+
+    /** Check that the CRC-32C of my whole archive is the one I was
+     *  written for.  This takes time proportional to its size. */
+    void verify() {
+        if (getLong(72) != _archive.checksum()) {
+            throw error("index does not match its archive");
+        }
+    }
+
+    /** Check that the settings line of section S in my archive is the
+     *  one I recorded. */
+    private void checkSettings(long s) {
+        long start = sectionOffset(s);
+        boolean same;
+        try {
+            String line = _archive.decode(start, _archive.lineEnd(start));
+            same = line.equals(settings(s))
+                || line.equals(settings(s) + "\r");
+        } catch (EnigmaException excp) {
+            same = false;
+        }
+        if (!same) {
+            throw error("index does not match its archive");
+        }
+    }
+
+    /** Return the CRC-32C of the first and last WINDOW bytes of ARCHIVE,
+     *  or of all of it if it is shorter than two windows. */
+    private static long window(MappedSections archive) {
+        CRC32C crc = new CRC32C();
+        long size = archive.size();
+        archive.update(crc, 0, Math.min(WINDOW, size));
+        archive.update(crc, Math.max(WINDOW, size - WINDOW), size);
+        return crc.getValue();
+    }
+
+    /** Return the number of sections. */
+    long sections() {
+        return _sectionCount;
+    }
+
+    /** Return the number of message lines. */
+    long lines() {
+        return _lineCount;
+    }
+
+    /** Return the offset in the archive of the settings line of section
+     *  S. */
+    long sectionOffset(long s) {
+        return getLong(section(s));
+    }
+
+    /** Return the settings line of section S. */
+    String settings(long s) {
+        long at = section(s);
+        byte[] bytes = new byte[getInt(at + SECTION_LONGS * 8)];
+        long start = _stringStart + getLong(at + 24);
+        for (int i = 0; i < bytes.length; i += 1) {
+            bytes[i] = getByte(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Return the number of the first message line of section S. */
+    long firstLine(long s) {
+        return getLong(section(s) + 8);
+    }
+
+    /** Return the number of message lines of section S. */
+    long lineCount(long s) {
+        long next = s + 1 < _sectionCount ? firstLine(s + 1) : _lineCount;
+        return next - firstLine(s);
+    }
+
+    /** Return the number of characters in the messages of section S. */
+    long charCount(long s) {
+        return getLong(section(s) + 16);
+    }
+
+    /** Return the offset in the archive of message line J. */
+    long lineOffset(long j) {
+        return getLong(line(j));
+    }
+
+    /** Return the number of characters of its section before message
+     *  line J. */
+    long charOffset(long j) {
+        return getLong(line(j) + 8);
+    }
+
+    /** Return the text of message line J, as in the archive. */
+    String text(long j) {
+        long start = lineOffset(j), end = _archive.lineEnd(start);
+        String line = _archive.decode(start, end);
+        return line.endsWith("\r") ? line.substring(0, line.length() - 1)
+            : line;
+    }
+
+    /** Return a view of the decryption of the messages of section S with
+     *  a machine of configuration SPEC, which must be the configuration
+     *  the index was written with.  The settings line of section S must
+     *  be the one I recorded. */
+    View view(MachineSpec spec, long s) {
+        if (spec.alphabet().size() != _size
+            || spec.numRotors() != _numRotors) {
+            throw error(CONFIG, "index was written for another configuration");
+        }
+        checkSettings(s);
+        return new View(spec, s);
+    }
+
+    /** The decryption of the messages of one section: its characters, in
+     *  order, without spaces or line breaks.  Characters are decrypted
+     *  when asked for, a line at a time, and the line last decrypted is
+     *  kept.  The alphabet's characters must all be single chars. */
+    class View implements CharSequence {
+
+        /** The decryption of section S with machines of configuration
+         *  SPEC. */
+        View(MachineSpec spec, long s) {
+            long at = section(s);
+            _alphabet = spec.alphabet();
+            _first = firstLine(s);
+            _count = lineCount(s);
+            long chars = charCount(s);
+            if (chars > Integer.MAX_VALUE) {
+                throw error("section %d too long to view", s);
+            }
+            _length = (int) chars;
+            int plugboard = getInt(at + SECTION_LONGS * 8 + 4);
+            int[] ids = new int[_numRotors];
+            _rings = new int[_numRotors];
+            for (int k = 0; k < _numRotors; k += 1) {
+                long slot = at + SECTION_LONGS * 8 + 8 + 4 * k;
+                ids[k] = getInt(slot);
+                _rings[k] = getInt(slot + 4 * _numRotors);
+            }
+            if (plugboard >= 0) {
+                _plugboard = new int[_size];
+                long table = _plugboardStart + 4L * _size * plugboard;
+                for (int c = 0; c < _size; c += 1) {
+                    _plugboard[c] = getInt(table + 4 * c);
+                }
+            }
+            Machine M = spec.newMachine();
+            M.insertRotors(ids);
+            _tables = new MachineTables(M);
+            _posns = new int[_numRotors];
+            _offsets = new int[_numRotors];
+        }
+
+        @Override
+        public int length() {
+            return _length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= _length) {
+                throw new IndexOutOfBoundsException(
+                    String.format("index %d of %d", index, _length));
+            }
+            if (_line == null || index < _lineStart
+                || index >= _lineStart + _line.length) {
+                decrypt(find(index));
+            }
+            return _line[index - _lineStart];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || start > end || end > _length) {
+                throw new IndexOutOfBoundsException(
+                    String.format("range %d-%d of %d", start, end, _length));
+            }
+            StringBuilder result = new StringBuilder(end - start);
+            for (int i = start; i < end; i += 1) {
+                result.append(charAt(i));
+            }
+            return result.toString();
+        }
+
+        @Override
+        public String toString() {
+            return subSequence(0, _length).toString();
+        }
+
+        /** Return the number of the message line that holds character
+         *  INDEX, the last line of my section that starts at or before
+         *  it. */
+        private long find(int index) {
+            long lo = _first, hi = _first + _count - 1;
+            while (lo < hi) {
+                long mid = (lo + hi + 1) >>> 1;
+                if (charOffset(mid) <= index) {
+                    lo = mid;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return lo;
+        }
+
+        /** Decrypt message line J into _line, seeking to its start. */
+        private void decrypt(long j) {
+            int[] chars = _alphabet.toIndices(text(j).replace(" ", ""));
+            KeystreamTable.unpack(getLong(line(j) + 16), _size, _posns);
+            char[] result = new char[chars.length];
+            for (int i = 0; i < chars.length; i += 1) {
+                _tables.advance(_posns);
+                for (int k = 0; k < _numRotors; k += 1) {
+                    _offsets[k] = _tables.shift(_posns[k], _size - _rings[k]);
+                }
+                int c = chars[i];
+                if (_plugboard == null) {
+                    c = _tables.substitute(c, _offsets);
+                } else {
+                    c = _plugboard[_tables.substitute(_plugboard[c],
+                                                      _offsets)];
+                }
+                result[i] = _alphabet.toChar(c);
+            }
+            _line = result;
+            _lineStart = (int) charOffset(j);
+        }
+
+        /** The alphabet. */
+        private final Alphabet _alphabet;
+        /** Compiled rotor order of my section. */
+        private final MachineTables _tables;
+        /** Ring settings of my section, by slot. */
+        private final int[] _rings;
+        /** Plugboard table of my section, or null. */
+        private int[] _plugboard;
+        /** First message line and number of lines of my section. */
+        private final long _first, _count;
+        /** Number of characters. */
+        private final int _length;
+        /** Scratch rotor settings and offsets, by slot. */
+        private final int[] _posns, _offsets;
+        /** The line last decrypted, or null. */
+        private char[] _line;
+        /** Index of the first character of _line. */
+        private int _lineStart;
+    }
+
+    /** Writes the records of an index, a line of the archive at a time.
+     *  Line records go straight to the file; section records, plugboards
+     *  and settings lines are collected and follow them. */
+    private static class Writer {
+
+        /** A writer for archives of configuration SPEC. */
+        Writer(MachineSpec spec) {
+            _machine = spec.newMachine();
+            _size = spec.alphabet().size();
+            _numRotors = spec.numRotors();
+            _posns = new int[_numRotors];
+            _rings = new int[_numRotors];
+        }
+
+        /** Add the line LINE, at offset POS in the archive, writing its
+         *  record, if it is a message line, to OUT. */
+        void add(long pos, String line, DataOutputStream out)
+            throws IOException {
+            if (line.contains("*")) {
+                endSection();
+                setUp(line);
+                _sectionOffset = pos;
+                _settings = line.getBytes(StandardCharsets.UTF_8);
+                _sectionLine = _lines;
+                _chars = 0;
+                _sections += 1;
+            } else if (_sections == 0) {
+                throw error(SETTINGS,
+                            "No setting/rotor. Or wrong format for setting");
+            } else {
+                out.writeLong(pos);
+                out.writeLong(_chars);
+                out.writeLong(KeystreamTable.pack(_posns, _size));
+                int count = _machine.alphabet()
+                    .toIndices(line.replace(" ", "")).length;
+                for (int i = 0; i < count; i += 1) {
+                    _tables.advance(_posns);
+                }
+                _chars += count;
+                _lines += 1;
+            }
+        }
+
+        /** Write the section records, plugboards and settings lines that
+         *  follow the line records to OUT. */
+        void finish(DataOutputStream out) throws IOException {
+            if (_sections == 0) {
+                throw error("Input file is empty. Cannot read!");
+            }
+            endSection();
+            _sectionStart = HEADER_BYTES + LINE_ENTRY * _lines;
+            _sectionRecords.writeTo(out);
+            _plugboardStart = _sectionStart + _sectionRecords.size();
+            for (int[] table : _plugboards) {
+                for (int c : table) {
+                    out.writeInt(c);
+                }
+            }
+            _stringStart = _plugboardStart + 4L * _size * _plugboards.size();
+            _strings.writeTo(out);
+        }
+
+        /** Set my machine up according to the settings line SETTINGS,
+         *  as Main does, and record its state. */
+        private void setUp(String settings) {
+            MachineKey key = _keys.get(settings);
+            if (key == null) {
+                key = MachineKey.compile(_machine, settings);
+                _keys.put(settings, key);
+            } else {
+                key.apply(_machine);
+            }
+            if (!Arrays.equals(key.rotors(), _order)) {
+                _order = key.rotors();
+                _tables = new MachineTables(_machine);
+            }
+            for (int k = 0; k < _numRotors; k += 1) {
+                _posns[k] = _machine.rotor(k).setting();
+                _rings[k] = _machine.rotor(k).ring();
+            }
+            Permutation plugboard = _machine.plugboard();
+            if (plugboard == null) {
+                _plugboard = -1;
+            } else {
+                Integer id = _plugboardIds.get(plugboard);
+                if (id == null) {
+                    id = _plugboards.size();
+                    _plugboardIds.put(plugboard, id);
+                    _plugboards.add(plugboard.forwardTable());
+                }
+                _plugboard = id;
+            }
+        }
+
+        /** Write the record of the current section, if any. */
+        private void endSection() throws IOException {
+            if (_sections == 0) {
+                return;
+            }
+            DataOutputStream out = new DataOutputStream(_sectionRecords);
+            out.writeLong(_sectionOffset);
+            out.writeLong(_sectionLine);
+            out.writeLong(_chars);
+            out.writeLong(_strings.size());
+            out.writeInt(_settings.length);
+            out.writeInt(_plugboard);
+            for (int id : _order) {
+                out.writeInt(id);
+            }
+            for (int ring : _rings) {
+                out.writeInt(ring);
+            }
+            _strings.write(_settings);
+        }
+
+        /** The machine set up by each settings line in turn. */
+        private final Machine _machine;
+        /** Alphabet size and number of rotor slots. */
+        private final int _size, _numRotors;
+        /** Compiled keys of recently seen settings lines. */
+        private final LruCache<String, MachineKey> _keys =
+            new LruCache<>(MAX_KEYS);
+        /** Current rotor order, by registry id, and its tables. */
+        private int[] _order;
+        /** Compiled tables of _order. */
+        private MachineTables _tables;
+        /** Current rotor and ring settings, by slot. */
+        private final int[] _posns, _rings;
+        /** Number of the current plugboard in _plugboards, or -1. */
+        private int _plugboard;
+        /** Numbers of the (interned) plugboards seen. */
+        private final IdentityHashMap<Permutation, Integer> _plugboardIds =
+            new IdentityHashMap<>();
+        /** Tables of the plugboards seen, by number. */
+        private final ArrayList<int[]> _plugboards = new ArrayList<>();
+        /** Offset, first line, characters and settings line of the
+         *  current section. */
+        private long _sectionOffset, _sectionLine, _chars;
+        /** The current settings line. */
+        private byte[] _settings;
+        /** Numbers of sections and lines so far. */
+        private long _sections, _lines;
+        /** Section records written so far. */
+        private final ByteArrayOutputStream _sectionRecords =
+            new ByteArrayOutputStream();
+        /** Settings lines written so far. */
+        private final ByteArrayOutputStream _strings =
+            new ByteArrayOutputStream();
+        /** Offsets of the section records, plugboards and settings lines in
+         *  the index, once finished. */
+        private long _sectionStart, _plugboardStart, _stringStart;
+    }
+
+    /** Return the offset of the record of section S. */
+    private long section(long s) {
+        if (s < 0 || s >= _sectionCount) {
+            throw error("no section %d", s);
+        }
+        return _sectionStart + s * _sectionEntry;
+    }
+
+    /** Return the offset of the record of message line J. */
+    private long line(long j) {
+        if (j < 0 || j >= _lineCount) {
+            throw error("no message line %d", j);
+        }
+        return HEADER_BYTES + j * LINE_ENTRY;
+    }
+
+    /** Return the byte at offset POS of the index. */
+    private byte getByte(long pos) {
+        return _segments[(int) (pos / SEGMENT)].get((int) (pos % SEGMENT));
+    }
+
+    /** Return the int at offset POS of the index. */
+    private int getInt(long pos) {
+        return _segments[(int) (pos / SEGMENT)].getInt((int) (pos % SEGMENT));
+    }
+
+    /** Return the long at offset POS of the index. */
+    private long getLong(long pos) {
+        return _segments[(int) (pos / SEGMENT)]
+            .getLong((int) (pos % SEGMENT));
+    }
+
+    /** Identifies a section index file. */
+    private static final int MAGIC = 0x454e535a;
+    /** Bytes of the header: four ints (magic number, alphabet size,
+     *  rotor slots and plugboards) and nine longs (archive size,
+     *  sections, lines, the offsets of the section records, plugboards
+     *  and settings lines, and the archive's modification time, CRC-32C
+     *  and window CRC-32C). */
+    private static final int HEADER_BYTES = 88;
+    /** Bytes at each end of the archive covered by the window CRC. */
+    static final long WINDOW = 1 << 16;
+    /** Bytes per message line record: offset, characters before it and
+     *  packed rotor settings. */
+    private static final int LINE_ENTRY = 24;
+    /** Longs at the start of a section record: offset, first line,
+     *  characters and settings line offset.  Then come the length of the
+     *  settings line, the plugboard number, the rotor ids and the ring
+     *  settings, as ints. */
+    private static final int SECTION_LONGS = 4;
+    /** Bytes per mapped segment of the index.  Each segment maps OVERLAP
+     *  bytes more, so that no int or long lies across two. */
+    private static final long SEGMENT = 1L << 30;
+    /** Bytes by which mapped segments overlap. */
+    private static final long OVERLAP = 8;
+    /** Maximum number of compiled settings lines kept while writing. */
+    private static final int MAX_KEYS = 1024;
+
+    /** The mapped index. */
+    private final MappedByteBuffer[] _segments;
+    /** The archive. */
+    private final MappedSections _archive;
+    /** Alphabet size and number of rotor slots. */
+    private final int _size, _numRotors;
+    /** Numbers of sections and message lines. */
+    private final long _sectionCount, _lineCount;
+    /** Offsets of the section records, plugboards and settings lines. */
+    private final long _sectionStart, _plugboardStart, _stringStart;
+    /** Bytes per section record. */
+    private final int _sectionEntry;
+}
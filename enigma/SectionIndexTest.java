@@ -0,0 +1,160 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for section indices.
+ *  @author Truong Le
+ */
+public class SectionIndexTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** An archive of three sections.  The second inherits the ring
+     *  settings and plugboard of the first. */
+    private static final String ARCHIVE =
+        "* B Beta III IV I AXLE BQRT (AZ) (HQ)\r\n"
+        + "FROMH ISSHO ULDER\n"
+        + "\n"
+        + "HIAWATHA TOOK THE CAMERA\n"
+        + "* B Beta III IV I QZAB\n"
+        + "OFROSEWOODMADEOFSLIDINGFOLDINGROSEWOOD\n"
+        + "* C Gamma I II V AAAA\n";
+
+    /** Number of sections in FILLER. */
+    private static final int FILLER_SECTIONS =
+        (int) (SectionIndex.WINDOW / 30);
+
+    /** Sections of one message line each, more than the window of the
+     *  index's window CRC. */
+    private static final String FILLER =
+        "* C Gamma I II V AAAA\nHELLO WORLD\n".repeat(FILLER_SECTIONS);
+
+    /** Write TEXT to ARCHIVE, last modified at TIME. */
+    private static void rewrite(File archive, String text, long time)
+        throws Exception {
+        Files.write(archive.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        archive.setLastModified(time);
+    }
+
+    /** Assert that CHECK fails because the index does not match its
+     *  archive. */
+    private static void assertStale(Runnable check) {
+        try {
+            check.run();
+            fail("stale index accepted");
+        } catch (EnigmaException excp) {
+            assertEquals("index does not match its archive",
+                         excp.getMessage());
+        }
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testViewsMatchSequentialConversion() throws Exception {
+        MachineSpec spec = naval();
+        File archive = File.createTempFile("enigma-archive", ".in");
+        File index = File.createTempFile("enigma-archive", ".idx");
+        try {
+            Files.write(archive.toPath(),
+                        ARCHIVE.getBytes(StandardCharsets.UTF_8));
+            SectionIndex.write(spec, archive, index);
+            SectionIndex sections = SectionIndex.map(index, archive);
+            assertEquals(3, sections.sections());
+            assertEquals(4, sections.lines());
+            assertEquals(3, sections.lineCount(0));
+            assertEquals(0, sections.lineCount(2));
+            assertEquals("* B Beta III IV I QZAB", sections.settings(1));
+            assertEquals(ARCHIVE.indexOf("* B Beta III IV I QZAB"),
+                         sections.sectionOffset(1));
+            assertEquals("", sections.text(1));
+            assertEquals(15, sections.charOffset(2));
+
+            Machine M = spec.newMachine();
+            MachineKey.compile(M, "* B Beta III IV I AXLE BQRT (AZ) (HQ)");
+            String first = M.convert("FROMHISSHOULDERHIAWATHATOOKTHECAMERA");
+            MachineKey.compile(M, "* B Beta III IV I QZAB");
+            String second =
+                M.convert("OFROSEWOODMADEOFSLIDINGFOLDINGROSEWOOD");
+
+            SectionIndex.View view = sections.view(spec, 0);
+            assertEquals(first, view.toString());
+            assertEquals(first.charAt(20), view.charAt(20));
+            assertEquals(first.charAt(3), view.charAt(3));
+            assertEquals(first.substring(12, 30),
+                         view.subSequence(12, 30).toString());
+            assertEquals(second, sections.view(spec, 1).toString());
+            assertEquals(0, sections.view(spec, 2).length());
+        } finally {
+            archive.delete();
+            index.delete();
+        }
+    }
+
+    @Test
+    public void testEditedInPlace() throws Exception {
+        MachineSpec spec = naval();
+        File archive = File.createTempFile("enigma-archive", ".in");
+        File index = File.createTempFile("enigma-archive", ".idx");
+        try {
+            String text = FILLER + ARCHIVE + FILLER;
+            long middle = FILLER_SECTIONS;
+            rewrite(archive, text, 1_000_000_000L);
+            SectionIndex.write(spec, archive, index);
+            SectionIndex.map(index, archive).verify();
+
+            rewrite(archive, text, 1_000_010_000L);
+            assertStale(() -> SectionIndex.map(index, archive));
+            rewrite(archive, text.replaceFirst("HELLO", "HELLP"),
+                    1_000_000_000L);
+            assertStale(() -> SectionIndex.map(index, archive));
+
+            rewrite(archive, text.replace("QZAB", "QZAC"), 1_000_000_000L);
+            SectionIndex sections = SectionIndex.map(index, archive);
+            assertEquals(36, sections.view(spec, middle).length());
+            assertStale(() -> sections.view(spec, middle + 1));
+            assertStale(sections::verify);
+
+            rewrite(archive, text.replace("ROSEWOOD", "ROSEWOOF"),
+                    1_000_000_000L);
+            SectionIndex edited = SectionIndex.map(index, archive);
+            edited.view(spec, middle + 1);
+            assertStale(edited::verify);
+        } finally {
+            archive.delete();
+            index.delete();
+        }
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testStaleIndex() throws Exception {
+        MachineSpec spec = naval();
+        File archive = File.createTempFile("enigma-archive", ".in");
+        File index = File.createTempFile("enigma-archive", ".idx");
+        try {
+            Files.write(archive.toPath(),
+                        ARCHIVE.getBytes(StandardCharsets.UTF_8));
+            SectionIndex.write(spec, archive, index);
+            Files.write(archive.toPath(),
+                        (ARCHIVE + "ABC\n").getBytes(StandardCharsets.UTF_8));
+            SectionIndex.map(index, archive);
+        } finally {
+            archive.delete();
+            index.delete();
+        }
+    }
+
+}
@@ -0,0 +1,317 @@
+package enigma;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static enigma.EnigmaException.*;
+import static enigma.EnigmaException.Kind.*;
+
+/** The machine states of many sessions of one configuration, held off
+ *  the heap.  Each session occupies a fixed-size slot of a direct buffer
+ *  holding the ids of its rotor order and plugboard and the settings and
+ *  ring settings of its slots, so a million sessions cost the garbage
+ *  collector nothing to scan and no Machine or Rotor objects.  Rotor
+ *  orders and plugboards are compiled once per store and shared by every
+ *  session that uses them.
+ *
+ *  Sessions are numbered by slot.  Free slots form a lock-free stack,
+ *  linked through the slots themselves, so open() and close() allocate
+ *  and free slots with a compare-and-set.  Converting with a session
+ *  locks one of a fixed set of stripes, which also hold the scratch
+ *  arrays and engines the conversion needs, so any number of threads may
+ *  use a store, and different sessions convert in parallel.
+ *  @author Truong Le
+ */
+class SessionStore {
+
+    /** A store for up to CAPACITY sessions of configuration SPEC. */
+    SessionStore(MachineSpec spec, int capacity) {
+        _spec = spec;
+        _numRotors = spec.numRotors();
+        _slotSize = Integer.BYTES * (HEADER + 2 * _numRotors);
+        if (capacity <= 0
+            || (long) capacity * _slotSize > Integer.MAX_VALUE) {
+            throw error(INTERNAL,
+                        "session store capacity out of range: %d",
+                        capacity);
+        }
+        _capacity = capacity;
+        _slots = ByteBuffer.allocateDirect(capacity * _slotSize)
+            .order(ByteOrder.nativeOrder());
+        _free.set(pack(0, NONE));
+        _stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i += 1) {
+            _stripes[i] = new Stripe(_numRotors);
+        }
+    }
+
+    /** Open a new session set up according to SETTINGS, a settings line
+     *  in the format specified in the assignment, and return its
+     *  number. */
+    int open(String settings) {
+        Machine M = _spec.newMachine();
+        MachineKey key = MachineKey.compile(M, settings);
+        int order = orderId(key.rotors()),
+            plugboard = plugboardId(key.plugboard());
+        int session = allocate();
+        synchronized (stripe(session)) {
+            int base = session * _slotSize;
+            for (int k = 0; k < _numRotors; k += 1) {
+                put(base, HEADER + k, M.rotor(k).setting());
+                put(base, HEADER + _numRotors + k, M.rotor(k).ring());
+            }
+            put(base, PLUGBOARD, plugboard);
+            put(base, ORDER, order + 1);
+        }
+        _open.incrementAndGet();
+        return session;
+    }
+
+    /** Close SESSION, freeing its slot. */
+    void close(int session) {
+        synchronized (stripe(session)) {
+            int base = checkOpen(session);
+            put(base, ORDER, 0);
+        }
+        _open.decrementAndGet();
+        release(session);
+    }
+
+    /** Convert the first COUNT entries of CHARS (alphabet indices, all
+     *  valid) in place with the machine state of SESSION, which they
+     *  advance. */
+    void convert(int session, int[] chars, int count) {
+        Stripe stripe = stripe(session);
+        synchronized (stripe) {
+            int base = checkOpen(session);
+            int order = get(base, ORDER) - 1,
+                plugboard = get(base, PLUGBOARD);
+            int[] posns = stripe.posns, rings = stripe.rings;
+            for (int k = 0; k < _numRotors; k += 1) {
+                posns[k] = get(base, HEADER + k);
+                rings[k] = get(base, HEADER + _numRotors + k);
+            }
+            stripe.engine(order, _orders.get(order))
+                .run(posns, rings,
+                     plugboard == NONE ? null : _plugboards.get(plugboard),
+                     chars, count);
+            for (int k = 0; k < _numRotors; k += 1) {
+                put(base, HEADER + k, posns[k]);
+            }
+        }
+    }
+
+    /** Return the conversion of MSG with the machine state of SESSION,
+     *  which it advances.  MSG is validated before any character is
+     *  converted. */
+    String convert(int session, String msg) {
+        Alphabet alpha = _spec.alphabet();
+        int[] chars = alpha.toIndices(msg);
+        convert(session, chars, chars.length);
+        return alpha.fromIndices(chars, chars.length);
+    }
+
+    /** Return the settings of the slots of SESSION, reflector first. */
+    int[] positions(int session) {
+        synchronized (stripe(session)) {
+            int base = checkOpen(session);
+            int[] result = new int[_numRotors];
+            for (int k = 0; k < _numRotors; k += 1) {
+                result[k] = get(base, HEADER + k);
+            }
+            return result;
+        }
+    }
+
+    /** Return the number of open sessions. */
+    int size() {
+        return _open.get();
+    }
+
+    /** Return the maximum number of open sessions. */
+    int capacity() {
+        return _capacity;
+    }
+
+    /** Return the number of bytes of each session's slot. */
+    int slotSize() {
+        return _slotSize;
+    }
+
+    /** Return the number of a free slot, removed from the free stack.
+     *  Slots never used before are taken in order once the stack is
+     *  empty. */
+    private int allocate() {
+        while (true) {
+            long top = _free.get();
+            int session = (int) top;
+            if (session == NONE) {
+                session = _fresh.getAndIncrement();
+                if (session >= _capacity) {
+                    _fresh.decrementAndGet();
+                    if (_free.get() != top) {
+                        continue;
+                    }
+                    throw error("session store full (%d sessions)",
+                                _capacity);
+                }
+                return session;
+            }
+            int next = get(session * _slotSize, PLUGBOARD);
+            if (_free.compareAndSet(top, pack(tag(top) + 1, next))) {
+                return session;
+            }
+        }
+    }
+
+    /** Push SESSION's slot on the free stack. */
+    private void release(int session) {
+        while (true) {
+            long top = _free.get();
+            put(session * _slotSize, PLUGBOARD, (int) top);
+            if (_free.compareAndSet(top, pack(tag(top) + 1, session))) {
+                return;
+            }
+        }
+    }
+
+    /** Return the offset of the slot of SESSION, checking that it is
+     *  open. */
+    private int checkOpen(int session) {
+        if (session < 0 || session >= _capacity
+            || get(session * _slotSize, ORDER) == 0) {
+            throw error("no such session: %d", session);
+        }
+        return session * _slotSize;
+    }
+
+    /** Return the id of the rotor order whose registry ids are IDS,
+     *  compiling it if it is new. */
+    private synchronized int orderId(int[] ids) {
+        String key = Arrays.toString(ids);
+        Integer id = _orderIds.get(key);
+        if (id == null) {
+            Machine M = _spec.newMachine();
+            M.insertRotors(ids);
+            id = _orders.size();
+            _orders.add(new MachineTables(M));
+            _orderIds.put(key, id);
+        }
+        return id;
+    }
+
+    /** Return the id of PLUGBOARD, or NONE if it is null. */
+    private synchronized int plugboardId(Permutation plugboard) {
+        if (plugboard == null) {
+            return NONE;
+        }
+        Integer id = _plugboardIds.get(plugboard);
+        if (id == null) {
+            id = _plugboards.size();
+            _plugboards.add(plugboard.forwardTable());
+            _plugboardIds.put(plugboard, id);
+        }
+        return id;
+    }
+
+    /** Return the stripe guarding SESSION. */
+    private Stripe stripe(int session) {
+        return _stripes[session & (STRIPES - 1)];
+    }
+
+    /** Return int #I of the slot at offset BASE. */
+    private int get(int base, int i) {
+        return _slots.getInt(base + Integer.BYTES * i);
+    }
+
+    /** Set int #I of the slot at offset BASE to VALUE. */
+    private void put(int base, int i, int value) {
+        _slots.putInt(base + Integer.BYTES * i, value);
+    }
+
+    /** Return the free-stack word with tag TAG and top SESSION. */
+    private static long pack(int tag, int session) {
+        return ((long) tag << Integer.SIZE) | (session & 0xffffffffL);
+    }
+
+    /** Return the tag of free-stack word TOP. */
+    private static int tag(long top) {
+        return (int) (top >>> Integer.SIZE);
+    }
+
+    /** A lock for the sessions whose numbers are congruent modulo
+     *  STRIPES, with the scratch state for converting with them. */
+    private static final class Stripe {
+
+        /** A stripe for machines with NUMROTORS slots. */
+        Stripe(int numRotors) {
+            posns = new int[numRotors];
+            rings = new int[numRotors];
+        }
+
+        /** Return my engine for the rotor order with id ORDER, whose
+         *  tables are TABLES. */
+        Engine engine(int order, MachineTables tables) {
+            if (order >= engines.length) {
+                engines = Arrays.copyOf(engines, 2 * order + 1);
+            }
+            if (engines[order] == null) {
+                engines[order] = Engine.select(tables);
+            }
+            return engines[order];
+        }
+
+        /** Scratch settings and ring settings, by slot. */
+        private final int[] posns, rings;
+        /** Engines by rotor order id, or null where not yet selected. */
+        private Engine[] engines = new Engine[0];
+    }
+
+    /** Index of the rotor order id (plus one; 0 marks a free slot). */
+    private static final int ORDER = 0;
+    /** Index of the plugboard id, or of the next free slot's number in a
+     *  free slot. */
+    private static final int PLUGBOARD = 1;
+    /** Number of ints before the settings of a slot. */
+    private static final int HEADER = 2;
+    /** The absent plugboard or slot. */
+    private static final int NONE = -1;
+    /** Number of lock stripes (a power of 2). */
+    private static final int STRIPES = 64;
+
+    /** My configuration. */
+    private final MachineSpec _spec;
+    /** Number of rotor slots of my configuration. */
+    private final int _numRotors;
+    /** Bytes per session. */
+    private final int _slotSize;
+    /** Maximum number of sessions. */
+    private final int _capacity;
+    /** The session slots. */
+    private final ByteBuffer _slots;
+    /** Top of the free stack (low half) and a tag counting its changes
+     *  (high half), so a stale compare-and-set fails. */
+    private final AtomicLong _free = new AtomicLong();
+    /** Number of the first slot never used. */
+    private final AtomicInteger _fresh = new AtomicInteger();
+    /** Number of open sessions. */
+    private final AtomicInteger _open = new AtomicInteger();
+    /** Lock stripes. */
+    private final Stripe[] _stripes;
+    /** Compiled rotor orders, by id. */
+    private final CopyOnWriteArrayList<MachineTables> _orders =
+        new CopyOnWriteArrayList<>();
+    /** Rotor order ids, by registry ids. */
+    private final HashMap<String, Integer> _orderIds = new HashMap<>();
+    /** Plugboard forward tables, by id. */
+    private final CopyOnWriteArrayList<int[]> _plugboards =
+        new CopyOnWriteArrayList<>();
+    /** Plugboard ids, by (interned) plugboard. */
+    private final HashMap<Permutation, Integer> _plugboardIds =
+        new HashMap<>();
+}
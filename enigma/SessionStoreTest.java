@@ -0,0 +1,98 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the off-heap session store.
+ *  @author Truong Le
+ */
+public class SessionStoreTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testSessionsMatchMachines() {
+        MachineSpec spec = naval();
+        SessionStore store = new SessionStore(spec, 16);
+        String msg = "FROMHISSHOULDERHIAWATHATOOKTHECAMERAOFROSEWOOD";
+        int[] sessions = new int[NAVAL_SETTINGS.length];
+        for (int i = 0; i < NAVAL_SETTINGS.length; i += 1) {
+            sessions[i] = store.open(NAVAL_SETTINGS[i]);
+        }
+        assertEquals(NAVAL_SETTINGS.length, store.size());
+        for (int i = 0; i < NAVAL_SETTINGS.length; i += 1) {
+            String first = msg.substring(0, 20), rest = msg.substring(20);
+            assertEquals(converted(spec, NAVAL_SETTINGS[i], msg),
+                         store.convert(sessions[i], first)
+                         + store.convert(sessions[i], rest));
+        }
+    }
+
+    @Test
+    public void testReuseAndCapacity() {
+        SessionStore store = new SessionStore(naval(), 2);
+        int a = store.open(NAVAL_SETTINGS[0]),
+            b = store.open(NAVAL_SETTINGS[1]);
+        try {
+            store.open(NAVAL_SETTINGS[2]);
+            fail("store should be full");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+        store.close(a);
+        assertEquals(1, store.size());
+        try {
+            store.convert(a, "A");
+            fail("closed session should be rejected");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+        int c = store.open(NAVAL_SETTINGS[2]);
+        assertEquals(a, c);
+        assertEquals(converted(naval(), NAVAL_SETTINGS[2], "HELLO"),
+                     store.convert(c, "HELLO"));
+        assertTrue(b != c);
+    }
+
+    @Test
+    public void testConcurrentSessions() throws Exception {
+        MachineSpec spec = naval();
+        SessionStore store = new SessionStore(spec, 1000);
+        String msg = "THEQUICKBROWNFOXJUMPSOVERTHELAZYDOG";
+        String want = converted(spec, NAVAL_SETTINGS[0], msg);
+        ArrayList<Thread> threads = new ArrayList<>();
+        boolean[] ok = new boolean[8];
+        for (int t = 0; t < ok.length; t += 1) {
+            int w = t;
+            Thread thread = new Thread(() -> {
+                boolean good = true;
+                for (int i = 0; i < 100; i += 1) {
+                    int s = store.open(NAVAL_SETTINGS[0]);
+                    good &= want.equals(store.convert(s, msg));
+                    store.close(s);
+                }
+                ok[w] = good;
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (boolean good : ok) {
+            assertTrue(good);
+        }
+        assertEquals(0, store.size());
+    }
+
+}
@@ -0,0 +1,103 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** The settings lines seen so far in a file of messages, reduced to
+ *  those that still matter.  A settings line that gives no ring settings
+ *  leaves each rotor with the ring setting it last had, and one that
+ *  gives no plugboard leaves the plugboard as it was, so a machine's state
+ *  after a section may depend on any earlier settings line.  lines()
+ *  returns the few lines that, applied in order to a new machine, leave
+ *  the same ring settings and plugboard as all of them: for each rotor,
+ *  the last line that set its ring, and the last line that set the
+ *  plugboard.  Reapplying them lets part of a file be converted on its
+ *  own, exactly as it would be after everything before it.
+ *  @author Truong Le
+ */
+class SettingsHistory {
+
+    /** An empty history of settings lines for configuration SPEC. */
+    SettingsHistory(MachineSpec spec) {
+        _machine = spec.newMachine();
+        _ringLines = new int[spec.registry().size()];
+    }
+
+    /** Add the settings line SETTINGS, which is checked as
+     *  Main.setUp would check it. */
+    void add(String settings) {
+        MachineKey key = _keys.get(settings);
+        if (key == null) {
+            key = MachineKey.compile(_machine, settings);
+            _keys.put(settings, key);
+        }
+        _count += 1;
+        if (key.rings() != null) {
+            int[] ids = key.rotors();
+            for (int k = 1; k < ids.length; k += 1) {
+                _ringLines[ids[k]] = _count;
+            }
+            _lines.put(_count, settings);
+        }
+        if (key.plugboard() != null) {
+            _plugboardLine = _count;
+            _lines.put(_count, settings);
+        }
+    }
+
+    /** Add the lines of LATER, a history of the lines that follow mine,
+     *  to me. */
+    void addAll(SettingsHistory later) {
+        later.lines();
+        for (int id = 0; id < _ringLines.length; id += 1) {
+            if (later._ringLines[id] > 0) {
+                _ringLines[id] = _count + later._ringLines[id];
+            }
+        }
+        if (later._plugboardLine > 0) {
+            _plugboardLine = _count + later._plugboardLine;
+        }
+        for (Map.Entry<Integer, String> line : later._lines.entrySet()) {
+            _lines.put(_count + line.getKey(), line.getValue());
+        }
+        _count += later._count;
+    }
+
+    /** Return the settings lines that reproduce the ring settings and
+     *  plugboard left by all lines added so far, in order. */
+    List<String> lines() {
+        TreeMap<Integer, String> used = new TreeMap<>();
+        for (int line : _ringLines) {
+            if (line > 0) {
+                used.put(line, _lines.get(line));
+            }
+        }
+        if (_plugboardLine > 0) {
+            used.put(_plugboardLine, _lines.get(_plugboardLine));
+        }
+        _lines.keySet().retainAll(used.keySet());
+        return new ArrayList<>(used.values());
+    }
+
+    /** Maximum number of compiled settings lines kept. */
+    private static final int MAX_KEYS = 1024;
+
+    /** Machine on which lines are compiled. */
+    private final Machine _machine;
+    /** Compiled keys of recently seen settings lines. */
+    private final LruCache<String, MachineKey> _keys =
+        new LruCache<>(MAX_KEYS);
+    /** Number of lines added. */
+    private int _count;
+    /** For each rotor, by registry id, the number (from 1) of the last
+     *  line that set its ring, or 0. */
+    private final int[] _ringLines;
+    /** Number of the last line that set the plugboard, or 0. */
+    private int _plugboardLine;
+    /** Lines that set ring settings or the plugboard, by number, at least
+     *  for those still in use. */
+    private final HashMap<Integer, String> _lines = new HashMap<>();
+}
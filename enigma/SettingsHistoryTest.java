@@ -0,0 +1,90 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the SettingsHistory class.
+ *  @author Truong Le
+ */
+public class SettingsHistoryTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Settings lines: with rings and plugboard, with neither, with rings
+     *  alone, and with rings and plugboard. */
+    private static final String[] LINES = {
+        "* B Beta III IV I AXLE BQRT (AZ)",
+        "* C Gamma I II V QZAB",
+        "* B Beta III IV I AXLE CDEF",
+        "* C Gamma I II V QZAB ABCD (HQ) (EX)",
+    };
+
+    /** Return the history of LINES for configuration SPEC. */
+    private static SettingsHistory history(MachineSpec spec,
+                                           String... lines) {
+        SettingsHistory result = new SettingsHistory(spec);
+        for (String line : lines) {
+            result.add(line);
+        }
+        return result;
+    }
+
+    /** Return the conversion of MSG by a new machine of SPEC after the
+     *  settings lines LINES and then SETTINGS, which keeps the ring
+     *  settings and plugboard they left. */
+    private static String after(MachineSpec spec, List<String> lines,
+                                String settings, String msg) {
+        Machine M = spec.newMachine();
+        for (String line : lines) {
+            MachineKey.compile(M, line);
+        }
+        MachineKey.compile(M, settings);
+        return M.convert(msg);
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testLinesThatMatter() {
+        MachineSpec spec = naval();
+        List<String> lines = history(spec, LINES).lines();
+        assertEquals(Arrays.asList(LINES[2], LINES[3]), lines);
+        for (String settings : new String[] {"* B Beta III IV I AAAA",
+                                             "* C Gamma I II V ZZZZ"}) {
+            assertEquals(after(spec, Arrays.asList(LINES), settings,
+                               "FROMHISSHOULDER"),
+                         after(spec, lines, settings, "FROMHISSHOULDER"));
+        }
+        assertEquals(Arrays.asList(LINES[0]),
+                     history(spec, LINES[0], LINES[1]).lines());
+        assertTrue(history(spec, LINES[1]).lines().isEmpty());
+    }
+
+    @Test
+    public void testAddAll() {
+        MachineSpec spec = naval();
+        SettingsHistory first = history(spec, LINES[0], LINES[1]);
+        first.addAll(history(spec, LINES[2], LINES[3]));
+        assertEquals(history(spec, LINES).lines(), first.lines());
+
+        SettingsHistory earlier = history(spec, LINES[3]);
+        earlier.addAll(history(spec, LINES[1], LINES[0]));
+        assertEquals(Arrays.asList(LINES[3], LINES[0]), earlier.lines());
+
+        SettingsHistory unchanged = history(spec, LINES[0]);
+        unchanged.addAll(history(spec, LINES[1]));
+        assertEquals(Arrays.asList(LINES[0]), unchanged.lines());
+    }
+
+}
@@ -1,6 +1,7 @@
 package enigma;
 
 import java.util.HashMap;
+import java.util.Scanner;
 
 /** Utility definitions for use in unit tests.
  *  @author P. N. Hilfinger
@@ -18,6 +19,50 @@ class TestUtils {
         return testId + " (" + String.format(msgFormat, args) + ")";
     }
 
+    /** Return the configuration of a naval machine (five slots, three
+     *  pawls) with the rotors NAMES, in their A setting, or with rotors
+     *  I-V, Beta, Gamma, B and C if NAMES is empty. */
+    static MachineSpec naval(String... names) {
+        if (names.length == 0) {
+            names = new String[] {"I", "II", "III", "IV", "V", "Beta",
+                                  "Gamma", "B", "C"};
+        }
+        StringBuilder config = new StringBuilder(UPPER_STRING + "\n5 3\n");
+        for (String name : names) {
+            config.append(String.format(" %s %s %s\n", name,
+                                        NAVAL_TYPES.get(name),
+                                        NAVALA.get(name)));
+        }
+        return MachineSpec.read(new Scanner(config.toString()));
+    }
+
+    /** Return the conversion of MSG by a new machine of configuration
+     *  SPEC set up by SETTINGS. */
+    static String converted(MachineSpec spec, String settings, String msg) {
+        Machine M = spec.newMachine();
+        MachineKey.compile(M, settings);
+        return M.convert(msg);
+    }
+
+    /** Settings lines for naval(), two of the same rotor order. */
+    static final String[] NAVAL_SETTINGS = {
+        "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)",
+        "* C Gamma I II V QZAB",
+        "* B Beta III IV I AXLE BQRT (AZ)",
+    };
+
+    /** The types and notches of the naval rotors. */
+    static final HashMap<String, String> NAVAL_TYPES = new HashMap<>();
+    static {
+        String[] types = {"I", "MQ", "II", "ME", "III", "MV", "IV", "MJ",
+                          "V", "MZ", "VI", "MZM", "VII", "MZM", "VIII",
+                          "MZM", "Beta", "N", "Gamma", "N", "B", "R",
+                          "C", "R"};
+        for (int i = 0; i < types.length; i += 2) {
+            NAVAL_TYPES.put(types[i], types[i + 1]);
+        }
+    }
+
     /** The naval rotors in the A (0) setting. */
     static final HashMap<String, String> NAVALA = new HashMap<>();
     static {
@@ -11,7 +11,22 @@ public class UnitTest {
      *  the arguments of runClasses to run other JUnit tests. */
     public static void main(String[] ignored) {
         System.exit(textui.runClasses(PermutationTest.class,
-                                      MovingRotorTest.class));
+                                      MovingRotorTest.class,
+                                      BatchMachineTest.class,
+                                      SearchCoordinatorTest.class,
+                                      MessageEditorTest.class,
+                                      ConvertingProcessorTest.class,
+                                      MetricsTest.class,
+                                      EngineTest.class,
+                                      SessionStoreTest.class,
+                                      ConfigWatcherTest.class,
+                                      ResultCacheTest.class,
+                                      SectionIndexTest.class,
+                                      ConversionSchedulerTest.class,
+                                      CompressionTest.class,
+                                      PeriodAnalysisTest.class,
+                                      MappedSectionsTest.class,
+                                      SettingsHistoryTest.class));
     }
 
 }